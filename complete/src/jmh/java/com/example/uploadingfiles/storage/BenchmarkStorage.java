@@ -0,0 +1,68 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Helpers shared by the storage benchmarks.
+ */
+final class BenchmarkStorage {
+
+  private BenchmarkStorage() {
+  }
+
+  static Path newLocation(String name) throws IOException {
+    Path base = Paths.get(System.getProperty("benchmark.dir", "target/benchmark-files"));
+    Files.createDirectories(base);
+    return Files.createTempDirectory(base, name + "-");
+  }
+
+  static FileSystemStorageService newService(Path location) {
+    StorageProperties properties = new StorageProperties();
+    properties.setLocation(location.toString());
+    properties.setShardDepth(Integer.getInteger("benchmark.shardDepth", 0));
+    properties.setWatchForChanges(false);
+    FileSystemStorageService service = new FileSystemStorageService(properties);
+    service.init();
+    return service;
+  }
+
+  /**
+   * Fill {@code service} with {@code count} small files.
+   */
+  static void populate(FileSystemStorageService service, int count) {
+    byte[] content = { 'x' };
+    for (int i = 0; i < count; i++) {
+      service.store(String.format("file-%08d.txt", i), new ByteArrayInputStream(content));
+    }
+  }
+
+  /**
+   * Wait for the background deletion of what {@code service}, stored at
+   * {@code location}, discarded into its trash.
+   */
+  static void awaitTrashEmptied(Path location) throws IOException, InterruptedException {
+    Path absolute = location.toAbsolutePath().normalize();
+    Path trash = absolute.resolveSibling(absolute.getFileName() + ".trash");
+    while (Files.isDirectory(trash) && count(Files.list(trash)) > 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  static void delete(Path location) throws IOException {
+    FileSystemUtils.deleteRecursively(location);
+  }
+
+  static long count(Stream<?> stream) {
+    try (stream) {
+      return stream.count();
+    }
+  }
+
+}
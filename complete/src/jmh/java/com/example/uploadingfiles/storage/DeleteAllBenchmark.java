@@ -0,0 +1,55 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time for {@link FileSystemStorageService#deleteAll()} to return for stores of
+ * different sizes, which is the time to move the store into the trash: the files are
+ * deleted in the background afterwards, and tear-down waits for that outside of the
+ * measurement. The store is refilled before every invocation, so this runs single-shot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeleteAllBenchmark {
+
+  @Param({ "10", "1000", "100000", "1000000" })
+  public int population;
+
+  private Path location;
+
+  private FileSystemStorageService service;
+
+  @Setup(Level.Invocation)
+  public void setUp() throws IOException {
+    this.location = BenchmarkStorage.newLocation("delete");
+    this.service = BenchmarkStorage.newService(this.location.resolve("store"));
+    BenchmarkStorage.populate(this.service, this.population);
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws IOException, InterruptedException {
+    BenchmarkStorage.awaitTrashEmptied(this.location.resolve("store"));
+    this.service.close();
+    BenchmarkStorage.delete(this.location);
+  }
+
+  @Benchmark
+  public void deleteAll() {
+    this.service.deleteAll();
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Cost of the read paths of {@link FileSystemStorageService} against stores holding
+ * different numbers of files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListingBenchmark {
+
+  @Param({ "10", "1000", "100000", "1000000" })
+  public int population;
+
+  private Path location;
+
+  private FileSystemStorageService service;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.location = BenchmarkStorage.newLocation("listing");
+    this.service = BenchmarkStorage.newService(this.location);
+    BenchmarkStorage.populate(this.service, this.population);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.service.close();
+    BenchmarkStorage.delete(this.location);
+  }
+
+  @Benchmark
+  public long loadAll() {
+    return BenchmarkStorage.count(this.service.loadAll());
+  }
+
+  @Benchmark
+  public FilePage listFirstPage() {
+    return this.service.list(100, null, FileSort.NAME);
+  }
+
+  @Benchmark
+  public Resource loadAsResource() {
+    int file = ThreadLocalRandom.current().nextInt(this.population);
+    return this.service.loadAsResource(String.format("file-%08d.txt", file));
+  }
+
+}
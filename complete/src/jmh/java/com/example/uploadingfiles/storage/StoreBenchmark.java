@@ -0,0 +1,83 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of {@link FileSystemStorageService#store(String, InputStream)} by file size.
+ * Each thread overwrites its own file, so running with {@code -t} measures concurrent
+ * writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+
+  @Param({ "1024", "1048576", "67108864", "1073741824" })
+  public long fileSize;
+
+  private Path location;
+
+  private Path source;
+
+  private FileSystemStorageService service;
+
+  private final AtomicInteger threads = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.location = BenchmarkStorage.newLocation("store");
+    this.service = BenchmarkStorage.newService(this.location.resolve("store"));
+    this.source = this.location.resolve("source.bin");
+    byte[] block = new byte[64 * 1024];
+    new Random(0).nextBytes(block);
+    try (OutputStream out = Files.newOutputStream(this.source)) {
+      for (long written = 0; written < this.fileSize; written += block.length) {
+        out.write(block, 0, (int) Math.min(block.length, this.fileSize - written));
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.service.close();
+    BenchmarkStorage.delete(this.location);
+  }
+
+  @State(Scope.Thread)
+  public static class Writer {
+
+    String filename;
+
+    @Setup(Level.Trial)
+    public void setUp(StoreBenchmark benchmark) {
+      this.filename = "upload-" + benchmark.threads.incrementAndGet() + ".bin";
+    }
+
+  }
+
+  @Benchmark
+  public void store(Writer writer) throws IOException {
+    try (InputStream in = Files.newInputStream(this.source)) {
+      this.service.store(writer.filename, in);
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.example.uploadingfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.uploadingfiles.storage.ChunkedUploadService;
+import com.example.uploadingfiles.storage.ChunkedUploadStatus;
+import com.example.uploadingfiles.storage.DigestMismatchException;
+import com.example.uploadingfiles.storage.InvalidUploadException;
+import com.example.uploadingfiles.storage.StorageFileNotFoundException;
+
+/**
+ * Resumable upload protocol: create an upload, {@code PUT} its numbered chunks in any
+ * order and over as many connections as needed, check which chunks arrived, then commit.
+ * A chunk carrying digest fields, such as {@code Content-MD5}, is only received if it
+ * matches them.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/uploads")
+public class ChunkedUploadController {
+
+  private final ChunkedUploadService uploadService;
+
+  @Autowired
+  public ChunkedUploadController(ChunkedUploadService uploadService) {
+    this.uploadService = uploadService;
+  }
+
+  @PostMapping
+  public ResponseEntity<ChunkedUploadStatus> create(@RequestParam String filename,
+      @RequestParam long size,
+      @RequestParam(defaultValue = "" + ChunkedUploadService.DEFAULT_CHUNK_SIZE) int chunkSize) {
+
+    ChunkedUploadStatus status = uploadService.create(filename, size, chunkSize);
+    return ResponseEntity.created(URI.create("/uploads/" + status.id())).body(status);
+  }
+
+  @GetMapping("/{id}")
+  public ChunkedUploadStatus status(@PathVariable String id) {
+    return uploadService.status(id);
+  }
+
+  @PutMapping("/{id}/chunks/{index}")
+  public ChunkedUploadStatus writeChunk(@PathVariable String id, @PathVariable int index,
+      @RequestHeader HttpHeaders headers, HttpServletRequest request) throws IOException {
+
+    try (InputStream body = ContentDigestHeaders.verifying(headers, request.getInputStream())) {
+      return uploadService.writeChunk(id, index, body);
+    }
+  }
+
+  @PostMapping("/{id}/commit")
+  public ResponseEntity<?> commit(@PathVariable String id) {
+    uploadService.commit(id);
+    return ResponseEntity.noContent().build();
+  }
+
+  @DeleteMapping("/{id}")
+  public ResponseEntity<?> abort(@PathVariable String id) {
+    uploadService.abort(id);
+    return ResponseEntity.noContent().build();
+  }
+
+  @ExceptionHandler(InvalidUploadException.class)
+  public ResponseEntity<?> handleInvalidUpload(InvalidUploadException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(IllegalStateException.class)
+  public ResponseEntity<?> handleIllegalState(IllegalStateException exc) {
+    return ResponseEntity.status(HttpStatus.CONFLICT).build();
+  }
+
+  @ExceptionHandler(DigestMismatchException.class)
+  public ResponseEntity<?> handleDigestMismatch(DigestMismatchException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(StorageFileNotFoundException.class)
+  public ResponseEntity<?> handleStorageFileNotFound(StorageFileNotFoundException exc) {
+    return ResponseEntity.notFound().build();
+  }
+
+}
@@ -0,0 +1,132 @@
+package com.example.uploadingfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.uploadingfiles.storage.ClusteredStorageService;
+import com.example.uploadingfiles.storage.ConditionalOnBackend;
+import com.example.uploadingfiles.storage.DelegatingStorageService;
+import com.example.uploadingfiles.storage.FilePage;
+import com.example.uploadingfiles.storage.FileSort;
+import com.example.uploadingfiles.storage.StorageFileNotFoundException;
+import com.example.uploadingfiles.storage.StorageProperties;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.storage.StoredFile;
+
+/**
+ * Endpoints the nodes of a {@link ClusteredStorageService} call on each other to reach
+ * the files each one stores locally, and to announce themselves.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnBackend(StorageProperties.Backend.CLUSTERED)
+@RequestMapping("/cluster")
+public class ClusterController {
+
+  private final ClusteredStorageService cluster;
+
+  private final byte[] secret;
+
+  @Autowired
+  public ClusterController(StorageService storageService, StorageProperties properties) {
+    this.cluster = (ClusteredStorageService) DelegatingStorageService.unwrap(storageService);
+    this.secret = properties.getClusterSecret().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @ModelAttribute
+  public void checkSecret(
+      @RequestHeader(name = ClusteredStorageService.SECRET_HEADER, defaultValue = "") String secret) {
+
+    if (!MessageDigest.isEqual(this.secret, secret.getBytes(StandardCharsets.UTF_8))) {
+      throw new SecurityException("Wrong cluster secret");
+    }
+  }
+
+  @PutMapping("/files/{filename:.+}")
+  public ResponseEntity<?> store(@PathVariable String filename,
+      @RequestHeader(ClusteredStorageService.LAST_MODIFIED_HEADER) String lastModified,
+      @RequestHeader(name = ClusteredStorageService.DIGEST_HEADER, required = false) String digest,
+      HttpServletRequest request) throws IOException {
+
+    try (InputStream body = request.getInputStream()) {
+      cluster.storeReplica(filename, body, Instant.parse(lastModified), digest);
+    }
+    return ResponseEntity.noContent().build();
+  }
+
+  @GetMapping("/files/{filename:.+}")
+  public ResponseEntity<Resource> serve(@PathVariable String filename) {
+    StoredFile file = cluster.describeReplica(filename);
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(file.contentType()))
+        .header(ClusteredStorageService.LAST_MODIFIED_HEADER, file.lastModified().toString());
+    if (file.digest() != null) {
+      response.header(ClusteredStorageService.DIGEST_HEADER, file.digest());
+    }
+    return response.body(cluster.loadReplica(filename));
+  }
+
+  @GetMapping(path = "/files", produces = MediaType.TEXT_PLAIN_VALUE)
+  public ResponseEntity<String> list(@RequestParam int limit, @RequestParam(required = false) String cursor,
+      @RequestParam FileSort sort) {
+
+    FilePage page = cluster.listReplicas(limit, cursor, sort);
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (page.nextCursor() != null) {
+      response.header(ClusteredStorageService.NEXT_CURSOR_HEADER, page.nextCursor());
+    }
+    return response.body(ClusteredStorageService.formatListing(page.files()));
+  }
+
+  @DeleteMapping("/files")
+  public ResponseEntity<?> deleteAll() {
+    cluster.deleteReplicas();
+    return ResponseEntity.noContent().build();
+  }
+
+  @PostMapping("/nodes")
+  public ResponseEntity<?> join(@RequestParam String node) {
+    cluster.join(node);
+    return ResponseEntity.noContent().build();
+  }
+
+  @ExceptionHandler(SecurityException.class)
+  public ResponseEntity<?> handleSecurity(SecurityException exc) {
+    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+  }
+
+  @ExceptionHandler({ IllegalArgumentException.class, DateTimeParseException.class })
+  public ResponseEntity<?> handleIllegalArgument(RuntimeException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(StorageFileNotFoundException.class)
+  public ResponseEntity<?> handleStorageFileNotFound(StorageFileNotFoundException exc) {
+    return ResponseEntity.notFound().build();
+  }
+
+}
@@ -0,0 +1,113 @@
+package com.example.uploadingfiles;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.uploadingfiles.storage.StoredFile;
+import com.example.uploadingfiles.storage.VerifyingInputStream;
+
+/**
+ * Integrity fields of HTTP messages. Uploads may carry the digest of their content as
+ * {@code Content-MD5} (RFC 1864), {@code Digest} (RFC 3230), {@code Content-Digest} or
+ * {@code Repr-Digest} (RFC 9530), and downloads of a file as stored carry its SHA-256
+ * as {@code Repr-Digest} and {@code Digest}.
+ */
+final class ContentDigestHeaders {
+
+  static final String CONTENT_MD5 = "Content-MD5";
+
+  static final String DIGEST = "Digest";
+
+  static final String CONTENT_DIGEST = "Content-Digest";
+
+  static final String REPR_DIGEST = "Repr-Digest";
+
+  private ContentDigestHeaders() {
+  }
+
+  /**
+   * Return {@code body} checked against the digests {@code headers} carry as it is read,
+   * or {@code body} itself if they carry none. Algorithms that cannot be verified are
+   * ignored.
+   * @throws ResponseStatusException with status 400 if a digest field is malformed or
+   * two disagree
+   */
+  static InputStream verifying(HttpHeaders headers, InputStream body) {
+    Map<String, byte[]> expected = expected(headers);
+    return (expected.isEmpty() ? body : new VerifyingInputStream(body, expected));
+  }
+
+  static Map<String, byte[]> expected(HttpHeaders headers) {
+    Map<String, byte[]> expected = new LinkedHashMap<>();
+    for (String value : headers.getOrEmpty(CONTENT_MD5)) {
+      add(expected, "md5", value.trim());
+    }
+    for (String value : headers.getOrEmpty(DIGEST)) {
+      for (String member : value.split(",")) {
+        int equals = member.indexOf('=');
+        if (equals < 0) {
+          throw badRequest("Malformed Digest: " + value, null);
+        }
+        add(expected, member.substring(0, equals), member.substring(equals + 1).trim());
+      }
+    }
+    for (String name : new String[] { CONTENT_DIGEST, REPR_DIGEST }) {
+      for (String value : headers.getOrEmpty(name)) {
+        for (String member : value.split(",")) {
+          int equals = member.indexOf('=');
+          String digest = (equals < 0 ? "" : member.substring(equals + 1).split(";")[0].trim());
+          if (digest.length() < 2 || !digest.startsWith(":") || !digest.endsWith(":")) {
+            throw badRequest("Malformed " + name + ": " + value, null);
+          }
+          add(expected, member.substring(0, equals), digest.substring(1, digest.length() - 1));
+        }
+      }
+    }
+    return expected;
+  }
+
+  private static void add(Map<String, byte[]> expected, String algorithm, String base64) {
+    algorithm = algorithm.trim().toLowerCase(Locale.ROOT);
+    if (!VerifyingInputStream.ALGORITHMS.contains(algorithm)) {
+      return;
+    }
+    byte[] digest;
+    try {
+      digest = Base64.getDecoder().decode(base64);
+    }
+    catch (IllegalArgumentException e) {
+      throw badRequest("Malformed " + algorithm + " digest: " + base64, e);
+    }
+    byte[] previous = expected.putIfAbsent(algorithm, digest);
+    if (previous != null && !Arrays.equals(previous, digest)) {
+      throw badRequest("Conflicting " + algorithm + " digests", null);
+    }
+  }
+
+  private static ResponseStatusException badRequest(String reason, Throwable cause) {
+    return new ResponseStatusException(HttpStatus.BAD_REQUEST, reason, cause);
+  }
+
+  /**
+   * Write the digest fields of {@code file} as stored, if its digest is known.
+   */
+  static void write(StoredFile file, BiConsumer<String, String> header) {
+    if (file.digest() == null) {
+      return;
+    }
+    String sha256 = Base64.getEncoder().encodeToString(HexFormat.of().parseHex(file.digest()));
+    header.accept(REPR_DIGEST, "sha-256=:" + sha256 + ":");
+    header.accept(DIGEST, "SHA-256=" + sha256);
+  }
+
+}
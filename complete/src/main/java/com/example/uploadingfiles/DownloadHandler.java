@@ -0,0 +1,440 @@
+package com.example.uploadingfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.example.uploadingfiles.storage.CachedResource;
+import com.example.uploadingfiles.storage.CompressedVariants;
+import com.example.uploadingfiles.storage.MappedResource;
+import com.example.uploadingfiles.storage.StorageProperties;
+import com.example.uploadingfiles.storage.StoredFile;
+
+/**
+ * Writes stored files to the response. File system resources are handed to the
+ * container's sendfile support when it is available, so their content never passes
+ * through user-space buffers. Otherwise they are copied with {@link FileChannel#transferTo},
+ * which still goes through a user-space buffer because the response stream is not a
+ * file or socket channel. Cached and memory-mapped files are written straight from their
+ * buffers. Single and multiple byte
+ * ranges are supported, including {@code If-Range} validation. Responses carry the
+ * content digest as a strong {@code ETag} and conditional requests are answered from
+ * the {@link StoredFile} alone, before the file is opened. Files sent as stored also
+ * carry their SHA-256 as {@code Repr-Digest}, which holds for every range of them. When
+ * {@code storage.compress-downloads} is set, compressible content is sent gzipped to
+ * clients that accept it, from a precompressed variant where one exists. Downloads in
+ * progress and bytes served are published as {@code storage.downloads.active} and
+ * {@code storage.download.bytes}. Bytes handed to sendfile are sent by the container after
+ * the request was handled, so they are published separately as
+ * {@code storage.download.sendfile.bytes}.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class DownloadHandler {
+
+  static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+
+  static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+
+  static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+
+  static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+  /**
+   * Stored files can be overwritten under the same name, so caches must revalidate,
+   * which the entity tag makes cheap.
+   */
+  private static final CacheControl CACHE_CONTROL = CacheControl.noCache().cachePublic();
+
+  private final AtomicInteger activeDownloads = new AtomicInteger();
+
+  private final Counter downloadedBytes;
+
+  private final Counter sendfileBytes;
+
+  private final boolean compressDownloads;
+
+  private final List<String> compressibleTypes;
+
+  @Autowired
+  public DownloadHandler(MeterRegistry registry, StorageProperties properties) {
+    this.compressDownloads = properties.isCompressDownloads();
+    this.compressibleTypes = List.copyOf(properties.getCompressibleTypes());
+    registry.gauge("storage.downloads.active", this.activeDownloads);
+    this.downloadedBytes = Counter.builder("storage.download.bytes").baseUnit("bytes").register(registry);
+    this.sendfileBytes = Counter.builder("storage.download.sendfile.bytes").baseUnit("bytes")
+        .register(registry);
+  }
+
+  /**
+   * Choose the content coding to send {@code file} with.
+   * @return {@code gzip}, or {@code null} for the file as stored
+   */
+  public String negotiateContentCoding(StoredFile file, HttpServletRequest request,
+      HttpServletResponse response) {
+
+    if (!this.compressDownloads
+        || !CompressedVariants.isCompressible(file.contentType(), this.compressibleTypes)) {
+      return null;
+    }
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (request.getHeader(HttpHeaders.RANGE) != null) {
+      // Ranges are served from the file as stored
+      return null;
+    }
+    return (acceptsGzip(request) ? CompressedVariants.GZIP : null);
+  }
+
+  /**
+   * Write the validators of {@code file} in the given content coding, and its digest
+   * fields when sent as stored, and evaluate the request's preconditions.
+   * @return {@code true} if the response is complete, typically a 304, and the file
+   * does not need to be read
+   */
+  public boolean checkNotModified(StoredFile file, String contentCoding,
+      HttpServletRequest request, HttpServletResponse response) {
+
+    response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL.getHeaderValue());
+    if (contentCoding == null) {
+      ContentDigestHeaders.write(file, response::setHeader);
+    }
+    return new ServletWebRequest(request, response).checkNotModified(etag(file, contentCoding),
+        file.lastModified().toEpochMilli());
+  }
+
+  /**
+   * Send {@code resource}, the content of {@code file} as stored, compressing it on the
+   * way if a content coding was negotiated.
+   */
+  public void handle(Resource resource, StoredFile file, String contentCoding,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+    this.activeDownloads.incrementAndGet();
+    try {
+      if (contentCoding != null) {
+        writeCompressed(resource, file, contentCoding, request, response);
+      }
+      else {
+        doHandle(resource, file, request, response);
+      }
+    }
+    finally {
+      this.activeDownloads.decrementAndGet();
+      if (resource instanceof MappedResource mapped) {
+        mapped.close();
+      }
+    }
+  }
+
+  /**
+   * Send {@code variant}, the content of {@code file} already compressed with
+   * {@code contentCoding}.
+   */
+  public void handlePrecompressed(Resource variant, StoredFile file, String contentCoding,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+    this.activeDownloads.incrementAndGet();
+    try {
+      long length = variant.contentLength();
+      long lastModified = lastModified(variant);
+      writeEncodedHeaders(file, contentCoding, response);
+      response.setContentLengthLong(length);
+      if (!HttpMethod.HEAD.matches(request.getMethod())) {
+        count(transfer(variant, 0, length, length, lastModified, request, response), length);
+      }
+    }
+    finally {
+      this.activeDownloads.decrementAndGet();
+    }
+  }
+
+  private void writeCompressed(Resource resource, StoredFile file, String contentCoding,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+    writeEncodedHeaders(file, contentCoding, response);
+    if (HttpMethod.HEAD.matches(request.getMethod())) {
+      return;
+    }
+    try (InputStream in = resource.getInputStream();
+        OutputStream out = CompressedVariants.compressor(response.getOutputStream())) {
+      in.transferTo(out);
+    }
+  }
+
+  private static void writeEncodedHeaders(StoredFile file, String contentCoding,
+      HttpServletResponse response) {
+
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+        "attachment; filename=\"" + file.filename() + "\"");
+    response.setHeader(HttpHeaders.CONTENT_ENCODING, contentCoding);
+    response.setContentType(file.contentType());
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    boolean accepted = false;
+    for (String header : Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING))) {
+      for (String coding : header.split(",")) {
+        String[] parameters = coding.trim().split(";");
+        String name = parameters[0].trim();
+        if (!name.equalsIgnoreCase(CompressedVariants.GZIP) && !name.equals("*")) {
+          continue;
+        }
+        boolean refused = false;
+        for (int i = 1; i < parameters.length; i++) {
+          String parameter = parameters[i].trim();
+          if (parameter.startsWith("q=")) {
+            try {
+              refused = Double.parseDouble(parameter.substring(2)) <= 0;
+            }
+            catch (NumberFormatException ex) {
+              refused = true;
+            }
+          }
+        }
+        if (name.equalsIgnoreCase(CompressedVariants.GZIP)) {
+          // An explicit entry overrides the wildcard
+          return !refused;
+        }
+        accepted = !refused;
+      }
+    }
+    return accepted;
+  }
+
+  private void doHandle(Resource resource, StoredFile file, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+
+    long length = resource.contentLength();
+    long lastModified = lastModified(resource);
+    MediaType contentType = MediaTypeFactory.getMediaType(resource)
+        .orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+        "attachment; filename=\"" + resource.getFilename() + "\"");
+
+    List<HttpRange> ranges = List.of();
+    if (isRangeApplicable(request, file)) {
+      try {
+        ranges = HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE));
+      }
+      catch (IllegalArgumentException ex) {
+        // A malformed Range is ignored and the whole file sent (RFC 9110, section 14.2)
+      }
+    }
+    List<ResourceRegion> regions;
+    try {
+      regions = HttpRange.toResourceRegions(ranges, resource);
+    }
+    catch (IllegalArgumentException ex) {
+      response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+    boolean head = HttpMethod.HEAD.matches(request.getMethod());
+
+    if (regions.isEmpty()) {
+      response.setContentType(contentType.toString());
+      response.setContentLengthLong(length);
+      if (!head) {
+        count(transfer(resource, 0, length, length, lastModified, request, response), length);
+      }
+    }
+    else if (regions.size() == 1) {
+      ResourceRegion region = regions.get(0);
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setContentType(contentType.toString());
+      response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(region, length));
+      response.setContentLengthLong(region.getCount());
+      if (!head) {
+        count(transfer(resource, region.getPosition(), region.getCount(), length, lastModified,
+            request, response), region.getCount());
+      }
+    }
+    else {
+      String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setContentType("multipart/byteranges; boundary=" + boundary);
+      if (!head) {
+        writeMultipart(resource, regions, boundary, contentType, length, response);
+        regions.forEach(region -> this.downloadedBytes.increment(region.getCount()));
+      }
+    }
+  }
+
+  private boolean isRangeApplicable(HttpServletRequest request, StoredFile file) {
+    if (request.getHeader(HttpHeaders.RANGE) == null) {
+      return false;
+    }
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // Only a strong comparison is allowed, so weak tags never match
+      return ifRange.equals(etag(file, null));
+    }
+    long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+    return ifRangeDate != -1 && file.lastModified().toEpochMilli() / 1000 == ifRangeDate / 1000;
+  }
+
+  private static String etag(StoredFile file, String contentCoding) {
+    if (file.digest() == null) {
+      return null;
+    }
+    return "\"" + file.digest() + (contentCoding != null ? "-" + contentCoding : "") + "\"";
+  }
+
+  private void writeMultipart(Resource resource, List<ResourceRegion> regions, String boundary,
+      MediaType contentType, long length, HttpServletResponse response) throws IOException {
+
+    OutputStream out = response.getOutputStream();
+    Path path = (resource.isFile() ? resource.getFile().toPath() : null);
+    try (FileChannel channel = (path != null ? FileChannel.open(path, StandardOpenOption.READ) : null)) {
+      WritableByteChannel target = Channels.newChannel(out);
+      for (ResourceRegion region : regions) {
+        out.write(("\r\n--" + boundary + "\r\n"
+            + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+            + HttpHeaders.CONTENT_RANGE + ": " + contentRange(region, length) + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        if (resource instanceof CachedResource cached) {
+          write(cached.slice(region.getPosition(), region.getCount()), target);
+        }
+        else if (resource instanceof MappedResource mapped) {
+          mapped.transferTo(region.getPosition(), region.getCount(), target);
+        }
+        else if (channel != null) {
+          transferTo(channel, region.getPosition(), region.getCount(), target);
+        }
+        else {
+          copyRange(resource, region.getPosition(), region.getCount(), out);
+        }
+      }
+      out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+  }
+
+  /**
+   * Send {@code count} bytes of {@code resource} from {@code position}. The resource had
+   * {@code length} and {@code lastModified} when the response headers were written.
+   * @return {@code true} if the content was handed to the container's sendfile support
+   * and will be sent after the request was handled, {@code false} if it was sent
+   */
+  private boolean transfer(Resource resource, long position, long count, long length,
+      long lastModified, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+
+    if (resource instanceof CachedResource cached) {
+      write(cached.slice(position, count), Channels.newChannel(response.getOutputStream()));
+      return false;
+    }
+    if (resource instanceof MappedResource mapped) {
+      mapped.transferTo(position, count, Channels.newChannel(response.getOutputStream()));
+      return false;
+    }
+    if (!resource.isFile()) {
+      copyRange(resource, position, count, response.getOutputStream());
+      return false;
+    }
+    Path path = resource.getFile().toPath().toAbsolutePath();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // The container opens the file by name once the request was handled, so it is only
+      // handed over if it is still the file the headers describe. Otherwise the content
+      // is sent from the channel opened here.
+      if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))
+          && unchanged(path, length, lastModified)) {
+        request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, path.toString());
+        request.setAttribute(SENDFILE_START_ATTRIBUTE, position);
+        request.setAttribute(SENDFILE_END_ATTRIBUTE, position + count);
+        return true;
+      }
+      transferTo(channel, position, count, Channels.newChannel(response.getOutputStream()));
+      return false;
+    }
+  }
+
+  private void count(boolean handedOff, long bytes) {
+    (handedOff ? this.sendfileBytes : this.downloadedBytes).increment(bytes);
+  }
+
+  private static long lastModified(Resource resource) throws IOException {
+    return (resource.isFile() ? resource.lastModified() : -1);
+  }
+
+  private static boolean unchanged(Path path, long length, long lastModified) throws IOException {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return attributes.size() == length && attributes.lastModifiedTime().toMillis() == lastModified;
+    }
+    catch (NoSuchFileException ex) {
+      return false;
+    }
+  }
+
+  private static void transferTo(FileChannel channel, long position, long count,
+      WritableByteChannel target) throws IOException {
+
+    long end = position + count;
+    while (position < end) {
+      long transferred = channel.transferTo(position, end - position, target);
+      if (transferred <= 0) {
+        throw new IOException("File truncated during transfer");
+      }
+      position += transferred;
+    }
+  }
+
+  private static void write(ByteBuffer content, WritableByteChannel target) throws IOException {
+    while (content.hasRemaining()) {
+      target.write(content);
+    }
+  }
+
+  private static void copyRange(Resource resource, long position, long count,
+      OutputStream out) throws IOException {
+
+    try (InputStream in = resource.getInputStream()) {
+      StreamUtils.copyRange(in, out, position, position + count - 1);
+    }
+  }
+
+  private static String contentRange(ResourceRegion region, long length) {
+    long start = region.getPosition();
+    return "bytes " + start + "-" + (start + region.getCount() - 1) + "/" + length;
+  }
+
+}
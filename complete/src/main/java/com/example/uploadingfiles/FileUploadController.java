@@ -1,10 +1,22 @@
 package com.example.uploadingfiles;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -18,41 +30,127 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.example.uploadingfiles.storage.BatchUploadReport;
+import com.example.uploadingfiles.storage.BatchUploadService;
+import com.example.uploadingfiles.storage.DigestMismatchException;
+import com.example.uploadingfiles.storage.EmptyFileException;
+import com.example.uploadingfiles.storage.FileDetails;
+import com.example.uploadingfiles.storage.FileMetadataStore;
+import com.example.uploadingfiles.storage.FilePage;
+import com.example.uploadingfiles.storage.FileQuery;
+import com.example.uploadingfiles.storage.FileSort;
+import com.example.uploadingfiles.storage.InvalidPageRequestException;
+import com.example.uploadingfiles.storage.StorageException;
 import com.example.uploadingfiles.storage.StorageFileNotFoundException;
 import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.storage.StoredFile;
 
 @Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class FileUploadController {
 
+  private static final int DEFAULT_PAGE_SIZE = 100;
+
+  private static final int MAX_PAGE_SIZE = 1000;
+
   private final StorageService storageService;
 
+  private final DownloadHandler downloadHandler;
+
+  private final FileMetadataStore metadataStore;
+
+  private final BatchUploadService batchUploadService;
+
   @Autowired
-  public FileUploadController(StorageService storageService) {
+  public FileUploadController(StorageService storageService, DownloadHandler downloadHandler,
+      FileMetadataStore metadataStore, BatchUploadService batchUploadService) {
+
     this.storageService = storageService;
+    this.downloadHandler = downloadHandler;
+    this.metadataStore = metadataStore;
+    this.batchUploadService = batchUploadService;
   }
 
   @GetMapping("/")
-  public String listUploadedFiles(Model model) {
+  public String listUploadedFiles(@RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(defaultValue = "NAME") FileSort sort, Model model) {
 
-    model.addAttribute("files", storageService.loadAll().map(
-        path -> MvcUriComponentsBuilder.fromMethodName(FileUploadController.class,
-            "serveFile", path.getFileName().toString()).build().toUri().toString())
+    FilePage page = storageService.list(pageSize(limit), cursor, sort);
+    model.addAttribute("files", page.files().stream().map(
+        file -> MvcUriComponentsBuilder.fromMethodName(FileUploadController.class,
+            "serveFile", file.filename(), null, null).build().toUri().toString())
         .collect(Collectors.toList()));
+    model.addAttribute("nextCursor", page.nextCursor());
+    model.addAttribute("sort", sort);
 
     return "uploadForm";
   }
 
-  @GetMapping("/files/{filename:.+}")
+  @GetMapping(path = "/api/files", produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public FilePage listFiles(@RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(defaultValue = "NAME") FileSort sort) {
+
+    return storageService.list(pageSize(limit), cursor, sort);
+  }
+
+  /**
+   * Find files by size, time stored, content type and uploader from their metadata,
+   * without listing the storage backend.
+   */
+  @GetMapping(path = "/api/search", produces = MediaType.APPLICATION_JSON_VALUE)
   @ResponseBody
-  public ResponseEntity<Resource> serveFile(@PathVariable String filename) {
+  public List<FileDetails> searchFiles(@RequestParam(required = false) Long minSize,
+      @RequestParam(required = false) Long maxSize,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant storedAfter,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant storedBefore,
+      @RequestParam(required = false) String contentType, @RequestParam(required = false) String uploader,
+      @RequestParam(defaultValue = "NAME") FileQuery.Sort sort, @RequestParam(defaultValue = "false") boolean descending,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+
+    FileQuery query = new FileQuery(minSize, maxSize, storedAfter, storedBefore, contentType, uploader, sort,
+        descending, pageSize(limit));
+    return metadataStore.query(query);
+  }
+
+  @GetMapping(path = "/api/files/{filename:.+}", produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public FileDetails describeFile(@PathVariable String filename) {
+    StoredFile file = storageService.describe(filename);
+    if (file == null) {
+      throw new StorageFileNotFoundException("Could not read file: " + filename);
+    }
+    return metadataStore.details(file);
+  }
+
+  @GetMapping("/files/{filename:.+}")
+  public void serveFile(@PathVariable String filename, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+
+    StoredFile stored = storageService.describe(filename);
+    String contentCoding = downloadHandler.negotiateContentCoding(stored, request, response);
+    if (downloadHandler.checkNotModified(stored, contentCoding, request, response)) {
+      return;
+    }
+
+    if (contentCoding != null) {
+      Resource variant = storageService.loadPrecompressed(stored, contentCoding);
+      if (variant != null) {
+        downloadHandler.handlePrecompressed(variant, stored, contentCoding, request, response);
+        return;
+      }
+    }
 
     Resource file = storageService.loadAsResource(filename);
 
-    if (file == null)
-      return ResponseEntity.notFound().build();
+    if (file == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
 
-    return ResponseEntity.ok().header(HttpHeaders.CONTENT_DISPOSITION,
-        "attachment; filename=\"" + file.getFilename() + "\"").body(file);
+    downloadHandler.handle(file, stored, contentCoding, request, response);
   }
 
   @PostMapping("/")
@@ -66,6 +164,117 @@ public class FileUploadController {
     return "redirect:/";
   }
 
+  /**
+   * Streaming alternative to {@link #handleFileUpload}: the multipart body is parsed as
+   * it arrives and each file part is written straight to storage, so uploads are neither
+   * spooled by the servlet container nor bound by {@code spring.servlet.multipart.*}
+   * limits. A part's content is checked against any digest fields among its headers.
+   * Like {@link #handleFileUpload}, empty files are rejected with {@code 400 Bad Request}.
+   * Parts are stored as they are read, so the files of the parts before a rejected one
+   * stay stored.
+   */
+  @PostMapping(path = "/files", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public String handleStreamingFileUpload(HttpServletRequest request,
+      RedirectAttributes redirectAttributes) throws IOException {
+
+    List<String> filenames = new ArrayList<>();
+    MultipartStream multipart = multipartStream(request);
+    for (MultipartStream.Part part = multipart.nextPart(); part != null; part = multipart.nextPart()) {
+      String filename = part.filename();
+      if (filename == null || filename.isEmpty()) {
+        continue;
+      }
+      try (InputStream body = nonEmpty(ContentDigestHeaders.verifying(part.headers(), part.body()))) {
+        storageService.store(filename, body);
+      }
+      filenames.add(filename);
+    }
+    redirectAttributes.addFlashAttribute("message",
+        "You successfully uploaded " + String.join(", ", filenames) + "!");
+
+    return "redirect:/";
+  }
+
+  /**
+   * Store every file part of a multipart request, several at a time, and report how
+   * each went. Answers {@code 207 Multi-Status} if any file could not be stored,
+   * including files not matching the digest fields of their part.
+   */
+  @PostMapping(path = "/api/files", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ResponseEntity<BatchUploadReport> handleBatchUpload(HttpServletRequest request)
+      throws IOException {
+
+    BatchUploadService.Batch batch = batchUploadService.begin();
+    MultipartStream multipart = multipartStream(request);
+    for (MultipartStream.Part part = multipart.nextPart(); part != null; part = multipart.nextPart()) {
+      String filename = part.filename();
+      if (filename == null || filename.isEmpty()) {
+        continue;
+      }
+      try (InputStream body = ContentDigestHeaders.verifying(part.headers(), part.body())) {
+        batch.add(filename, body);
+      }
+    }
+    return batchResponse(batch.finish());
+  }
+
+  /**
+   * Like {@link #handleBatchUpload} for the files of a zip archive.
+   */
+  @PostMapping(path = "/api/files", consumes = "application/zip")
+  public ResponseEntity<BatchUploadReport> handleArchiveUpload(HttpServletRequest request)
+      throws IOException {
+
+    try (InputStream body = request.getInputStream()) {
+      return batchResponse(batchUploadService.storeZip(body));
+    }
+  }
+
+  private static ResponseEntity<BatchUploadReport> batchResponse(BatchUploadReport report) {
+    return ResponseEntity.status(report.failed() > 0 ? HttpStatus.MULTI_STATUS : HttpStatus.OK)
+        .body(report);
+  }
+
+  private static MultipartStream multipartStream(HttpServletRequest request) throws IOException {
+    String boundary = MediaType.parseMediaType(request.getContentType()).getParameter("boundary");
+    if (boundary == null) {
+      throw new StorageException("Multipart request has no boundary.");
+    }
+    if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+      boundary = boundary.substring(1, boundary.length() - 1);
+    }
+    return new MultipartStream(request.getInputStream(), boundary);
+  }
+
+  private static InputStream nonEmpty(InputStream body) throws IOException {
+    PushbackInputStream pushback = new PushbackInputStream(body);
+    int first = pushback.read();
+    if (first == -1) {
+      throw new EmptyFileException();
+    }
+    pushback.unread(first);
+    return pushback;
+  }
+
+  private static int pageSize(int limit) {
+    return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+  }
+
+  @ExceptionHandler(InvalidPageRequestException.class)
+  public ResponseEntity<?> handleInvalidPageRequest(InvalidPageRequestException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(EmptyFileException.class)
+  public ResponseEntity<?> handleEmptyFile(EmptyFileException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(DigestMismatchException.class)
+  public ResponseEntity<?> handleDigestMismatch(DigestMismatchException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
   @ExceptionHandler(StorageFileNotFoundException.class)
   public ResponseEntity<?> handleStorageFileNotFound(StorageFileNotFoundException exc) {
     return ResponseEntity.notFound().build();
@@ -0,0 +1,224 @@
+package com.example.uploadingfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Incremental {@code multipart/form-data} reader. Parts are handed out one at a time and
+ * their bodies are read straight off the request, so nothing is spooled to memory or to
+ * a temporary file. A part has to be consumed before the next one is requested.
+ */
+class MultipartStream {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAX_HEADER_SIZE = 8 * 1024;
+
+  private final InputStream in;
+
+  private final byte[] delimiter;
+
+  private final byte[] buffer;
+
+  private int head;
+
+  private int tail;
+
+  private boolean eof;
+
+  private boolean finished;
+
+  private PartInputStream current;
+
+  MultipartStream(InputStream in, String boundary) {
+    this.in = in;
+    this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    this.buffer = new byte[Math.max(BUFFER_SIZE, this.delimiter.length * 2)];
+    // The first boundary is not preceded by a line break, so pretend it is
+    this.buffer[0] = '\r';
+    this.buffer[1] = '\n';
+    this.tail = 2;
+    this.current = new PartInputStream();
+  }
+
+  /**
+   * Return the next part, or {@code null} once the closing boundary has been read.
+   * Whatever is left of the previous part's body is skipped.
+   */
+  Part nextPart() throws IOException {
+    if (this.finished) {
+      return null;
+    }
+    this.current.skipRemaining();
+    if (!ensure(2)) {
+      throw new IOException("Unexpected end of multipart stream");
+    }
+    if (this.buffer[this.head] == '-' && this.buffer[this.head + 1] == '-') {
+      this.finished = true;
+      return null;
+    }
+    readLine();
+    HttpHeaders headers = new HttpHeaders();
+    int headerSize = 0;
+    for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+      headerSize += line.length();
+      if (headerSize > MAX_HEADER_SIZE) {
+        throw new IOException("Multipart headers exceed " + MAX_HEADER_SIZE + " bytes");
+      }
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+      }
+    }
+    this.current = new PartInputStream();
+    return new Part(headers, this.current);
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    while (true) {
+      if (!ensure(1)) {
+        throw new IOException("Unexpected end of multipart headers");
+      }
+      byte b = this.buffer[this.head++];
+      if (b == '\n') {
+        break;
+      }
+      if (b != '\r') {
+        line.write(b);
+      }
+      if (line.size() > MAX_HEADER_SIZE) {
+        throw new IOException("Multipart header line exceeds " + MAX_HEADER_SIZE + " bytes");
+      }
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Make sure at least {@code count} unread bytes are buffered, unless the stream ends.
+   */
+  private boolean ensure(int count) throws IOException {
+    while (this.tail - this.head < count) {
+      if (this.eof) {
+        return false;
+      }
+      fill();
+    }
+    return true;
+  }
+
+  private void fill() throws IOException {
+    if (this.head > 0) {
+      System.arraycopy(this.buffer, this.head, this.buffer, 0, this.tail - this.head);
+      this.tail -= this.head;
+      this.head = 0;
+    }
+    int read = this.in.read(this.buffer, this.tail, this.buffer.length - this.tail);
+    if (read == -1) {
+      this.eof = true;
+    }
+    else {
+      this.tail += read;
+    }
+  }
+
+  private int indexOfDelimiter() {
+    byte first = this.delimiter[0];
+    int last = this.tail - this.delimiter.length;
+    outer:
+    for (int i = this.head; i <= last; i++) {
+      if (this.buffer[i] != first) {
+        continue;
+      }
+      for (int j = 1; j < this.delimiter.length; j++) {
+        if (this.buffer[i + j] != this.delimiter[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  record Part(HttpHeaders headers, InputStream body) {
+
+    String name() {
+      ContentDisposition disposition = contentDisposition();
+      return (disposition != null ? disposition.getName() : null);
+    }
+
+    String filename() {
+      ContentDisposition disposition = contentDisposition();
+      return (disposition != null ? disposition.getFilename() : null);
+    }
+
+    private ContentDisposition contentDisposition() {
+      String value = this.headers.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+      return (value != null && value.toLowerCase(Locale.ROOT).startsWith("form-data")
+          ? ContentDisposition.parse(value) : null);
+    }
+
+  }
+
+  private class PartInputStream extends InputStream {
+
+    private boolean done;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int read = read(single, 0, 1);
+      return (read == -1 ? -1 : single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (!this.done) {
+        int index = indexOfDelimiter();
+        int available;
+        if (index != -1) {
+          available = index - head;
+          if (available == 0) {
+            head += delimiter.length;
+            this.done = true;
+            return -1;
+          }
+        }
+        else {
+          // Hold back enough bytes to recognise a delimiter split across reads
+          available = (tail - head) - (delimiter.length - 1);
+          if (available <= 0) {
+            if (eof) {
+              throw new IOException("Unexpected end of multipart stream");
+            }
+            fill();
+            continue;
+          }
+        }
+        int count = Math.min(len, available);
+        System.arraycopy(buffer, head, b, off, count);
+        head += count;
+        return count;
+      }
+      return -1;
+    }
+
+    void skipRemaining() throws IOException {
+      byte[] discard = new byte[8192];
+      while (read(discard, 0, discard.length) != -1) {
+        // drain
+      }
+    }
+
+  }
+
+}
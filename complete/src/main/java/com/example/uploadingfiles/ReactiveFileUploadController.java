@@ -0,0 +1,158 @@
+package com.example.uploadingfiles;
+
+import java.time.Instant;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.example.uploadingfiles.storage.EmptyFileException;
+import com.example.uploadingfiles.storage.FileDetails;
+import com.example.uploadingfiles.storage.FileMetadataStore;
+import com.example.uploadingfiles.storage.FilePage;
+import com.example.uploadingfiles.storage.FileQuery;
+import com.example.uploadingfiles.storage.FileSort;
+import com.example.uploadingfiles.storage.ReactiveStorageService;
+import com.example.uploadingfiles.storage.StorageFileNotFoundException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * WebFlux counterpart of {@link FileUploadController}, active when the application runs
+ * with {@code spring.main.web-application-type=reactive}. Downloads are written by the
+ * server's resource writer, which supports byte ranges and zero-copy transfer.
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveFileUploadController {
+
+  private static final int DEFAULT_PAGE_SIZE = 100;
+
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  private static final CacheControl CACHE_CONTROL = CacheControl.noCache().cachePublic();
+
+  private final ReactiveStorageService storageService;
+
+  private final FileMetadataStore metadataStore;
+
+  @Autowired
+  public ReactiveFileUploadController(ReactiveStorageService storageService,
+      FileMetadataStore metadataStore) {
+
+    this.storageService = storageService;
+    this.metadataStore = metadataStore;
+  }
+
+  @GetMapping("/")
+  public Mono<String> listUploadedFiles(@RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(defaultValue = "NAME") FileSort sort, ServerHttpRequest request, Model model) {
+
+    return storageService.list(pageSize(limit), cursor, sort).map(page -> {
+      model.addAttribute("files", page.files().stream().map(file -> UriComponentsBuilder
+          .fromUri(request.getURI()).replacePath("/files/{filename}").replaceQuery(null)
+          .buildAndExpand(file.filename()).encode().toUriString()).toList());
+      model.addAttribute("nextCursor", page.nextCursor());
+      model.addAttribute("sort", sort);
+      return "uploadForm";
+    });
+  }
+
+  @GetMapping(path = "/api/files", produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public Mono<FilePage> listFiles(@RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(defaultValue = "NAME") FileSort sort) {
+
+    return storageService.list(pageSize(limit), cursor, sort);
+  }
+
+  /**
+   * Find files by size, time stored, content type and uploader from their metadata,
+   * without listing the storage backend.
+   */
+  @GetMapping(path = "/api/search", produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public Flux<FileDetails> searchFiles(@RequestParam(required = false) Long minSize,
+      @RequestParam(required = false) Long maxSize,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant storedAfter,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant storedBefore,
+      @RequestParam(required = false) String contentType, @RequestParam(required = false) String uploader,
+      @RequestParam(defaultValue = "NAME") FileQuery.Sort sort, @RequestParam(defaultValue = "false") boolean descending,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+
+    FileQuery query = new FileQuery(minSize, maxSize, storedAfter, storedBefore, contentType, uploader, sort,
+        descending, pageSize(limit));
+    return Flux.fromIterable(metadataStore.query(query));
+  }
+
+  @GetMapping(path = "/api/files/{filename:.+}", produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public Mono<FileDetails> describeFile(@PathVariable String filename) {
+    return storageService.describe(filename).map(metadataStore::details);
+  }
+
+  @GetMapping("/files/{filename:.+}")
+  @ResponseBody
+  public Mono<ResponseEntity<Resource>> serveFile(@PathVariable String filename,
+      ServerWebExchange exchange) {
+
+    return storageService.describe(filename).flatMap(stored -> {
+      if (exchange.checkNotModified("\"" + stored.digest() + "\"", stored.lastModified())) {
+        return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+            .cacheControl(CACHE_CONTROL).<Resource>build());
+      }
+      return storageService.loadAsResource(filename)
+          .map(file -> ResponseEntity.ok().cacheControl(CACHE_CONTROL)
+              .headers(headers -> ContentDigestHeaders.write(stored, headers::set))
+              .header(HttpHeaders.CONTENT_DISPOSITION,
+                  "attachment; filename=\"" + file.getFilename() + "\"").body(file));
+    });
+  }
+
+  @PostMapping("/")
+  public Mono<String> handleFileUpload(@RequestPart("file") FilePart file) {
+    return storageService.store(file.filename(), file.content()).thenReturn("redirect:/");
+  }
+
+  private static int pageSize(int limit) {
+    return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<?> handleIllegalArgument(IllegalArgumentException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(EmptyFileException.class)
+  public ResponseEntity<?> handleEmptyFile(EmptyFileException exc) {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(StorageFileNotFoundException.class)
+  public ResponseEntity<?> handleStorageFileNotFound(StorageFileNotFoundException exc) {
+    return ResponseEntity.notFound().build();
+  }
+
+}
@@ -6,6 +6,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 
+import com.example.uploadingfiles.storage.ClusteredStorageService;
+import com.example.uploadingfiles.storage.DelegatingStorageService;
 import com.example.uploadingfiles.storage.StorageProperties;
 import com.example.uploadingfiles.storage.StorageService;
 
@@ -18,9 +20,17 @@ public class UploadingFilesApplication {
   }
 
   @Bean
-  CommandLineRunner init(StorageService storageService) {
+  CommandLineRunner init(StorageService storageService, StorageProperties properties) {
     return (args) -> {
-      storageService.deleteAll();
+      if (properties.isDeleteOnStartup()) {
+        if (DelegatingStorageService.unwrap(storageService) instanceof ClusteredStorageService clustered) {
+          // deleteAll() would empty every node of the cluster
+          clustered.deleteReplicas();
+        }
+        else {
+          storageService.deleteAll();
+        }
+      }
       storageService.init();
     };
   }
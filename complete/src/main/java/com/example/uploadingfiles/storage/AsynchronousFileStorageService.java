@@ -0,0 +1,112 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link ReactiveStorageService} on top of the configured {@link StorageService}.
+ * Upload content is written through an {@link java.nio.channels.AsynchronousFileChannel}
+ * as it arrives, so no thread waits on the client or the disk, and the finished file is
+ * then handed over to the {@link StorageService} with the digest computed on the way,
+ * which on the file system only moves it into place. Like the other upload paths, empty
+ * files are rejected. The remaining blocking calls are short metadata operations and run
+ * on the bounded elastic scheduler.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class AsynchronousFileStorageService implements ReactiveStorageService {
+
+  private static final int PAGE_SIZE = 256;
+
+  private final StorageService storageService;
+
+  private final Path uploadLocation;
+
+  @Autowired
+  public AsynchronousFileStorageService(StorageService storageService, StorageProperties properties) {
+    this.storageService = storageService;
+    // Not ChunkedUploadService's directory, which it empties when the storage is cleared
+    this.uploadLocation = Paths.get(properties.getLocation()).resolve(".reactive-uploads");
+  }
+
+  @Override
+  public Mono<Void> store(String filename, Flux<DataBuffer> content) {
+    return Mono.usingWhen(
+        Mono.fromCallable(() -> {
+          Files.createDirectories(this.uploadLocation);
+          return Files.createTempFile(this.uploadLocation, "upload-", ".tmp");
+        }).subscribeOn(Schedulers.boundedElastic()),
+        upload -> {
+          MessageDigest digest = ContentDigests.newMessageDigest();
+          return DataBufferUtils.write(content.doOnNext(buffer -> update(digest, buffer)), upload,
+              StandardOpenOption.WRITE)
+              .then(Mono.fromRunnable(() -> store(filename, upload, ContentDigests.hex(digest)))
+                  .subscribeOn(Schedulers.boundedElastic()))
+              .then();
+        },
+        upload -> Mono.fromCallable(() -> Files.deleteIfExists(upload))
+            .subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  private void store(String filename, Path upload, String digest) {
+    try {
+      if (Files.size(upload) == 0) {
+        throw new EmptyFileException();
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+    this.storageService.store(filename, upload, digest);
+  }
+
+  private static void update(MessageDigest digest, DataBuffer buffer) {
+    try (DataBuffer.ByteBufferIterator buffers = buffer.readableByteBuffers()) {
+      buffers.forEachRemaining(digest::update);
+    }
+  }
+
+  @Override
+  public Flux<StoredFile> loadAll() {
+    // Pages are fetched as the subscriber asks for more
+    return list(PAGE_SIZE, null, FileSort.NAME)
+        .expand(page -> (page.nextCursor() != null
+            ? list(PAGE_SIZE, page.nextCursor(), FileSort.NAME) : Mono.empty()))
+        .concatMapIterable(FilePage::files);
+  }
+
+  @Override
+  public Mono<FilePage> list(int limit, String cursor, FileSort sort) {
+    return Mono.fromCallable(() -> this.storageService.list(limit, cursor, sort))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  @Override
+  public Mono<StoredFile> describe(String filename) {
+    // May hash the file if its digest is not known yet
+    return Mono.fromCallable(() -> this.storageService.describe(filename))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  @Override
+  public Mono<Resource> loadAsResource(String filename) {
+    return Mono.fromCallable(() -> this.storageService.loadAsResource(filename))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+}
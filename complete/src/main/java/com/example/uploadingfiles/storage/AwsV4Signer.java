@@ -0,0 +1,125 @@
+package com.example.uploadingfiles.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AWS Signature Version 4 request signing, as required by S3 and the servers that
+ * imitate it.
+ */
+class AwsV4Signer {
+
+  static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+      .withZone(ZoneOffset.UTC);
+
+  static final String EMPTY_PAYLOAD_HASH = sha256Hex(new byte[0]);
+
+  private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+
+  private final String accessKey;
+
+  private final String secretKey;
+
+  private final String region;
+
+  private final String service;
+
+  AwsV4Signer(String accessKey, String secretKey, String region, String service) {
+    this.accessKey = accessKey;
+    this.secretKey = secretKey;
+    this.region = region;
+    this.service = service;
+  }
+
+  /**
+   * Return the {@code Authorization} header for a request.
+   * @param canonicalUri the encoded path
+   * @param query the decoded query parameters
+   * @param headers the headers to sign, {@code host} and {@code x-amz-date} included
+   */
+  String authorization(String method, String canonicalUri, Map<String, String> query,
+      Map<String, String> headers, String payloadHash, Instant time) {
+
+    SortedMap<String, String> canonicalHeaders = new TreeMap<>();
+    headers.forEach((name, value) -> canonicalHeaders.put(name.toLowerCase(Locale.ROOT), value.trim()));
+    String signedHeaders = String.join(";", canonicalHeaders.keySet());
+    String canonicalRequest = method + "\n"
+        + canonicalUri + "\n"
+        + canonicalQuery(query) + "\n"
+        + canonicalHeaders.entrySet().stream().map(header -> header.getKey() + ":" + header.getValue() + "\n")
+            .collect(Collectors.joining()) + "\n"
+        + signedHeaders + "\n"
+        + payloadHash;
+    String date = TIMESTAMP.format(time).substring(0, 8);
+    String scope = date + "/" + this.region + "/" + this.service + "/aws4_request";
+    String stringToSign = ALGORITHM + "\n" + TIMESTAMP.format(time) + "\n" + scope + "\n"
+        + sha256Hex(canonicalRequest.getBytes(StandardCharsets.UTF_8));
+    byte[] key = hmac(("AWS4" + this.secretKey).getBytes(StandardCharsets.UTF_8), date);
+    key = hmac(key, this.region);
+    key = hmac(key, this.service);
+    key = hmac(key, "aws4_request");
+    String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+    return ALGORITHM + " Credential=" + this.accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders
+        + ", Signature=" + signature;
+  }
+
+  static String canonicalQuery(Map<String, String> query) {
+    return new TreeMap<>(query).entrySet().stream()
+        .map(parameter -> encode(parameter.getKey(), true) + "=" + encode(parameter.getValue(), true))
+        .collect(Collectors.joining("&"));
+  }
+
+  /**
+   * Percent-encode everything but unreserved characters, and {@code /} unless
+   * {@code encodeSlash} is set.
+   */
+  static String encode(String value, boolean encodeSlash) {
+    StringBuilder encoded = new StringBuilder();
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & 0xff);
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+          || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+        encoded.append(c);
+      }
+      else {
+        encoded.append('%').append(HexFormat.of().withUpperCase().toHexDigits(b));
+      }
+    }
+    return encoded.toString();
+  }
+
+  static String sha256Hex(byte[] content) {
+    return sha256Hex(content, 0, content.length);
+  }
+
+  static String sha256Hex(byte[] content, int offset, int length) {
+    MessageDigest messageDigest = ContentDigests.newMessageDigest();
+    messageDigest.update(content, offset, length);
+    return ContentDigests.hex(messageDigest);
+  }
+
+  private static byte[] hmac(byte[] key, String data) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
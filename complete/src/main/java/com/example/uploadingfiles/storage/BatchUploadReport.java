@@ -0,0 +1,15 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.List;
+
+/**
+ * Outcome of a batch upload, one result per file in the order they were sent.
+ */
+public record BatchUploadReport(int stored, int failed, List<BatchUploadResult> files) {
+
+  public BatchUploadReport(List<BatchUploadResult> files) {
+    this((int) files.stream().filter(BatchUploadResult::stored).count(),
+        (int) files.stream().filter(file -> !file.stored()).count(), List.copyOf(files));
+  }
+
+}
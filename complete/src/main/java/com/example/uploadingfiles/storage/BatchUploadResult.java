@@ -0,0 +1,9 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Outcome of storing one file of a batch upload.
+ * @param error why the file was not stored, or {@code null} if it was
+ */
+public record BatchUploadResult(String filename, long size, boolean stored, String error) {
+
+}
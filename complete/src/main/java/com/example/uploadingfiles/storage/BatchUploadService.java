@@ -0,0 +1,188 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Stores many files sent in one request. Files are necessarily read off the request one
+ * after the other, but small ones are buffered and handed to a pool of writers, so
+ * storing one overlaps with reading the next and several are written at once. The
+ * number of buffered files is bounded across all batches, which also bounds the memory
+ * concurrent batches can hold together.
+ */
+@Service
+public class BatchUploadService {
+
+  private final StorageService storageService;
+
+  private final int parallelism;
+
+  private final int bufferSize;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Buffered files not stored yet, of any batch.
+   */
+  private final Semaphore pending;
+
+  @Autowired
+  public BatchUploadService(StorageService storageService, StorageProperties properties) {
+    this.storageService = storageService;
+    this.parallelism = Math.max(1, properties.getBatchParallelism());
+    this.bufferSize = (int) Math.min(properties.getBatchBufferSize().toBytes(), Integer.MAX_VALUE - 8);
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-batch-");
+    threadFactory.setDaemon(true);
+    this.executor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), threadFactory);
+    this.executor.allowCoreThreadTimeOut(true);
+    this.pending = new Semaphore(this.parallelism * 2);
+  }
+
+  public Batch begin() {
+    return new Batch();
+  }
+
+  /**
+   * Store every file of a zip archive. Directory entries are skipped; entries in
+   * directories are reported as failed, as files can only be stored under plain names.
+   */
+  public BatchUploadReport storeZip(InputStream inputStream) throws IOException {
+    Batch batch = begin();
+    ZipInputStream zip = new ZipInputStream(inputStream);
+    for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+      if (!entry.isDirectory()) {
+        batch.add(entry.getName(), zip);
+      }
+    }
+    return batch.finish();
+  }
+
+  @PreDestroy
+  public void close() {
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Files of one request, added as they are read.
+   */
+  public class Batch {
+
+    private final List<CompletableFuture<BatchUploadResult>> results = new ArrayList<>();
+
+    private Batch() {
+    }
+
+    /**
+     * Add a file, reading {@code inputStream} to its end but leaving it open. Returns
+     * once the file is stored or buffered.
+     */
+    public void add(String filename, InputStream inputStream) throws IOException {
+      byte[] head;
+      try {
+        head = inputStream.readNBytes(bufferSize + 1);
+      }
+      catch (DigestMismatchException e) {
+        this.results.add(CompletableFuture.completedFuture(
+            new BatchUploadResult(filename, -1, false, e.getMessage())));
+        return;
+      }
+      if (head.length > bufferSize) {
+        // Too large to buffer, store it while it is read
+        CountingInputStream counting = new CountingInputStream(
+            new SequenceInputStream(new ByteArrayInputStream(head), StreamUtils.nonClosing(inputStream)));
+        BatchUploadResult result = store(filename, counting, -1);
+        this.results.add(CompletableFuture.completedFuture(
+            new BatchUploadResult(filename, counting.count, result.stored(), result.error())));
+        return;
+      }
+      try {
+        pending.acquire();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException("Interrupted while waiting to store " + filename);
+      }
+      try {
+        this.results.add(CompletableFuture.supplyAsync(() -> {
+          try {
+            return store(filename, new ByteArrayInputStream(head), head.length);
+          }
+          finally {
+            pending.release();
+          }
+        }, executor));
+      }
+      catch (RuntimeException e) {
+        pending.release();
+        throw e;
+      }
+    }
+
+    /**
+     * Wait for every file to be stored and report how each went.
+     */
+    public BatchUploadReport finish() {
+      return new BatchUploadReport(this.results.stream().map(CompletableFuture::join).toList());
+    }
+
+    private BatchUploadResult store(String filename, InputStream inputStream, long size) {
+      try {
+        storageService.store(filename, inputStream);
+        return new BatchUploadResult(filename, size, true, null);
+      }
+      catch (StorageException | IllegalArgumentException e) {
+        return new BatchUploadResult(filename, size, false, e.getMessage());
+      }
+    }
+
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read != -1) {
+        this.count++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        this.count += read;
+      }
+      return read;
+    }
+
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * A stored file served from memory. {@link #slice} exposes the content without copying.
+ */
+public class CachedResource extends AbstractResource {
+
+  private final StoredFile file;
+
+  private final ByteBuffer content;
+
+  CachedResource(StoredFile file, ByteBuffer content) {
+    this.file = file;
+    this.content = content;
+  }
+
+  /**
+   * Return a read-only view of {@code count} bytes starting at {@code position}.
+   */
+  public ByteBuffer slice(long position, long count) {
+    return this.content.slice(Math.toIntExact(position), Math.toIntExact(count));
+  }
+
+  @Override
+  public boolean exists() {
+    return true;
+  }
+
+  @Override
+  public String getFilename() {
+    return this.file.filename();
+  }
+
+  @Override
+  public long contentLength() {
+    return this.content.capacity();
+  }
+
+  @Override
+  public long lastModified() {
+    return this.file.lastModified().toEpochMilli();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return Channels.newInputStream(readableChannel());
+  }
+
+  @Override
+  public ReadableByteChannel readableChannel() {
+    ByteBuffer content = this.content.duplicate();
+    return new ReadableByteChannel() {
+
+      private boolean open = true;
+
+      @Override
+      public int read(ByteBuffer dst) {
+        if (!content.hasRemaining()) {
+          return -1;
+        }
+        int count = Math.min(dst.remaining(), content.remaining());
+        dst.put(dst.position(), content, content.position(), count);
+        dst.position(dst.position() + count);
+        content.position(content.position() + count);
+        return count;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return this.open;
+      }
+
+      @Override
+      public void close() {
+        this.open = false;
+      }
+
+    };
+  }
+
+  @Override
+  public String getDescription() {
+    return "cached file [" + this.file.filename() + "]";
+  }
+
+}
@@ -0,0 +1,167 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * {@link StorageService} decorator that serves hot small files from a {@link ReadCache}.
+ * A hit costs an index lookup and no file system calls. Cached copies are keyed by the
+ * content digest, so files replaced by any means are never served stale; stores and
+ * {@link #deleteAll()} through this service also drop them right away. Hits and misses
+ * are counted as {@code storage.cache.requests}, alongside {@code storage.cache.size}
+ * and {@code storage.cache.evictions}.
+ */
+public class CachingStorageService extends DelegatingStorageService {
+
+  private final ReadCache cache;
+
+  private final Counter hits;
+
+  private final Counter misses;
+
+  /**
+   * @param registry where to publish meters, or {@code null} for none
+   */
+  public CachingStorageService(StorageService delegate, StorageProperties properties,
+      MeterRegistry registry) {
+
+    super(delegate);
+    this.cache = new ReadCache(properties.getReadCacheSize().toBytes(),
+        properties.getReadCacheMaxFileSize().toBytes());
+    if (registry != null) {
+      this.hits = Counter.builder("storage.cache.requests").tag("result", "hit").register(registry);
+      this.misses = Counter.builder("storage.cache.requests").tag("result", "miss").register(registry);
+      Gauge.builder("storage.cache.size", this.cache, ReadCache::size).baseUnit("bytes")
+          .register(registry);
+      FunctionCounter.builder("storage.cache.evictions", this.cache, ReadCache::evictions)
+          .register(registry);
+    }
+    else {
+      this.hits = null;
+      this.misses = null;
+    }
+  }
+
+  @Override
+  public void store(MultipartFile file) {
+    try {
+      getDelegate().store(file);
+    }
+    finally {
+      this.cache.invalidate(file.getOriginalFilename());
+    }
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    try {
+      getDelegate().store(filename, inputStream);
+    }
+    finally {
+      this.cache.invalidate(filename);
+    }
+  }
+
+  @Override
+  public void store(String filename, Path file) {
+    store(filename, file, null);
+  }
+
+  @Override
+  public void store(String filename, Path file, String digest) {
+    try {
+      getDelegate().store(filename, file, digest);
+    }
+    finally {
+      this.cache.invalidate(filename);
+    }
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    StoredFile file = getDelegate().describe(filename);
+    ReadCache.Entry entry = this.cache.get(file);
+    if (entry != null) {
+      count(this.hits);
+      return new CachedResource(file, entry.content());
+    }
+    count(this.misses);
+    Resource resource = getDelegate().loadAsResource(filename);
+    if (!this.cache.admit(file)) {
+      return resource;
+    }
+    ByteBuffer content = read(resource, file);
+    if (content == null) {
+      return resource;
+    }
+    this.cache.put(filename, file.digest(), content);
+    return new CachedResource(file, content.asReadOnlyBuffer());
+  }
+
+  @Override
+  public void deleteAll() {
+    try {
+      getDelegate().deleteAll();
+    }
+    finally {
+      this.cache.clear();
+    }
+  }
+
+  private static void count(Counter counter) {
+    if (counter != null) {
+      counter.increment();
+    }
+  }
+
+  /**
+   * Read {@code resource} into a direct buffer if it still holds the content described
+   * by {@code file}.
+   */
+  private static ByteBuffer read(Resource resource, StoredFile file) {
+    ByteBuffer content = ByteBuffer.allocateDirect(Math.toIntExact(file.size()));
+    try {
+      if (resource.isFile()) {
+        try (FileChannel channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)) {
+          while (content.hasRemaining() && channel.read(content) != -1) {
+            // Keep reading
+          }
+        }
+      }
+      else {
+        try (InputStream in = resource.getInputStream()) {
+          byte[] buffer = new byte[8192];
+          for (int read = in.read(buffer); read != -1 && content.hasRemaining();
+              read = in.read(buffer)) {
+            content.put(buffer, 0, Math.min(read, content.remaining()));
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+    if (content.hasRemaining()) {
+      return null;
+    }
+    content.flip();
+    // The file may have been replaced since it was described
+    MessageDigest messageDigest = ContentDigests.newMessageDigest();
+    messageDigest.update(content.duplicate());
+    return (ContentDigests.hex(messageDigest).equals(file.digest()) ? content : null);
+  }
+
+}
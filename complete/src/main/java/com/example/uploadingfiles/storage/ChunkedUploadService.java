@@ -0,0 +1,445 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Resumable uploads sent as numbered chunks. Chunks may arrive concurrently and in any
+ * order; each is written with positional {@link FileChannel} writes straight into its
+ * slot of a single pre-sized file, so committing only hands that file to the
+ * {@link StorageService} instead of concatenating pieces. Chunks arriving in order are
+ * hashed as they are written, so committing only reads back those that did not, and the
+ * file is stored with its digest. An upload is not committed while a chunk is being
+ * written to it, and the file of an upload dropped meanwhile is deleted once the last
+ * such chunk is written.
+ * <p>
+ * Uploads are only held in memory: those that receive no chunk for
+ * {@code storage.upload-expiry} are dropped, and files left behind by a previous run
+ * are deleted on startup, as are all uploads when storage is cleared.
+ */
+@Service
+public class ChunkedUploadService {
+
+  public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+  public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private static final Log logger = LogFactory.getLog(ChunkedUploadService.class);
+
+  private final StorageService storageService;
+
+  private final Path uploadLocation;
+
+  private final long maxUploadSize;
+
+  private final Duration expiry;
+
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService scheduler;
+
+  @Autowired
+  public ChunkedUploadService(StorageService storageService, StorageProperties properties) {
+    this.storageService = storageService;
+    this.uploadLocation = Paths.get(properties.getLocation()).resolve(".uploads");
+    this.maxUploadSize = properties.getMaxUploadSize().toBytes();
+    this.expiry = properties.getUploadExpiry();
+    // Sessions of a previous run are gone, and so is any way to complete their files
+    FileSystemUtils.deleteRecursively(this.uploadLocation.toFile());
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-uploads-");
+    threadFactory.setDaemon(true);
+    threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    long interval = Math.max(1000, Math.min(this.expiry.toMillis(), Duration.ofHours(1).toMillis()));
+    this.scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        expire();
+      }
+      catch (RuntimeException e) {
+        logger.warn("Failed to drop expired uploads", e);
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void close() {
+    this.scheduler.shutdownNow();
+  }
+
+  public ChunkedUploadStatus create(String filename, long size, int chunkSize) {
+    if (filename == null || filename.isBlank()) {
+      throw new InvalidUploadException("A filename is required");
+    }
+    if (filename.contains("/") || filename.contains("\\") || filename.startsWith(".")) {
+      // Checked again when the upload is stored, but that is after it was sent
+      throw new InvalidUploadException("Invalid filename: " + filename);
+    }
+    if (size < 0 || chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+      throw new InvalidUploadException("Invalid upload size or chunk size");
+    }
+    if (size > this.maxUploadSize) {
+      throw new InvalidUploadException("Upload larger than " + this.maxUploadSize + " bytes");
+    }
+    long chunkCount = Math.max(1, (size + chunkSize - 1) / chunkSize);
+    if (chunkCount > Integer.MAX_VALUE) {
+      throw new InvalidUploadException("Too many chunks, use a larger chunk size");
+    }
+    String id = UUID.randomUUID().toString();
+    Path file = this.uploadLocation.resolve(id + ".part");
+    try {
+      Files.createDirectories(this.uploadLocation);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+        if (size > 0) {
+          // Pre-size the file so every chunk can be written at its own offset
+          channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to create upload.", e);
+    }
+    Session session = new Session(id, filename, size, chunkSize, (int) chunkCount, file);
+    this.sessions.put(id, session);
+    return session.status();
+  }
+
+  public ChunkedUploadStatus status(String id) {
+    return session(id).status();
+  }
+
+  /**
+   * Write one chunk. The stream must supply exactly the chunk's length.
+   */
+  public ChunkedUploadStatus writeChunk(String id, int index, InputStream inputStream) {
+    Session session = session(id);
+    if (index < 0 || index >= session.chunkCount) {
+      throw new InvalidUploadException("Chunk index out of range: " + index);
+    }
+    if (!session.startWriting()) {
+      throw new StorageFileNotFoundException("No such upload: " + id);
+    }
+    try {
+      write(session, index, inputStream);
+      return session.receive(index);
+    }
+    finally {
+      if (session.stopWriting()) {
+        // The upload was dropped while this chunk was written
+        delete(session);
+      }
+    }
+  }
+
+  private static void write(Session session, int index, InputStream inputStream) {
+    long position = (long) index * session.chunkSize;
+    long length = Math.min(session.chunkSize, session.size - position);
+    MessageDigest digest = session.claimDigest(index);
+    boolean complete = false;
+    try (FileChannel channel = FileChannel.open(session.file, StandardOpenOption.WRITE)) {
+      ReadableByteChannel source = Channels.newChannel(
+          (digest != null ? new DigestInputStream(inputStream, digest) : inputStream));
+      long written = 0;
+      while (written < length) {
+        long transferred = channel.transferFrom(source, position + written, length - written);
+        if (transferred <= 0) {
+          break;
+        }
+        written += transferred;
+      }
+      if (written != length || inputStream.read() != -1) {
+        throw new InvalidUploadException("Chunk " + index + " must be exactly " + length + " bytes");
+      }
+      complete = true;
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to write chunk " + index + ".", e);
+    }
+    finally {
+      if (digest != null) {
+        session.digested(complete);
+      }
+    }
+  }
+
+  /**
+   * Store the assembled file once every chunk has been received.
+   */
+  public void commit(String id) {
+    Session session = session(id);
+    synchronized (session) {
+      if (!session.status().complete()) {
+        throw new IllegalStateException("Upload " + id + " is missing chunks");
+      }
+      if (session.writing > 0) {
+        throw new IllegalStateException("Upload " + id + " has chunks being written");
+      }
+      if (!this.sessions.remove(id, session)) {
+        throw new StorageFileNotFoundException("No such upload: " + id);
+      }
+      session.closed = true;
+    }
+    String digest;
+    try (FileChannel channel = FileChannel.open(session.file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      channel.force(true);
+      digest = digest(session, channel);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to flush upload " + id + ".", e);
+    }
+    this.storageService.store(session.filename, session.file, digest);
+  }
+
+  /**
+   * Finish the digest of an upload by reading the chunks that were not hashed as they
+   * arrived, which are all of them if the digest was given up on.
+   */
+  private static String digest(Session session, FileChannel channel) throws IOException {
+    MessageDigest digest;
+    long position;
+    synchronized (session) {
+      digest = session.digest;
+      position = Math.min((long) session.digestedChunks * session.chunkSize, session.size);
+    }
+    if (digest == null) {
+      digest = ContentDigests.newMessageDigest();
+      position = 0;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    while (position < session.size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        break;
+      }
+      buffer.flip();
+      digest.update(buffer);
+      position += read;
+    }
+    return ContentDigests.hex(digest);
+  }
+
+  public void abort(String id) {
+    Session session = this.sessions.get(id);
+    if (session == null || !drop(session)) {
+      throw new StorageFileNotFoundException("No such upload: " + id);
+    }
+  }
+
+  /**
+   * Drop all uploads in progress.
+   */
+  @EventListener(StorageClearedEvent.class)
+  public void deleteAll() {
+    this.sessions.values().forEach(this::drop);
+    try {
+      Files.deleteIfExists(this.uploadLocation);
+    }
+    catch (DirectoryNotEmptyException e) {
+      // Chunks are still being written to uploads, whose files are deleted after them
+    }
+    catch (IOException e) {
+      logger.warn("Failed to delete " + this.uploadLocation, e);
+    }
+  }
+
+  /**
+   * Drop the uploads that received no chunk for {@code storage.upload-expiry}.
+   * @return the number of uploads dropped
+   */
+  int expire() {
+    long now = System.nanoTime();
+    int expired = 0;
+    for (Session session : this.sessions.values()) {
+      if (now - session.lastActivity >= this.expiry.toNanos() && !session.isWriting() && drop(session)) {
+        expired++;
+      }
+    }
+    return expired;
+  }
+
+  /**
+   * Forget {@code session} and delete its file, unless a chunk is being written to it,
+   * in which case the file is deleted once the chunk was written.
+   * @return whether the session was dropped, rather than committed or dropped already
+   */
+  private boolean drop(Session session) {
+    if (!this.sessions.remove(session.id, session)) {
+      return false;
+    }
+    if (session.close()) {
+      delete(session);
+    }
+    return true;
+  }
+
+  private static void delete(Session session) {
+    try {
+      Files.deleteIfExists(session.file);
+    }
+    catch (IOException e) {
+      logger.warn("Failed to delete upload " + session.id, e);
+    }
+  }
+
+  private Session session(String id) {
+    Session session = this.sessions.get(id);
+    if (session == null) {
+      throw new StorageFileNotFoundException("No such upload: " + id);
+    }
+    return session;
+  }
+
+  private static class Session {
+
+    private final String id;
+
+    private final String filename;
+
+    private final long size;
+
+    private final int chunkSize;
+
+    private final int chunkCount;
+
+    private final Path file;
+
+    private final BitSet received;
+
+    /**
+     * Digest of the first {@code digestedChunks} chunks, or {@code null} once a chunk
+     * already hashed may have been written again.
+     */
+    private MessageDigest digest = ContentDigests.newMessageDigest();
+
+    private int digestedChunks;
+
+    private boolean digesting;
+
+    /**
+     * Number of chunks being written, while which the file is neither stored nor deleted.
+     */
+    private int writing;
+
+    /**
+     * Whether the upload was committed or dropped, after which no chunk is written.
+     */
+    private boolean closed;
+
+    private volatile long lastActivity = System.nanoTime();
+
+    Session(String id, String filename, long size, int chunkSize, int chunkCount, Path file) {
+      this.id = id;
+      this.filename = filename;
+      this.size = size;
+      this.chunkSize = chunkSize;
+      this.chunkCount = chunkCount;
+      this.file = file;
+      this.received = new BitSet(chunkCount);
+      if (size == 0) {
+        this.received.set(0);
+      }
+    }
+
+    /**
+     * Return the digest to update with chunk {@code index} as it is written if the chunk
+     * is the next one to hash, or {@code null}.
+     */
+    synchronized MessageDigest claimDigest(int index) {
+      if (index < this.digestedChunks || (this.digesting && index == this.digestedChunks)) {
+        this.digest = null;
+      }
+      if (this.digest == null || this.digesting || index != this.digestedChunks) {
+        return null;
+      }
+      this.digesting = true;
+      return this.digest;
+    }
+
+    synchronized void digested(boolean complete) {
+      this.digesting = false;
+      if (complete) {
+        this.digestedChunks++;
+      }
+      else {
+        this.digest = null;
+      }
+    }
+
+    synchronized boolean startWriting() {
+      if (this.closed) {
+        return false;
+      }
+      this.writing++;
+      return true;
+    }
+
+    /**
+     * @return whether the upload was dropped while the chunk was written and its file
+     * is left to delete
+     */
+    synchronized boolean stopWriting() {
+      this.writing--;
+      return this.closed && this.writing == 0;
+    }
+
+    synchronized boolean isWriting() {
+      return this.writing > 0;
+    }
+
+    /**
+     * @return whether no chunk is being written, so the file can be deleted now
+     */
+    synchronized boolean close() {
+      this.closed = true;
+      return this.writing == 0;
+    }
+
+    synchronized ChunkedUploadStatus receive(int index) {
+      this.received.set(index);
+      this.lastActivity = System.nanoTime();
+      return status();
+    }
+
+    synchronized ChunkedUploadStatus status() {
+      List<Integer> chunks = new ArrayList<>(this.received.cardinality());
+      this.received.stream().forEach(chunks::add);
+      return new ChunkedUploadStatus(this.id, this.filename, this.size, this.chunkSize,
+          this.chunkCount, chunks, this.received.cardinality() == this.chunkCount);
+    }
+
+  }
+
+}
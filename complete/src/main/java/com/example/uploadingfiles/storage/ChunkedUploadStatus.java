@@ -0,0 +1,12 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.List;
+
+/**
+ * Progress of a chunked upload. Chunk {@code n} covers bytes
+ * {@code [n * chunkSize, min((n + 1) * chunkSize, size))} of the file.
+ */
+public record ChunkedUploadStatus(String id, String filename, long size, int chunkSize,
+    int chunkCount, List<Integer> receivedChunks, boolean complete) {
+
+}
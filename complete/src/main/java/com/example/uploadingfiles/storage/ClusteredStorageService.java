@@ -0,0 +1,639 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import jakarta.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * {@link StorageService} spreading files over the nodes listed in
+ * {@code storage.cluster-nodes}, each node keeping its share like
+ * {@link FileSystemStorageService}. A consistent hash ring places every file on
+ * {@code storage.cluster-replication} nodes; any node accepts uploads and forwards them
+ * to those replicas, and serves downloads from whichever replica answers, itself first.
+ * <p>
+ * A write to an unreachable replica is kept as a hint below {@code <location>.hints}
+ * and handed off once the node is back. A node added to {@code storage.cluster-nodes}
+ * is sent the files it owns as the other nodes are restarted with it. Replicas converge
+ * on the copy modified last, and until they do a read may see an older copy. Nodes
+ * talk to each other on the {@code /cluster} endpoints, authenticated with
+ * {@code storage.cluster-secret}, which should only be reachable by other nodes.
+ * {@link #deleteAll()} empties every node, so {@code storage.delete-on-startup} only
+ * deletes the replicas of the node starting, see {@link #deleteReplicas()}.
+ */
+@Service
+@ConditionalOnBackend(StorageProperties.Backend.CLUSTERED)
+public class ClusteredStorageService implements StorageService {
+
+  public static final String LAST_MODIFIED_HEADER = "Storage-Last-Modified";
+
+  public static final String DIGEST_HEADER = "Storage-Digest";
+
+  public static final String NEXT_CURSOR_HEADER = "Storage-Next-Cursor";
+
+  public static final String SECRET_HEADER = "Storage-Cluster-Secret";
+
+  private static final Log logger = LogFactory.getLog(ClusteredStorageService.class);
+
+  private static final int LIST_PAGE_SIZE = 1000;
+
+  private final FileSystemStorageService local;
+
+  private final PeerClient peers;
+
+  private final HashRing ring;
+
+  private final String self;
+
+  private final int replication;
+
+  private final Path spool;
+
+  private final Path hints;
+
+  /**
+   * Serializes writing hints with handing them off.
+   */
+  private final Object hintLock = new Object();
+
+  private final Duration handoffInterval;
+
+  private final ScheduledExecutorService scheduler;
+
+  @Autowired
+  public ClusteredStorageService(StorageProperties properties) {
+    this(new FileSystemStorageService(properties), new PeerClient(properties.getClusterSecret()), properties);
+  }
+
+  ClusteredStorageService(FileSystemStorageService local, PeerClient peers, StorageProperties properties) {
+    if (properties.getClusterSelf().trim().length() == 0) {
+      throw new StorageException("Cluster node address can not be Empty.");
+    }
+    if (properties.getClusterSecret().trim().length() == 0) {
+      throw new StorageException("Cluster secret can not be Empty.");
+    }
+    if (properties.getClusterReplication() < 1) {
+      throw new StorageException("Cluster replication must be at least 1.");
+    }
+    this.local = local;
+    this.peers = peers;
+    this.self = node(properties.getClusterSelf());
+    List<String> nodes = new ArrayList<>(properties.getClusterNodes().stream()
+        .map(ClusteredStorageService::node).toList());
+    if (!nodes.contains(this.self)) {
+      nodes.add(this.self);
+    }
+    this.ring = new HashRing(nodes, properties.getClusterVirtualNodes());
+    this.replication = properties.getClusterReplication();
+    this.spool = Paths.get(properties.getLocation() + ".spool");
+    this.hints = Paths.get(properties.getLocation() + ".hints");
+    this.handoffInterval = properties.getClusterHandoffInterval();
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-cluster-");
+    threadFactory.setDaemon(true);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+  }
+
+  private static String node(String url) {
+    String node = url.trim();
+    return (node.endsWith("/") ? node.substring(0, node.length() - 1) : node);
+  }
+
+  /**
+   * The upload is spooled to disk once and sent to every replica in parallel. It
+   * succeeds if at least one replica took it, leaving hints for the others.
+   */
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    filename = validate(filename);
+    Path upload = null;
+    try {
+      Files.createDirectories(this.spool);
+      upload = Files.createTempFile(this.spool, "upload-", ".tmp");
+      MessageDigest messageDigest = ContentDigests.newMessageDigest();
+      Files.copy(new DigestInputStream(inputStream, messageDigest), upload, StandardCopyOption.REPLACE_EXISTING);
+      Instant lastModified = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+      Files.setLastModifiedTime(upload, FileTime.from(lastModified));
+      replicate(filename, upload, lastModified, ContentDigests.hex(messageDigest));
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+    finally {
+      deleteQuietly(upload);
+    }
+  }
+
+  private void replicate(String filename, Path upload, Instant lastModified, String digest) throws IOException {
+    List<String> replicas = this.ring.replicas(filename, this.replication);
+    Map<String, CompletableFuture<Void>> sends = new LinkedHashMap<>();
+    for (String node : replicas) {
+      if (!node.equals(this.self)) {
+        sends.put(node, this.peers.put(node, filename, upload, lastModified, digest));
+      }
+    }
+    List<String> unreachable = new ArrayList<>();
+    IOException failure = null;
+    for (Map.Entry<String, CompletableFuture<Void>> send : sends.entrySet()) {
+      try {
+        send.getValue().join();
+      }
+      catch (CompletionException e) {
+        logger.warn("Failed to store " + filename + " on " + send.getKey() + ", keeping a hint", e.getCause());
+        unreachable.add(send.getKey());
+        failure = new IOException("No replica took " + filename, e.getCause());
+      }
+    }
+    boolean storedLocally = replicas.contains(this.self);
+    if (!storedLocally && unreachable.size() == sends.size()) {
+      throw failure;
+    }
+    for (String node : unreachable) {
+      hint(node, filename, upload);
+    }
+    if (storedLocally) {
+      this.local.store(filename, upload, digest);
+    }
+  }
+
+  private void hint(String node, String filename, Path file) throws IOException {
+    Path hint = this.hints.resolve(URLEncoder.encode(node, StandardCharsets.UTF_8)).resolve(filename);
+    synchronized (this.hintLock) {
+      Files.createDirectories(hint.getParent());
+      Files.copy(file, hint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+  }
+
+  /**
+   * Store a copy sent by another node, unless the copy here was modified later.
+   * @param digest the digest the sender computed, checked against what arrives, or
+   * {@code null} if not known
+   */
+  public void storeReplica(String filename, InputStream inputStream, Instant lastModified, String digest) {
+    filename = validate(filename);
+    Path upload = null;
+    try {
+      Files.createDirectories(this.spool);
+      upload = Files.createTempFile(this.spool, "replica-", ".tmp");
+      MessageDigest messageDigest = ContentDigests.newMessageDigest();
+      Files.copy(new DigestInputStream(inputStream, messageDigest), upload, StandardCopyOption.REPLACE_EXISTING);
+      String received = ContentDigests.hex(messageDigest);
+      if (digest != null && !digest.equals(received)) {
+        throw new StorageException("Replica of " + filename + " arrived damaged.");
+      }
+      StoredFile current = describeLocal(filename);
+      if (current != null && current.lastModified().isAfter(lastModified)) {
+        return;
+      }
+      Files.setLastModifiedTime(upload, FileTime.from(lastModified));
+      this.local.store(filename, upload, received);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+    finally {
+      deleteQuietly(upload);
+    }
+  }
+
+  /**
+   * Lists every node, skipping those that cannot be reached.
+   */
+  @Override
+  public Stream<Path> loadAll() {
+    return Stream.concat(this.local.loadAll(), peers().flatMap(this::loadAll)).distinct();
+  }
+
+  private Stream<Path> loadAll(String node) {
+    return Stream.iterate(listPeer(node, LIST_PAGE_SIZE, null, FileSort.NAME), Objects::nonNull,
+        page -> (page.nextCursor() != null ? listPeer(node, LIST_PAGE_SIZE, page.nextCursor(), FileSort.NAME)
+            : null))
+        .flatMap(page -> page.files().stream())
+        .map(file -> Paths.get(file.filename()));
+  }
+
+  /**
+   * Merges a page from every node, skipping those that cannot be reached.
+   */
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    FilePage page = this.local.list(limit, cursor, sort);
+    for (String node : (Iterable<String>) peers()::iterator) {
+      page = FileIndex.merge(page, listPeer(node, limit, cursor, sort), limit, sort);
+    }
+    return page;
+  }
+
+  private FilePage listPeer(String node, int limit, String cursor, FileSort sort) {
+    try {
+      return this.peers.list(node, limit, cursor, sort);
+    }
+    catch (IOException e) {
+      logger.warn("Listing files without " + node, e);
+      return new FilePage(List.of(), null);
+    }
+  }
+
+  /**
+   * Return a page of the files stored on this node only.
+   */
+  public FilePage listReplicas(int limit, String cursor, FileSort sort) {
+    return this.local.list(limit, cursor, sort);
+  }
+
+  /**
+   * Write files in the form {@link #listReplicas} results are sent to other nodes in.
+   */
+  public static String formatListing(List<StoredFile> files) {
+    return PeerClient.format(files);
+  }
+
+  /**
+   * Return where {@code filename} lives, or would live, on this node.
+   */
+  @Override
+  public Path load(String filename) {
+    return this.local.load(filename);
+  }
+
+  @Override
+  public StoredFile describe(String filename) {
+    return locate(filename).file();
+  }
+
+  /**
+   * Describe a file stored on this node only.
+   */
+  public StoredFile describeReplica(String filename) {
+    return this.local.describe(filename);
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    Replica replica = locate(filename);
+    return (replica.node().equals(this.self) ? this.local.loadAsResource(filename)
+        : new PeerResource(replica.node(), replica.file()));
+  }
+
+  /**
+   * Open a file stored on this node only.
+   */
+  public Resource loadReplica(String filename) {
+    return this.local.loadAsResource(filename);
+  }
+
+  @Override
+  public Resource loadPrecompressed(StoredFile file, String contentCoding) {
+    return (file.equals(describeLocal(file.filename())) ? this.local.loadPrecompressed(file, contentCoding) : null);
+  }
+
+  /**
+   * Find a node with a copy of {@code filename}: this one if it is a replica, then the
+   * other replicas in random order to spread reads, then this one if it still has a
+   * copy it no longer owns.
+   */
+  private Replica locate(String filename) {
+    List<String> replicas = new ArrayList<>(this.ring.replicas(filename, this.replication));
+    boolean owner = replicas.remove(this.self);
+    StoredFile file = (owner ? describeLocal(filename) : null);
+    if (file != null) {
+      return new Replica(this.self, file);
+    }
+    Collections.rotate(replicas, ThreadLocalRandom.current().nextInt(Math.max(1, replicas.size())));
+    IOException failure = null;
+    for (String node : replicas) {
+      try {
+        file = this.peers.describe(node, filename);
+        if (file != null) {
+          return new Replica(node, file);
+        }
+      }
+      catch (IOException e) {
+        failure = e;
+      }
+    }
+    file = (owner ? null : describeLocal(filename));
+    if (file != null) {
+      return new Replica(this.self, file);
+    }
+    if (failure != null) {
+      throw new StorageException("No replica of " + filename + " could be reached", failure);
+    }
+    throw new StorageFileNotFoundException("Could not read file: " + filename);
+  }
+
+  private StoredFile describeLocal(String filename) {
+    try {
+      return this.local.describe(filename);
+    }
+    catch (StorageFileNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Empties every node, skipping those that cannot be reached.
+   */
+  @Override
+  public void deleteAll() {
+    deleteReplicas();
+    for (String node : (Iterable<String>) peers()::iterator) {
+      try {
+        this.peers.deleteAll(node);
+      }
+      catch (IOException e) {
+        logger.warn("Failed to delete files on " + node, e);
+      }
+    }
+  }
+
+  /**
+   * Delete the files stored on this node, and the hints it keeps for others.
+   */
+  public void deleteReplicas() {
+    this.local.deleteAll();
+    synchronized (this.hintLock) {
+      try {
+        FileSystemUtils.deleteRecursively(this.hints);
+      }
+      catch (IOException e) {
+        throw new StorageException("Failed to delete hints", e);
+      }
+    }
+  }
+
+  /**
+   * Besides initializing local storage, tells the other nodes this one is up, then
+   * passes on any files it no longer owns.
+   */
+  @Override
+  public void init() {
+    this.local.init();
+    try {
+      FileSystemUtils.deleteRecursively(this.spool);
+      Files.createDirectories(this.spool);
+      Files.createDirectories(this.hints);
+    }
+    catch (IOException e) {
+      throw new StorageException("Could not initialize storage", e);
+    }
+    this.scheduler.execute(() -> {
+      for (String node : (Iterable<String>) peers()::iterator) {
+        try {
+          this.peers.join(node, this.self);
+        }
+        catch (IOException e) {
+          logger.info("Could not reach " + node + ": " + e.getMessage());
+        }
+      }
+      rebalanceQuietly();
+    });
+    this.scheduler.scheduleWithFixedDelay(this::handoffQuietly, this.handoffInterval.toMillis(),
+        this.handoffInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Note that a node is back, and pass on the hints held for it and the files it owns
+   * in the background. Only nodes in {@code storage.cluster-nodes} are members; to add
+   * one, configure it on every node and restart them.
+   * @throws SecurityException if {@code node} is not a member
+   */
+  public void join(String node) {
+    node = node(node);
+    if (!this.ring.contains(node)) {
+      throw new SecurityException("Node " + node + " is not a member of the cluster");
+    }
+    this.scheduler.execute(this::rebalanceQuietly);
+    this.scheduler.execute(this::handoffQuietly);
+  }
+
+  /**
+   * Hand off the writes held for nodes that could not be reached. Hints for a node
+   * still unreachable stay for the next attempt.
+   * @return the number of hints delivered
+   */
+  public int handoff() {
+    int delivered = 0;
+    if (!Files.isDirectory(this.hints)) {
+      return delivered;
+    }
+    try (DirectoryStream<Path> nodes = Files.newDirectoryStream(this.hints)) {
+      for (Path directory : nodes) {
+        String node = URLDecoder.decode(directory.getFileName().toString(), StandardCharsets.UTF_8);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+          for (Path hint : files) {
+            FileTime lastModified = Files.getLastModifiedTime(hint);
+            this.peers.put(node, hint.getFileName().toString(), hint, lastModified.toInstant(), null).join();
+            synchronized (this.hintLock) {
+              if (Files.getLastModifiedTime(hint).equals(lastModified)) {
+                Files.delete(hint);
+              }
+            }
+            delivered++;
+          }
+        }
+        catch (CompletionException e) {
+          logger.debug("Hints for " + node + " wait for the next attempt", e.getCause());
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to hand off hints", e);
+    }
+    if (delivered > 0) {
+      logger.info("Handed off " + delivered + " files to their replicas");
+    }
+    return delivered;
+  }
+
+  /**
+   * Make sure every replica of each file stored here has it, and drop the files this
+   * node no longer owns once their replicas do.
+   * @return the number of copies sent
+   */
+  public int rebalance() {
+    List<Path> files;
+    try (Stream<Path> stored = this.local.loadAll()) {
+      files = stored.toList();
+    }
+    int sent = 0;
+    for (Path path : files) {
+      String filename = path.toString();
+      StoredFile file = describeLocal(filename);
+      if (file == null) {
+        continue;
+      }
+      List<String> replicas = this.ring.replicas(filename, this.replication);
+      boolean replicated = true;
+      for (String node : replicas) {
+        if (node.equals(this.self)) {
+          continue;
+        }
+        try {
+          StoredFile copy = this.peers.describe(node, filename);
+          if (copy == null || copy.lastModified().isBefore(file.lastModified())) {
+            this.peers.put(node, filename, this.local.load(filename), file.lastModified(), file.digest()).join();
+            sent++;
+          }
+        }
+        catch (IOException | CompletionException e) {
+          logger.debug("Could not pass " + filename + " to " + node, e);
+          replicated = false;
+        }
+      }
+      if (replicated && !replicas.contains(this.self)) {
+        try {
+          this.local.evict(file);
+        }
+        catch (IOException e) {
+          logger.warn("Failed to drop " + filename + " after passing it on", e);
+        }
+      }
+    }
+    if (sent > 0) {
+      logger.info("Sent " + sent + " files to the nodes that now own them");
+    }
+    return sent;
+  }
+
+  private void handoffQuietly() {
+    try {
+      handoff();
+    }
+    catch (RuntimeException e) {
+      logger.warn("Failed to hand off hints", e);
+    }
+  }
+
+  private void rebalanceQuietly() {
+    try {
+      rebalance();
+    }
+    catch (RuntimeException e) {
+      logger.warn("Failed to rebalance files", e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    this.scheduler.shutdownNow();
+    this.local.close();
+  }
+
+  private Stream<String> peers() {
+    return this.ring.nodes().stream().filter(node -> !node.equals(this.self));
+  }
+
+  private static String validate(String filename) {
+    Path path = Paths.get(filename).normalize();
+    if (path.getParent() != null || path.getFileName() == null || filename.isBlank()
+        || path.toString().equals("..")) {
+      // This is a security check
+      throw new StorageException("Cannot store file outside current directory.");
+    }
+    return path.toString();
+  }
+
+  private static void deleteQuietly(Path file) {
+    if (file != null) {
+      try {
+        Files.deleteIfExists(file);
+      }
+      catch (IOException e) {
+        // Removed on the next init
+      }
+    }
+  }
+
+  private record Replica(String node, StoredFile file) {
+
+  }
+
+  /**
+   * A file streamed from another node.
+   */
+  private class PeerResource extends AbstractResource {
+
+    private final String node;
+
+    private final StoredFile file;
+
+    PeerResource(String node, StoredFile file) {
+      this.node = node;
+      this.file = file;
+    }
+
+    @Override
+    public String getDescription() {
+      return "file [" + this.file.filename() + "] on " + this.node;
+    }
+
+    @Override
+    public String getFilename() {
+      return this.file.filename();
+    }
+
+    @Override
+    public boolean exists() {
+      return true;
+    }
+
+    @Override
+    public long contentLength() {
+      return this.file.size();
+    }
+
+    @Override
+    public long lastModified() {
+      return this.file.lastModified().toEpochMilli();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      InputStream in = peers.get(this.node, this.file.filename());
+      if (in == null) {
+        throw new FileNotFoundException(getDescription() + " was deleted");
+      }
+      return in;
+    }
+
+  }
+
+}
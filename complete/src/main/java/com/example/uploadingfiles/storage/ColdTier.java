@@ -0,0 +1,36 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Cheap, slow storage that {@link TieredStorageService} moves files nobody reads to.
+ * Each file is kept together with its {@link StoredFile description}, so it can be
+ * listed and validated without being read.
+ */
+public interface ColdTier {
+
+  void init() throws IOException;
+
+  /**
+   * Copy {@code content}, described by {@code file}, replacing any earlier copy.
+   */
+  void put(StoredFile file, Path content) throws IOException;
+
+  InputStream get(String filename) throws IOException;
+
+  void delete(String filename) throws IOException;
+
+  /**
+   * Return every file in this tier.
+   */
+  Stream<StoredFile> files() throws IOException;
+
+  void deleteAll() throws IOException;
+
+  default void close() {
+  }
+
+}
@@ -0,0 +1,200 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Gzip variants of stored files, compressed in the background and kept below
+ * {@code .variants}, named after the digest of the content they were made from. A
+ * variant therefore can never be served for content other than its own, and files with
+ * the same content share one. As they are shared, variants are not deleted with a file
+ * but swept once no stored file has their content any more.
+ */
+public class CompressedVariants {
+
+  public static final String GZIP = "gzip";
+
+  static final String DIRECTORY = ".variants";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int QUEUE_CAPACITY = 1024;
+
+  private static final Log logger = LogFactory.getLog(CompressedVariants.class);
+
+  private final Path directory;
+
+  private final List<String> compressibleTypes;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Digests currently queued or being compressed.
+   */
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  CompressedVariants(Path root, StorageProperties properties) {
+    this.directory = root.resolve(DIRECTORY);
+    this.compressibleTypes = List.copyOf(properties.getCompressibleTypes());
+    if (properties.isCompressDownloads()) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-compressor-");
+      threadFactory.setDaemon(true);
+      threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+      // Overflowing work is dropped: the variant is requested again on the next download
+      this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(QUEUE_CAPACITY), threadFactory);
+    }
+    else {
+      this.executor = null;
+    }
+  }
+
+  /**
+   * Whether content of the given type is worth compressing.
+   */
+  public static boolean isCompressible(String contentType, List<String> compressibleTypes) {
+    if (contentType == null) {
+      return false;
+    }
+    MimeType mimeType = MimeTypeUtils.parseMimeType(contentType);
+    return compressibleTypes.stream()
+        .anyMatch(type -> MimeTypeUtils.parseMimeType(type).includes(mimeType));
+  }
+
+  /**
+   * Wrap {@code out} so that what is written to it is gzipped exactly like the
+   * background variants, which keeps the entity tag of either form valid for both.
+   */
+  public static OutputStream compressor(OutputStream out) throws IOException {
+    return new GZIPOutputStream(out, BUFFER_SIZE);
+  }
+
+  /**
+   * Return the gzip variant of {@code file} if it exists.
+   */
+  Resource find(StoredFile file) {
+    if (file.digest() == null) {
+      return null;
+    }
+    Path variant = path(file.digest());
+    return (Files.isRegularFile(variant) ? new FileSystemResource(variant) : null);
+  }
+
+  /**
+   * Queue the compression of {@code source}, whose content is described by
+   * {@code file}, unless it is not compressible or already has a variant.
+   */
+  void schedule(Path source, StoredFile file) {
+    String digest = file.digest();
+    if (this.executor == null || digest == null
+        || !isCompressible(file.contentType(), this.compressibleTypes)
+        || Files.exists(path(digest)) || !this.pending.add(digest)) {
+      return;
+    }
+    try {
+      this.executor.execute(() -> {
+        try {
+          compress(source, digest);
+        }
+        finally {
+          this.pending.remove(digest);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      this.pending.remove(digest);
+    }
+  }
+
+  /**
+   * Delete the variants of content other than {@code live}. Variants made since
+   * {@code since} are kept, as the files they were made for may be newer than
+   * {@code live}.
+   * @return the number of variants deleted
+   */
+  int sweep(Set<String> live, Instant since) throws IOException {
+    if (!Files.isDirectory(this.directory)) {
+      return 0;
+    }
+    int deleted = 0;
+    try (Stream<Path> variants = Files.find(this.directory, 2,
+        (path, attributes) -> attributes.isRegularFile() && path.getFileName().toString().endsWith(".gz")
+            && attributes.lastModifiedTime().toInstant().isBefore(since))) {
+      for (Path variant : (Iterable<Path>) variants::iterator) {
+        String name = variant.getFileName().toString();
+        String digest = name.substring(0, name.length() - ".gz".length());
+        if (!live.contains(digest) && !this.pending.contains(digest) && Files.deleteIfExists(variant)) {
+          deleted++;
+        }
+      }
+    }
+    return deleted;
+  }
+
+  void close() {
+    if (this.executor != null) {
+      this.executor.shutdownNow();
+    }
+  }
+
+  private void compress(Path source, String digest) {
+    Path target = path(digest);
+    Path pending = null;
+    try {
+      Files.createDirectories(target.getParent());
+      pending = Files.createTempFile(target.getParent(), "variant-", ".tmp");
+      MessageDigest messageDigest = ContentDigests.newMessageDigest();
+      try (InputStream in = new DigestInputStream(Files.newInputStream(source), messageDigest);
+          OutputStream out = compressor(Files.newOutputStream(pending))) {
+        in.transferTo(out);
+      }
+      // The source may have been overwritten since it was queued
+      if (ContentDigests.hex(messageDigest).equals(digest)) {
+        Files.move(pending, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    catch (IOException e) {
+      logger.debug("Failed to compress " + source, e);
+    }
+    finally {
+      if (pending != null) {
+        try {
+          Files.deleteIfExists(pending);
+        }
+        catch (IOException e) {
+          // Left for the next deleteAll
+        }
+      }
+    }
+  }
+
+  private Path path(String digest) {
+    return this.directory.resolve(digest.substring(0, 2)).resolve(digest + ".gz");
+  }
+
+}
@@ -0,0 +1,25 @@
+package com.example.uploadingfiles.storage;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.context.annotation.Conditional;
+
+/**
+ * Matches when {@code storage.backend} binds to the given {@link StorageProperties.Backend},
+ * so every spelling relaxed binding accepts, such as {@code CONTENT_ADDRESSED} and
+ * {@code content-addressed}, selects the same backend. Matches
+ * {@link StorageProperties.Backend#FILESYSTEM} when the property is not set.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Documented
+@Conditional(OnBackendCondition.class)
+public @interface ConditionalOnBackend {
+
+  StorageProperties.Backend value();
+
+}
@@ -0,0 +1,287 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * {@link StorageService} that stores every distinct content once. Uploads are hashed
+ * while they are streamed in and kept as blobs named after their SHA-256 digest in a
+ * two-level sharded directory ({@code blobs/ab/cd/abcd...}). Each filename is a small
+ * reference file under {@code refs/} holding the digest, so storing content that is
+ * already present only writes that reference. Blobs no longer referenced by any name are
+ * removed.
+ */
+@Service
+@ConditionalOnBackend(StorageProperties.Backend.CONTENT_ADDRESSED)
+public class ContentAddressedStorageService implements StorageService {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private final Path rootLocation;
+
+  private final Path blobs;
+
+  private final Path refs;
+
+  private final Path incoming;
+
+  private final FileIndex index = new FileIndex();
+
+  private final Trash trash;
+
+  /**
+   * Guards the name mappings and blob creation and removal. A lock rather than a
+   * monitor, so virtual threads waiting on file I/O under it do not pin their carrier.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Digest of the content each filename points to.
+   */
+  private final Map<String, String> digests = new HashMap<>();
+
+  /**
+   * Number of filenames pointing to each digest.
+   */
+  private final Map<String, Integer> referenceCounts = new HashMap<>();
+
+  @Autowired
+  public ContentAddressedStorageService(StorageProperties properties) {
+    if (properties.getLocation().trim().length() == 0) {
+      throw new StorageException("File upload location can not be Empty.");
+    }
+    this.rootLocation = Paths.get(properties.getLocation());
+    this.blobs = this.rootLocation.resolve("blobs");
+    this.refs = this.rootLocation.resolve("refs");
+    this.incoming = this.rootLocation.resolve("incoming");
+    this.trash = new Trash(this.rootLocation);
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    Path reference = this.refs.resolve(Paths.get(filename)).normalize().toAbsolutePath();
+    if (!reference.getParent().equals(this.refs.toAbsolutePath())) {
+      // This is a security check
+      throw new StorageException("Cannot store file outside current directory.");
+    }
+    filename = reference.getFileName().toString();
+    Path upload = null;
+    try {
+      upload = Files.createTempFile(this.incoming, "upload-", ".tmp");
+      MessageDigest messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      long size = Files.copy(new DigestInputStream(inputStream, messageDigest), upload,
+          StandardCopyOption.REPLACE_EXISTING);
+      String digest = HexFormat.of().formatHex(messageDigest.digest());
+      commit(filename, digest, upload, size);
+    }
+    catch (IOException | NoSuchAlgorithmException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+    finally {
+      if (upload != null) {
+        try {
+          Files.deleteIfExists(upload);
+        }
+        catch (IOException e) {
+          // Left for the next deleteAll
+        }
+      }
+    }
+  }
+
+  /**
+   * Point {@code filename} at {@code digest}, moving the upload into place unless a
+   * blob with that digest already exists.
+   */
+  private void commit(String filename, String digest, Path upload, long size)
+      throws IOException {
+
+    this.lock.lock();
+    try {
+      commitLocked(filename, digest, upload, size);
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void commitLocked(String filename, String digest, Path upload, long size)
+      throws IOException {
+
+    Path blob = blobPath(digest);
+    if (!Files.exists(blob)) {
+      Files.createDirectories(blob.getParent());
+      Files.move(upload, blob, StandardCopyOption.ATOMIC_MOVE);
+    }
+    Path reference = this.refs.resolve(filename);
+    Path pending = Files.createTempFile(this.incoming, "ref-", ".tmp");
+    Files.writeString(pending, digest, StandardCharsets.US_ASCII);
+    Files.move(pending, reference, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    String previous = this.digests.put(filename, digest);
+    this.referenceCounts.merge(digest, 1, Integer::sum);
+    if (previous != null) {
+      release(previous);
+    }
+    this.index.put(new StoredFile(filename, size, Instant.now(), contentType(filename), digest));
+  }
+
+  private void release(String digest) throws IOException {
+    Integer remaining = this.referenceCounts.computeIfPresent(digest, (key, count) -> count > 1 ? count - 1 : null);
+    if (remaining == null) {
+      Files.deleteIfExists(blobPath(digest));
+    }
+  }
+
+  @Override
+  public Stream<Path> loadAll() {
+    return this.index.files().map(file -> Paths.get(file.filename()));
+  }
+
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    return this.index.page(limit, cursor, sort);
+  }
+
+  @Override
+  public Path load(String filename) {
+    String digest;
+    this.lock.lock();
+    try {
+      digest = this.digests.get(filename);
+    }
+    finally {
+      this.lock.unlock();
+    }
+    return (digest != null ? blobPath(digest) : this.refs.resolve(filename));
+  }
+
+  @Override
+  public StoredFile describe(String filename) {
+    StoredFile file = this.index.get(filename);
+    if (file == null) {
+      throw new StorageFileNotFoundException("Could not read file: " + filename);
+    }
+    return file;
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    Path file = load(filename);
+    if (!Files.isReadable(file) || !file.startsWith(this.blobs)) {
+      throw new StorageFileNotFoundException("Could not read file: " + filename);
+    }
+    return new NamedFileResource(file, filename);
+  }
+
+  @Override
+  public void deleteAll() {
+    this.lock.lock();
+    try {
+      this.trash.discard(this.rootLocation);
+      this.digests.clear();
+      this.referenceCounts.clear();
+      this.index.clear();
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to delete stored files", e);
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void init() {
+    this.lock.lock();
+    try {
+      Files.createDirectories(this.blobs);
+      Files.createDirectories(this.refs);
+      Files.createDirectories(this.incoming);
+      this.trash.empty();
+      this.digests.clear();
+      this.referenceCounts.clear();
+      this.index.clear();
+      try (Stream<Path> references = Files.list(this.refs)) {
+        for (Path reference : (Iterable<Path>) references::iterator) {
+          String filename = reference.getFileName().toString();
+          String digest = Files.readString(reference, StandardCharsets.US_ASCII).trim();
+          Path blob = blobPath(digest);
+          if (!Files.exists(blob)) {
+            continue;
+          }
+          this.digests.put(filename, digest);
+          this.referenceCounts.merge(digest, 1, Integer::sum);
+          this.index.put(new StoredFile(filename, Files.size(blob),
+              Files.getLastModifiedTime(reference).toInstant(), contentType(filename), digest));
+        }
+      }
+    }
+    catch (IOException | IllegalArgumentException e) {
+      throw new StorageException("Could not initialize storage", e);
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    this.trash.close();
+  }
+
+  private Path blobPath(String digest) {
+    if (digest.length() != 64 || !digest.chars().allMatch(HexFormat::isHexDigit)) {
+      throw new IllegalArgumentException("Invalid digest: " + digest);
+    }
+    return this.blobs.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest);
+  }
+
+  private static String contentType(String filename) {
+    return MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+  }
+
+  /**
+   * A blob exposed under the name it was stored with, so downloads keep the original
+   * filename and content type.
+   */
+  private static class NamedFileResource extends FileSystemResource {
+
+    private final String filename;
+
+    NamedFileResource(Path path, String filename) {
+      super(path);
+      this.filename = filename;
+    }
+
+    @Override
+    public String getFilename() {
+      return this.filename;
+    }
+
+  }
+
+}
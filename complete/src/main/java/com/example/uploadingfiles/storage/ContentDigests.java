@@ -0,0 +1,95 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Persists the SHA-256 digest of each stored file in a sidecar file below
+ * {@code .digests}, mirroring the file's path relative to the storage root. A sidecar
+ * also records the size and modification time of the content it was computed from, so a
+ * file changed behind the service's back is never served with a stale digest.
+ */
+class ContentDigests {
+
+  static final String DIRECTORY = ".digests";
+
+  private static final String ALGORITHM = "SHA-256";
+
+  private final Path root;
+
+  private final Path directory;
+
+  ContentDigests(Path root) {
+    this.root = root.toAbsolutePath();
+    this.directory = this.root.resolve(DIRECTORY);
+  }
+
+  static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String hex(MessageDigest messageDigest) {
+    return HexFormat.of().formatHex(messageDigest.digest());
+  }
+
+  /**
+   * Return the persisted digest of {@code file} if it is still current, or {@code null}.
+   */
+  String read(Path file, StoredFile stored) {
+    try {
+      String[] fields = Files.readString(sidecar(file), StandardCharsets.US_ASCII).trim().split(" ");
+      if (fields.length == 3 && Long.parseLong(fields[1]) == stored.size()
+          && Long.parseLong(fields[2]) == stored.lastModified().toEpochMilli()) {
+        return fields[0];
+      }
+      return null;
+    }
+    catch (IOException | NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Hash the content of {@code file}.
+   */
+  static String compute(Path file) throws IOException {
+    MessageDigest messageDigest = newMessageDigest();
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        messageDigest.update(buffer, 0, read);
+      }
+    }
+    return hex(messageDigest);
+  }
+
+  void write(Path file, StoredFile stored) throws IOException {
+    Path sidecar = sidecar(file);
+    Files.createDirectories(sidecar.getParent());
+    Path pending = Files.createTempFile(sidecar.getParent(), "digest-", ".tmp");
+    Files.writeString(pending, stored.digest() + " " + stored.size() + " "
+        + stored.lastModified().toEpochMilli(), StandardCharsets.US_ASCII);
+    Files.move(pending, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  void delete(Path file) throws IOException {
+    Files.deleteIfExists(sidecar(file));
+  }
+
+  private Path sidecar(Path file) {
+    return this.directory.resolve(this.root.relativize(file.toAbsolutePath()));
+  }
+
+}
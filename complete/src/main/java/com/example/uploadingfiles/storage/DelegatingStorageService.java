@@ -0,0 +1,107 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Base class for {@link StorageService} decorators, forwarding every method to the
+ * wrapped service.
+ */
+public abstract class DelegatingStorageService implements StorageService {
+
+  private final StorageService delegate;
+
+  protected DelegatingStorageService(StorageService delegate) {
+    this.delegate = delegate;
+  }
+
+  public StorageService getDelegate() {
+    return this.delegate;
+  }
+
+  /**
+   * Return the service at the bottom of a chain of decorators.
+   */
+  public static StorageService unwrap(StorageService storageService) {
+    while (storageService instanceof DelegatingStorageService delegating) {
+      storageService = delegating.getDelegate();
+    }
+    return storageService;
+  }
+
+  @Override
+  public void init() {
+    this.delegate.init();
+  }
+
+  @Override
+  public void store(MultipartFile file) {
+    this.delegate.store(file);
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    this.delegate.store(filename, inputStream);
+  }
+
+  @Override
+  public void store(String filename, Path file) {
+    this.delegate.store(filename, file);
+  }
+
+  @Override
+  public void store(String filename, Path file, String digest) {
+    this.delegate.store(filename, file, digest);
+  }
+
+  @Override
+  public Stream<Path> loadAll() {
+    return this.delegate.loadAll();
+  }
+
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    return this.delegate.list(limit, cursor, sort);
+  }
+
+  @Override
+  public Path load(String filename) {
+    return this.delegate.load(filename);
+  }
+
+  @Override
+  public StoredFile describe(String filename) {
+    return this.delegate.describe(filename);
+  }
+
+  @Override
+  public StoredFile stat(String filename) {
+    return this.delegate.stat(filename);
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    return this.delegate.loadAsResource(filename);
+  }
+
+  @Override
+  public Resource loadPrecompressed(StoredFile file, String contentCoding) {
+    return this.delegate.loadPrecompressed(file, contentCoding);
+  }
+
+  @Override
+  public void deleteAll() {
+    this.delegate.deleteAll();
+  }
+
+  @Override
+  public void setRemovalListener(Consumer<String> listener) {
+    this.delegate.setRemovalListener(listener);
+  }
+
+}
@@ -0,0 +1,8 @@
+package com.example.uploadingfiles.storage;
+
+public class DigestMismatchException extends StorageException {
+
+  public DigestMismatchException(String message) {
+    super(message);
+  }
+}
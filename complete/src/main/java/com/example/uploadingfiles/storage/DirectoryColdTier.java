@@ -0,0 +1,117 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/**
+ * {@link ColdTier} in a directory, typically on a second, cheaper mount. Content lives
+ * in {@code files/} and each file's digest, size and modification time in a
+ * same-named file below {@code meta/}, written after the content so that only complete
+ * copies are ever listed.
+ */
+public class DirectoryColdTier implements ColdTier {
+
+  private final Path files;
+
+  private final Path meta;
+
+  private final Path incoming;
+
+  private final Trash trash;
+
+  public DirectoryColdTier(Path root) {
+    this.files = root.resolve("files");
+    this.meta = root.resolve("meta");
+    this.incoming = root.resolve("incoming");
+    this.trash = new Trash(root);
+  }
+
+  @Override
+  public void init() throws IOException {
+    Files.createDirectories(this.files);
+    Files.createDirectories(this.meta);
+    this.trash.empty();
+    this.trash.discard(this.incoming);
+    Files.createDirectories(this.incoming);
+  }
+
+  @Override
+  public void put(StoredFile file, Path content) throws IOException {
+    Path pending = Files.createTempFile(this.incoming, "cold-", ".tmp");
+    try {
+      Files.copy(content, pending, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(pending, this.files.resolve(file.filename()), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      Files.writeString(pending, file.digest() + " " + file.size() + " "
+          + file.lastModified().toEpochMilli(), StandardCharsets.US_ASCII);
+      Files.move(pending, this.meta.resolve(file.filename()), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(pending);
+    }
+  }
+
+  @Override
+  public InputStream get(String filename) throws IOException {
+    return Files.newInputStream(this.files.resolve(filename));
+  }
+
+  @Override
+  public void delete(String filename) throws IOException {
+    Files.deleteIfExists(this.meta.resolve(filename));
+    Files.deleteIfExists(this.files.resolve(filename));
+  }
+
+  @Override
+  public Stream<StoredFile> files() throws IOException {
+    return Files.list(this.meta).map(this::describe).filter(Objects::nonNull);
+  }
+
+  @Override
+  public void deleteAll() throws IOException {
+    this.trash.discard(this.meta);
+    this.trash.discard(this.files);
+    Files.createDirectories(this.files);
+    Files.createDirectories(this.meta);
+  }
+
+  @Override
+  public void close() {
+    this.trash.close();
+  }
+
+  private StoredFile describe(Path metadata) {
+    String filename = metadata.getFileName().toString();
+    try {
+      String[] fields = Files.readString(metadata, StandardCharsets.US_ASCII).trim().split(" ");
+      long size = Long.parseLong(fields[1]);
+      if (fields.length != 3 || Files.size(this.files.resolve(filename)) != size) {
+        return null;
+      }
+      String contentType = MediaTypeFactory.getMediaType(filename)
+          .orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+      return new StoredFile(filename, size, Instant.ofEpochMilli(Long.parseLong(fields[2])), contentType,
+          fields[0]);
+    }
+    catch (NoSuchFileException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      return null;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
@@ -0,0 +1,11 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Thrown when an uploaded file has no content, which is not stored.
+ */
+public class EmptyFileException extends StorageException {
+
+  public EmptyFileException() {
+    super("Failed to store empty file.");
+  }
+}
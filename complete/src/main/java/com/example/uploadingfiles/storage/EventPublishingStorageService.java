@@ -0,0 +1,75 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * {@link StorageService} decorator that publishes a {@link FileStoredEvent} after each
+ * successful store, a {@link FileDeletedEvent} for each file the backend reports gone and
+ * a {@link StorageClearedEvent} after {@link #deleteAll()}. Store events
+ * are published on the storing thread, so they describe the file without computing a
+ * digest that was not recorded when it was stored.
+ */
+public class EventPublishingStorageService extends DelegatingStorageService {
+
+  private static final Log logger = LogFactory.getLog(EventPublishingStorageService.class);
+
+  private final ApplicationEventPublisher publisher;
+
+  public EventPublishingStorageService(StorageService delegate, ApplicationEventPublisher publisher) {
+    super(delegate);
+    this.publisher = publisher;
+    delegate.setRemovalListener(filename -> publisher.publishEvent(new FileDeletedEvent(filename)));
+  }
+
+  @Override
+  public void store(MultipartFile file) {
+    super.store(file);
+    stored(file.getOriginalFilename());
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    super.store(filename, inputStream);
+    stored(filename);
+  }
+
+  @Override
+  public void store(String filename, Path file) {
+    store(filename, file, null);
+  }
+
+  @Override
+  public void store(String filename, Path file, String digest) {
+    super.store(filename, file, digest);
+    stored(filename);
+  }
+
+  @Override
+  public void deleteAll() {
+    super.deleteAll();
+    this.publisher.publishEvent(new StorageClearedEvent());
+  }
+
+  private void stored(String filename) {
+    StoredFile file;
+    try {
+      file = stat(filename);
+    }
+    catch (StorageException e) {
+      // Replaced or deleted already; whoever did that publishes their own event
+      logger.debug("Not publishing store of " + filename, e);
+      return;
+    }
+    if (file != null) {
+      this.publisher.publishEvent(new FileStoredEvent(file));
+    }
+  }
+
+}
@@ -0,0 +1,10 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Published after a stored file went away other than through
+ * {@link StorageService#deleteAll()}, such as when it was evicted, found corrupt or
+ * deleted by something else.
+ */
+public record FileDeletedEvent(String filename) {
+
+}
@@ -0,0 +1,11 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.Map;
+
+/**
+ * A stored file together with who uploaded it, if known, and what post-store processing
+ * found out about it, by {@link FileProcessor#name() processor}.
+ */
+public record FileDetails(StoredFile file, String uploader, Map<String, Map<String, String>> metadata) {
+
+}
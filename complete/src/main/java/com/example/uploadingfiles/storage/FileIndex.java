@@ -0,0 +1,262 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/**
+ * In-memory index of stored files, kept sorted by name and by modification time so
+ * listings and pages never have to scan the storage directory. Reads are lock-free;
+ * writes are serialized to keep both orderings consistent.
+ */
+class FileIndex {
+
+  private static final Comparator<StoredFile> BY_LAST_MODIFIED = Comparator
+      .comparing(StoredFile::lastModified).thenComparing(StoredFile::filename);
+
+  private final ConcurrentSkipListMap<String, StoredFile> files = new ConcurrentSkipListMap<>();
+
+  private final ConcurrentSkipListSet<StoredFile> byLastModified = new ConcurrentSkipListSet<>(BY_LAST_MODIFIED);
+
+  private volatile Consumer<String> removalListener = filename -> {
+  };
+
+  /**
+   * Have {@code listener} called with the name of each file removed, other than by
+   * {@link #clear()}, after it was removed.
+   */
+  void setRemovalListener(Consumer<String> listener) {
+    this.removalListener = listener;
+  }
+
+  StoredFile get(String filename) {
+    return this.files.get(filename);
+  }
+
+  Stream<StoredFile> files() {
+    return this.files.values().stream();
+  }
+
+  int size() {
+    return this.files.size();
+  }
+
+  synchronized void put(StoredFile file) {
+    StoredFile previous = this.files.put(file.filename(), file);
+    if (previous != null) {
+      this.byLastModified.remove(previous);
+    }
+    this.byLastModified.add(file);
+  }
+
+  /**
+   * Replace the entry for a file with {@code file} unless it changed since
+   * {@code expected} was read.
+   */
+  synchronized void replace(StoredFile expected, StoredFile file) {
+    if (expected.equals(this.files.get(expected.filename()))) {
+      put(file);
+    }
+  }
+
+  void remove(String filename) {
+    StoredFile previous;
+    synchronized (this) {
+      previous = this.files.remove(filename);
+      if (previous != null) {
+        this.byLastModified.remove(previous);
+      }
+    }
+    if (previous != null) {
+      this.removalListener.accept(filename);
+    }
+  }
+
+  synchronized void clear() {
+    this.files.clear();
+    this.byLastModified.clear();
+  }
+
+  /**
+   * Return up to {@code limit} files following the position encoded in {@code cursor},
+   * or from the start if the cursor is {@code null}. The cost depends on the page size,
+   * not on the number of indexed files.
+   */
+  FilePage page(int limit, String cursor, FileSort sort) {
+    if (limit < 1) {
+      throw new InvalidPageRequestException("Page limit must be positive");
+    }
+    Iterator<StoredFile> iterator;
+    if (sort == FileSort.LAST_MODIFIED) {
+      NavigableSet<StoredFile> set = this.byLastModified;
+      iterator = (cursor != null ? set.tailSet(decodeCursor(cursor, sort), false) : set).iterator();
+    }
+    else {
+      Map<String, StoredFile> map = (cursor != null
+          ? this.files.tailMap(decodeCursor(cursor, sort).filename(), false) : this.files);
+      iterator = map.values().iterator();
+    }
+    List<StoredFile> page = new ArrayList<>(Math.min(limit, 1024));
+    while (page.size() < limit && iterator.hasNext()) {
+      page.add(iterator.next());
+    }
+    String nextCursor = (iterator.hasNext() ? encodeCursor(page.get(page.size() - 1), sort) : null);
+    return new FilePage(page, nextCursor);
+  }
+
+  /**
+   * Bring the entry for {@code filename} in line with the file at {@code path}, adding,
+   * updating or removing it as necessary. A known digest is kept as long as the size
+   * and modification time are unchanged.
+   */
+  void refresh(String filename, Path path) {
+    StoredFile file = describe(filename, path);
+    if (file != null) {
+      StoredFile previous = this.files.get(filename);
+      if (previous != null && previous.digest() != null && previous.size() == file.size()
+          && previous.lastModified().equals(file.lastModified())) {
+        file = file.withDigest(previous.digest());
+      }
+      put(file);
+    }
+    else {
+      remove(filename);
+    }
+  }
+
+  /**
+   * Bring the whole index in line with the given files. Entries are updated in place,
+   * so readers never miss a file that was indexed before and is still there.
+   */
+  void rebuild(Stream<Path> paths) {
+    Map<String, StoredFile> found = new HashMap<>();
+    paths.forEach(path -> {
+      String filename = path.getFileName().toString();
+      StoredFile file = describe(filename, path);
+      if (file != null) {
+        found.put(filename, file);
+      }
+    });
+    List<String> removed = new ArrayList<>();
+    synchronized (this) {
+      for (String filename : this.files.keySet()) {
+        if (!found.containsKey(filename)) {
+          removed.add(filename);
+          this.byLastModified.remove(this.files.remove(filename));
+        }
+      }
+      for (StoredFile file : found.values()) {
+        StoredFile previous = this.files.get(file.filename());
+        if (previous == null || previous.size() != file.size()
+            || !previous.lastModified().equals(file.lastModified())) {
+          put(file);
+        }
+      }
+    }
+    removed.forEach(this.removalListener);
+  }
+
+  /**
+   * Add the given files that are not indexed yet, leaving entries made in the meantime
+   * alone.
+   */
+  void addAll(Stream<Path> paths) {
+    paths.forEach(path -> {
+      String filename = path.getFileName().toString();
+      StoredFile file = describe(filename, path);
+      if (file != null) {
+        synchronized (this) {
+          if (!this.files.containsKey(filename)) {
+            put(file);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Merge pages read with the same cursor from two indexes into one of at most
+   * {@code limit} files. A file in both is taken from {@code first}.
+   */
+  static FilePage merge(FilePage first, FilePage second, int limit, FileSort sort) {
+    Set<String> filenames = new HashSet<>();
+    List<StoredFile> files = new ArrayList<>();
+    for (StoredFile file : first.files()) {
+      filenames.add(file.filename());
+      files.add(file);
+    }
+    for (StoredFile file : second.files()) {
+      if (filenames.add(file.filename())) {
+        files.add(file);
+      }
+    }
+    files.sort(sort == FileSort.LAST_MODIFIED ? BY_LAST_MODIFIED : Comparator.comparing(StoredFile::filename));
+    boolean more = (first.nextCursor() != null || second.nextCursor() != null || files.size() > limit);
+    List<StoredFile> page = List.copyOf(files.subList(0, Math.min(limit, files.size())));
+    String nextCursor = (more && !page.isEmpty() ? encodeCursor(page.get(page.size() - 1), sort) : null);
+    return new FilePage(page, nextCursor);
+  }
+
+  static StoredFile describe(String filename, Path path) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      if (!attributes.isRegularFile()) {
+        return null;
+      }
+      String contentType = MediaTypeFactory.getMediaType(filename)
+          .orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+      return new StoredFile(filename, attributes.size(),
+          attributes.lastModifiedTime().toInstant(), contentType);
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static String encodeCursor(StoredFile last, FileSort sort) {
+    String position = (sort == FileSort.LAST_MODIFIED
+        ? last.lastModified() + "/" + last.filename() : last.filename());
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode a cursor into a probe entry positioned where the previous page ended.
+   */
+  private static StoredFile decodeCursor(String cursor, FileSort sort) {
+    try {
+      String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      if (sort != FileSort.LAST_MODIFIED) {
+        return new StoredFile(position, 0, Instant.EPOCH, null);
+      }
+      int separator = position.indexOf('/');
+      return new StoredFile(position.substring(separator + 1), 0,
+          Instant.parse(position.substring(0, separator)), null);
+    }
+    catch (IllegalArgumentException | DateTimeParseException | StringIndexOutOfBoundsException e) {
+      throw new InvalidPageRequestException("Invalid listing cursor: " + cursor, e);
+    }
+  }
+
+}
@@ -0,0 +1,384 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * What is known about each stored file: its size, content type, when it was stored and
+ * by whom, written when it is stored, and the results of post-store processing. Results
+ * are tied to the content digest they were computed for, so they disappear as soon as
+ * a file's content changes.
+ * <p>
+ * Entries are kept in memory, indexed by name, size and modification time so that
+ * {@link #query} can walk them in the requested order, and persisted to a
+ * {@link MetadataJournal} at {@code <location>.metadata}. The indexes are only
+ * locked while entries are swapped; journal records are appended outside that lock, in
+ * the same order as the changes to each file.
+ */
+@Component
+public class FileMetadataStore {
+
+  private static final Comparator<Entry> BY_SIZE = Comparator.comparingLong((Entry entry) -> entry.file().size())
+      .thenComparing(entry -> entry.file().filename());
+
+  private static final Comparator<Entry> BY_LAST_MODIFIED = Comparator
+      .comparing((Entry entry) -> entry.file().lastModified()).thenComparing(entry -> entry.file().filename());
+
+  /**
+   * Superseded records the journal may hold, beyond one per file, before it is rewritten.
+   */
+  private static final int JOURNAL_SLACK = 1024;
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final MetadataJournal journal;
+
+  private final NavigableMap<String, Entry> byName = new TreeMap<>();
+
+  private final NavigableSet<Entry> bySize = new TreeSet<>(BY_SIZE);
+
+  private final NavigableSet<Entry> byLastModified = new TreeSet<>(BY_LAST_MODIFIED);
+
+  /**
+   * Guards the indexes.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Held shared while a change is indexed and appended to the journal, and exclusively
+   * while the journal is cleared or rewritten, so neither loses a change in flight.
+   */
+  private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+  /**
+   * Striped locks keeping the changes to the same file in order.
+   */
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+  @Autowired
+  public FileMetadataStore(StorageProperties properties) {
+    this(Paths.get(properties.getLocation() + ".metadata"), properties.isFsync());
+  }
+
+  FileMetadataStore(Path journal, boolean fsync) {
+    Arrays.setAll(this.locks, i -> new ReentrantLock());
+    this.journal = new MetadataJournal(journal, fsync);
+    try {
+      this.journal.open(this::index, this::unindex);
+    }
+    catch (IOException e) {
+      throw new StorageException("Could not read file metadata", e);
+    }
+  }
+
+  /**
+   * Record a file that was just stored, and who uploaded it if it came in with a
+   * request.
+   */
+  @EventListener
+  public void stored(FileStoredEvent event) {
+    StoredFile file = event.file();
+    update(file.filename(), entry -> new Entry(file, uploader(),
+        (entry != null && file.digest() != null && file.digest().equals(entry.file().digest())
+            ? entry.results() : Map.of())));
+  }
+
+  /**
+   * Forget a file that went away.
+   */
+  @EventListener
+  public void deleted(FileDeletedEvent event) {
+    String filename = event.filename();
+    change(filename, () -> {
+      this.lock.writeLock().lock();
+      try {
+        if (unindex(filename) == null) {
+          return;
+        }
+      }
+      finally {
+        this.lock.writeLock().unlock();
+      }
+      this.journal.delete(filename);
+    });
+  }
+
+  private static String uploader() {
+    if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+      HttpServletRequest request = attributes.getRequest();
+      return (request.getRemoteUser() != null ? request.getRemoteUser() : request.getRemoteAddr());
+    }
+    return null;
+  }
+
+  /**
+   * Record what {@code processor} found out about {@code file}.
+   */
+  public void put(StoredFile file, String processor, Map<String, String> attributes) {
+    update(file.filename(), entry -> {
+      Entry current = (entry != null && file.digest() != null && file.digest().equals(entry.file().digest())
+          ? entry : new Entry(file, (entry != null ? entry.uploader() : null), Map.of()));
+      Map<String, Map<String, String>> results = new TreeMap<>(current.results());
+      results.put(processor, Map.copyOf(attributes));
+      return new Entry(current.file(), current.uploader(), results);
+    });
+  }
+
+  /**
+   * Return the results recorded for the current content of {@code file}, by processor.
+   */
+  public Map<String, Map<String, String>> get(StoredFile file) {
+    Entry entry = find(file);
+    return (entry != null ? entry.results() : Map.of());
+  }
+
+  /**
+   * Return {@code file} with who uploaded it and the results recorded for its current
+   * content.
+   */
+  public FileDetails details(StoredFile file) {
+    Entry entry = find(file);
+    return (entry != null ? new FileDetails(file, entry.uploader(), entry.results())
+        : new FileDetails(file, null, Map.of()));
+  }
+
+  private Entry find(StoredFile file) {
+    this.lock.readLock().lock();
+    try {
+      Entry entry = this.byName.get(file.filename());
+      return (entry != null && entry.file().digest() != null && entry.file().digest().equals(file.digest())
+          ? entry : null);
+    }
+    finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the files matching {@code query} without going to the storage backend. The
+   * index of the requested order is walked within the size or time range the query
+   * sets for it, and the other criteria are checked on each entry reached. Only that
+   * range is skipped without looking: sorting by name, or filtering on content type,
+   * uploader or the range of the other index, may walk every entry before
+   * {@code limit} matches are found.
+   */
+  public List<FileDetails> query(FileQuery query) {
+    if (query.limit() < 1) {
+      throw new InvalidPageRequestException("Query limit must be positive");
+    }
+    this.lock.readLock().lock();
+    try {
+      Iterable<Entry> candidates = switch (query.sort()) {
+        case NAME -> (query.descending() ? this.byName.descendingMap() : this.byName).values();
+        case SIZE -> {
+          NavigableSet<Entry> range = this.bySize;
+          if (query.minSize() != null) {
+            range = range.tailSet(probe(query.minSize(), Instant.MIN), true);
+          }
+          if (query.maxSize() != null && query.maxSize() < Long.MAX_VALUE) {
+            range = range.headSet(probe(query.maxSize() + 1, Instant.MIN), false);
+          }
+          yield (query.descending() ? range.descendingSet() : range);
+        }
+        case LAST_MODIFIED -> {
+          NavigableSet<Entry> range = this.byLastModified;
+          if (query.storedAfter() != null) {
+            range = range.tailSet(probe(0, query.storedAfter().plusNanos(1)), true);
+          }
+          if (query.storedBefore() != null) {
+            range = range.headSet(probe(0, query.storedBefore()), false);
+          }
+          yield (query.descending() ? range.descendingSet() : range);
+        }
+      };
+      List<FileDetails> matches = new ArrayList<>();
+      for (Entry entry : candidates) {
+        if (matches(entry, query)) {
+          matches.add(new FileDetails(entry.file(), entry.uploader(), entry.results()));
+          if (matches.size() == query.limit()) {
+            break;
+          }
+        }
+      }
+      return matches;
+    }
+    finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  private static boolean matches(Entry entry, FileQuery query) {
+    StoredFile file = entry.file();
+    return (query.minSize() == null || file.size() >= query.minSize())
+        && (query.maxSize() == null || file.size() <= query.maxSize())
+        && (query.storedAfter() == null || file.lastModified().isAfter(query.storedAfter()))
+        && (query.storedBefore() == null || file.lastModified().isBefore(query.storedBefore()))
+        && (query.contentType() == null
+            || (file.contentType() != null && file.contentType().startsWith(query.contentType())))
+        && (query.uploader() == null || query.uploader().equals(entry.uploader()));
+  }
+
+  /**
+   * An entry sorting before every file of the given size, or modified at the given time.
+   */
+  private static Entry probe(long size, Instant lastModified) {
+    return new Entry(new StoredFile("", size, lastModified, null), null, Map.of());
+  }
+
+  @EventListener(StorageClearedEvent.class)
+  public void clear() {
+    this.journalLock.writeLock().lock();
+    this.lock.writeLock().lock();
+    try {
+      this.journal.clear();
+      this.byName.clear();
+      this.bySize.clear();
+      this.byLastModified.clear();
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to clear file metadata", e);
+    }
+    finally {
+      this.lock.writeLock().unlock();
+      this.journalLock.writeLock().unlock();
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    this.journal.close();
+  }
+
+  private void update(String filename, UnaryOperator<Entry> change) {
+    change(filename, () -> {
+      Entry entry;
+      this.lock.writeLock().lock();
+      try {
+        entry = change.apply(this.byName.get(filename));
+        index(entry);
+      }
+      finally {
+        this.lock.writeLock().unlock();
+      }
+      this.journal.append(entry);
+    });
+  }
+
+  /**
+   * Run a change to the file called {@code filename}, then rewrite the journal if it
+   * holds too many superseded records.
+   */
+  private void change(String filename, JournaledChange change) {
+    ReentrantLock fileLock = this.locks[Math.floorMod(filename.hashCode(), this.locks.length)];
+    fileLock.lock();
+    this.journalLock.readLock().lock();
+    try {
+      change.run();
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to record metadata of " + filename, e);
+    }
+    finally {
+      this.journalLock.readLock().unlock();
+      fileLock.unlock();
+    }
+    if (this.journal.records() > size() * 2L + JOURNAL_SLACK) {
+      compact();
+    }
+  }
+
+  private int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.byName.size();
+    }
+    finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  private void compact() {
+    this.journalLock.writeLock().lock();
+    try {
+      List<Entry> entries;
+      this.lock.readLock().lock();
+      try {
+        entries = List.copyOf(this.byName.values());
+      }
+      finally {
+        this.lock.readLock().unlock();
+      }
+      if (this.journal.records() > entries.size() * 2L + JOURNAL_SLACK) {
+        this.journal.rewrite(entries);
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to rewrite file metadata", e);
+    }
+    finally {
+      this.journalLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Put an entry in the indexes, replacing the previous entry of the same file.
+   */
+  private void index(Entry entry) {
+    Entry previous = this.byName.put(entry.file().filename(), entry);
+    if (previous != null) {
+      this.bySize.remove(previous);
+      this.byLastModified.remove(previous);
+    }
+    this.bySize.add(entry);
+    this.byLastModified.add(entry);
+  }
+
+  /**
+   * Take the entry of a file out of the indexes.
+   * @return the entry, or {@code null} if there was none
+   */
+  private Entry unindex(String filename) {
+    Entry previous = this.byName.remove(filename);
+    if (previous != null) {
+      this.bySize.remove(previous);
+      this.byLastModified.remove(previous);
+    }
+    return previous;
+  }
+
+  @FunctionalInterface
+  private interface JournaledChange {
+
+    void run() throws IOException;
+
+  }
+
+  record Entry(StoredFile file, String uploader, Map<String, Map<String, String>> results) {
+
+  }
+
+}
@@ -0,0 +1,11 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.List;
+
+/**
+ * One page of a file listing. {@code nextCursor} is an opaque token that continues the
+ * listing after the last file of this page, or {@code null} if there are no more files.
+ */
+public record FilePage(List<StoredFile> files, String nextCursor) {
+
+}
@@ -0,0 +1,28 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * A stage of the post-store {@link ProcessingPipeline}, such as scanning, indexing or
+ * extracting properties of a file. Stages run in {@link org.springframework.core.Ordered
+ * order} on their own workers, and what each returns is recorded in the
+ * {@link FileMetadataStore} under its {@link #name()}.
+ */
+public interface FileProcessor {
+
+  String name();
+
+  default boolean supports(StoredFile file) {
+    return true;
+  }
+
+  /**
+   * Process {@code content}, the content described by {@code file}.
+   * @return the attributes to record, possibly empty
+   */
+  Map<String, String> process(StoredFile file, Resource content) throws IOException;
+
+}
@@ -0,0 +1,21 @@
+package com.example.uploadingfiles.storage;
+
+import java.time.Instant;
+
+/**
+ * What {@link FileMetadataStore#query} looks for: files of at least {@code minSize} and
+ * at most {@code maxSize} bytes, stored after {@code storedAfter} and before
+ * {@code storedBefore}, whose content type starts with {@code contentType}, uploaded by
+ * {@code uploader}. Criteria left {@code null} match any file. Up to {@code limit}
+ * matches are returned in {@code sort} order.
+ */
+public record FileQuery(Long minSize, Long maxSize, Instant storedAfter, Instant storedBefore,
+    String contentType, String uploader, Sort sort, boolean descending, int limit) {
+
+  public enum Sort {
+
+    NAME, SIZE, LAST_MODIFIED
+
+  }
+
+}
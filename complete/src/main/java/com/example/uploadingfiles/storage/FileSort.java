@@ -0,0 +1,12 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Orders in which stored files can be listed.
+ */
+public enum FileSort {
+
+  NAME,
+
+  LAST_MODIFIED
+
+}
@@ -0,0 +1,9 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Published after a file was stored successfully. The digest of the file is
+ * {@code null} if it was not known yet, see {@link StorageService#describe(String)}.
+ */
+public record FileStoredEvent(StoredFile file) {
+
+}
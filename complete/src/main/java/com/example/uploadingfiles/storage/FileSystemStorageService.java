@@ -2,26 +2,105 @@ package com.example.uploadingfiles.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+import jakarta.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileSystemUtils;
 import org.springframework.util.StringUtils;
-import org.springframework.web.multipart.MultipartFile;
 
 @Service
+@ConditionalOnBackend(StorageProperties.Backend.FILESYSTEM)
 public class FileSystemStorageService implements StorageService {
 
+  private static final Log logger = LogFactory.getLog(FileSystemStorageService.class);
+
+  private static final int LOCK_STRIPES = 64;
+
+  /**
+   * Where files found not to match their digest are moved, below the storage root.
+   */
+  static final String CORRUPT = ".corrupt";
+
   private final Path rootLocation;
 
+  private final ShardedLayout layout;
+
+  private final boolean watchForChanges;
+
+  private final boolean migrateLayout;
+
+  private final FileIndex index = new FileIndex();
+
+  private final ContentDigests digests;
+
+  private final CompressedVariants variants;
+
+  private final Path incoming;
+
+  private final boolean fsync;
+
+  private final boolean indexInBackground;
+
+  private final Trash trash;
+
+  private final Duration scrubInterval;
+
+  private final long scrubRate;
+
+  private final ScheduledExecutorService scheduler;
+
+  private ScheduledFuture<?> scrubbing;
+
+  /**
+   * Whether the index is still being built in the background, so a file missing from it
+   * may just not have been reached yet.
+   */
+  private volatile boolean indexing;
+
+  /**
+   * Striped locks serializing commits to the same name.
+   */
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+  private volatile WatchService watchService;
+
   @Autowired
   public FileSystemStorageService(StorageProperties properties) {
         
@@ -30,48 +109,252 @@ public class FileSystemStorageService implements StorageService {
         }
 
     this.rootLocation = Paths.get(properties.getLocation());
+    this.layout = new ShardedLayout(this.rootLocation, properties.getShardDepth());
+    this.digests = new ContentDigests(this.rootLocation);
+    this.variants = new CompressedVariants(this.rootLocation, properties);
+    this.incoming = this.rootLocation.resolve(".incoming");
+    this.fsync = properties.isFsync();
+    this.indexInBackground = properties.isIndexInBackground();
+    this.trash = new Trash(this.rootLocation);
+    Arrays.setAll(this.locks, i -> new ReentrantLock());
+    this.watchForChanges = properties.isWatchForChanges();
+    this.migrateLayout = properties.isMigrateLayout();
+    this.scrubInterval = properties.getScrubInterval();
+    this.scrubRate = Math.max(1, properties.getScrubRate().toBytes());
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-scrubber-");
+    threadFactory.setDaemon(true);
+    threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
   }
 
+  /**
+   * The upload is written to a temporary file below {@code .incoming} and moved into
+   * place atomically, so readers see either the previous content or the complete new
+   * one. Uploads of the same name are written concurrently but committed one at a time.
+   */
   @Override
-  public void store(MultipartFile file) {
+  public void store(String filename, InputStream inputStream) {
+    Path upload = null;
     try {
-      if (file.isEmpty()) {
-        throw new StorageException("Failed to store empty file.");
+      Path target = destination(filename);
+      Files.createDirectories(this.incoming);
+      upload = Files.createTempFile(this.incoming, "upload-", ".tmp");
+      MessageDigest messageDigest = ContentDigests.newMessageDigest();
+      Files.copy(new DigestInputStream(inputStream, messageDigest), upload,
+        StandardCopyOption.REPLACE_EXISTING);
+      if (this.fsync) {
+        force(upload);
       }
-      Path destinationFile = this.rootLocation.resolve(
-          Paths.get(file.getOriginalFilename()))
-          .normalize().toAbsolutePath();
-      if (!destinationFile.getParent().equals(this.rootLocation.toAbsolutePath())) {
-        // This is a security check
-        throw new StorageException(
-            "Cannot store file outside current directory.");
+      String digest = ContentDigests.hex(messageDigest);
+      ReentrantLock lock = lockFor(target.getFileName().toString());
+      lock.lock();
+      try {
+        Files.move(upload, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        committed(target, digest);
       }
-      try (InputStream inputStream = file.getInputStream()) {
-        Files.copy(inputStream, destinationFile,
-          StandardCopyOption.REPLACE_EXISTING);
+      finally {
+        lock.unlock();
       }
     }
     catch (IOException e) {
       throw new StorageException("Failed to store file.", e);
     }
+    finally {
+      if (upload != null) {
+        try {
+          Files.deleteIfExists(upload);
+        }
+        catch (IOException e) {
+          // Removed on the next init
+        }
+      }
+    }
   }
 
   @Override
-  public Stream<Path> loadAll() {
+  public void store(String filename, Path file) {
+    store(filename, file, null);
+  }
+
+  /**
+   * Move {@code file} into place as {@code filename}.
+   * @param digest the digest of the file's content, or {@code null} to have it computed
+   * when first needed
+   */
+  @Override
+  public void store(String filename, Path file, String digest) {
     try {
-      return Files.walk(this.rootLocation, 1)
-        .filter(path -> !path.equals(this.rootLocation))
-        .map(this.rootLocation::relativize);
+      Path target = destination(filename);
+      if (this.fsync) {
+        force(file);
+      }
+      ReentrantLock lock = lockFor(target.getFileName().toString());
+      lock.lock();
+      try {
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        committed(target, digest);
+        return;
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        // Different file system, fall back to copying below
+      }
+      finally {
+        lock.unlock();
+      }
+      StorageService.super.store(filename, file);
     }
     catch (IOException e) {
-      throw new StorageException("Failed to read stored files", e);
+      throw new StorageException("Failed to store file.", e);
+    }
+  }
+
+  /**
+   * Bring the digest, index and compressed variant of a file that was just moved into
+   * place up to date. Called with the file's lock held.
+   * @param digest the digest of the new content, or {@code null} if not known
+   */
+  private void committed(Path target, String digest) throws IOException {
+    if (this.fsync) {
+      force(target.getParent());
+    }
+    String filename = target.getFileName().toString();
+    if (digest == null) {
+      this.index.refresh(filename, target);
+    }
+    else {
+      StoredFile stored = FileIndex.describe(filename, target);
+      if (stored == null) {
+        throw new StorageException("Stored file disappeared: " + filename);
+      }
+      stored = stored.withDigest(digest);
+      this.digests.write(target, stored);
+      this.index.put(stored);
+      this.variants.schedule(target, stored);
+    }
+  }
+
+  /**
+   * Delete the file described by {@code expected} unless it was replaced since.
+   * @return whether the file was deleted
+   */
+  boolean evict(StoredFile expected) throws IOException {
+    String filename = expected.filename();
+    Path target = this.layout.resolve(filename);
+    ReentrantLock lock = lockFor(filename);
+    lock.lock();
+    try {
+      StoredFile current = FileIndex.describe(filename, target);
+      if (current == null || current.size() != expected.size()
+          || !current.lastModified().equals(expected.lastModified())) {
+        return false;
+      }
+      Files.delete(target);
+      this.digests.delete(target);
+      this.index.remove(filename);
+      return true;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private ReentrantLock lockFor(String filename) {
+    return this.locks[Math.floorMod(filename.hashCode(), this.locks.length)];
+  }
+
+  /**
+   * Flush a file, or a directory's entries, to the storage device.
+   */
+  private static void force(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      channel.force(true);
     }
+  }
 
+  /**
+   * Return where a file stored under {@code filename} goes, creating its shard
+   * directory if needed. Names starting with a dot are reserved for the service's own
+   * directories, such as {@code .digests} and {@code .incoming}.
+   */
+  private Path destination(String filename) throws IOException {
+    Path destinationFile = this.rootLocation.resolve(
+        Paths.get(filename))
+        .normalize().toAbsolutePath();
+    if (!destinationFile.getParent().equals(this.rootLocation.toAbsolutePath())) {
+      // This is a security check
+      throw new StorageException(
+          "Cannot store file outside current directory.");
+    }
+    if (destinationFile.getFileName().toString().startsWith(".")) {
+      throw new StorageException("Cannot store file with a name starting with a dot.");
+    }
+    Path target = this.layout.resolve(destinationFile.getFileName().toString());
+    if (this.layout.depth() > 0) {
+      Files.createDirectories(target.getParent());
+    }
+    return target;
+  }
+
+  @Override
+  public Stream<Path> loadAll() {
+    return this.index.files().map(file -> Paths.get(file.filename()));
+  }
+
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    return this.index.page(limit, cursor, sort);
   }
 
   @Override
   public Path load(String filename) {
-    return rootLocation.resolve(filename);
+    return this.layout.resolve(filename);
+  }
+
+  /**
+   * Files that arrived without passing through {@link #store(String, InputStream)} are
+   * hashed on first use and the digest persisted from then on.
+   */
+  @Override
+  public StoredFile stat(String filename) {
+    StoredFile file = this.index.get(filename);
+    if (file == null && this.indexing) {
+      this.index.refresh(filename, load(filename));
+      file = this.index.get(filename);
+    }
+    if (file == null) {
+      throw new StorageFileNotFoundException("Could not read file: " + filename);
+    }
+    return file;
+  }
+
+  @Override
+  public StoredFile describe(String filename) {
+    StoredFile file = stat(filename);
+    if (file.digest() != null) {
+      return file;
+    }
+    Path path = load(filename);
+    StoredFile described;
+    try {
+      String digest = this.digests.read(path, file);
+      if (digest != null) {
+        described = file.withDigest(digest);
+      }
+      else {
+        described = file.withDigest(ContentDigests.compute(path));
+        this.digests.write(path, described);
+      }
+    }
+    catch (NoSuchFileException e) {
+      throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to read file digest.", e);
+    }
+    this.index.replace(file, described);
+    return described;
   }
 
   @Override
@@ -93,18 +376,336 @@ public class FileSystemStorageService implements StorageService {
     }
   }
 
+  /**
+   * Gzip variants are made in the background after a file is stored, or after the
+   * first request that finds none.
+   */
+  @Override
+  public Resource loadPrecompressed(StoredFile file, String contentCoding) {
+    if (!CompressedVariants.GZIP.equals(contentCoding)) {
+      return null;
+    }
+    Resource variant = this.variants.find(file);
+    if (variant == null) {
+      this.variants.schedule(load(file.filename()), file);
+    }
+    return variant;
+  }
+
+  /**
+   * The storage directory is moved to the trash and deleted in the background, so this
+   * returns in constant time.
+   */
   @Override
   public void deleteAll() {
-    FileSystemUtils.deleteRecursively(rootLocation.toFile());
+    stopWatching();
+    try {
+      this.trash.discard(this.rootLocation);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to delete stored files", e);
+    }
+    this.index.clear();
+  }
+
+  @Override
+  public void setRemovalListener(Consumer<String> listener) {
+    this.index.setRemovalListener(listener);
   }
 
   @Override
   public void init() {
     try {
       Files.createDirectories(rootLocation);
+      this.trash.empty();
+      // Uploads interrupted by a crash or restart
+      this.trash.discard(this.incoming);
+      if (this.migrateLayout) {
+        migrateLayout();
+      }
+      if (this.watchForChanges) {
+        startWatching();
+      }
+      if (this.indexInBackground) {
+        startIndexing();
+      }
+      else {
+        rebuildIndex();
+      }
+      startScrubbing();
     }
     catch (IOException e) {
       throw new StorageException("Could not initialize storage", e);
     }
   }
+
+  /**
+   * Move files left in another shard layout, such as a flat directory written before
+   * sharding was enabled, to where the configured layout expects them.
+   * @return the number of files moved
+   */
+  public int migrateLayout() {
+    try {
+      int moved = this.layout.migrate();
+      if (moved > 0) {
+        logger.info("Moved " + moved + " stored files to shard depth " + this.layout.depth());
+        rebuildIndex();
+      }
+      return moved;
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to migrate storage layout", e);
+    }
+  }
+
+  /**
+   * Read every stored file whose digest was recorded, no faster than
+   * {@code storage.scrub-rate}, and move those whose content no longer matches it to
+   * {@code .corrupt}, so that they are not served any more. Files changed behind the
+   * service's back are skipped, as their recorded digest is out of date. Once every file
+   * was checked, compressed variants of content no stored file has any more are deleted.
+   * @return the number of corrupt files found
+   */
+  public int scrub() {
+    Instant started = Instant.now();
+    List<StoredFile> files = this.index.files().toList();
+    Set<String> live = new HashSet<>();
+    Throttle throttle = new Throttle(this.scrubRate);
+    int corrupt = 0;
+    for (StoredFile file : files) {
+      Path path = load(file.filename());
+      StoredFile current = FileIndex.describe(file.filename(), path);
+      String digest = (current != null ? this.digests.read(path, current) : null);
+      if (digest == null) {
+        continue;
+      }
+      live.add(digest);
+      try {
+        if (!digest.equals(throttle.digest(path)) && quarantine(current, digest)) {
+          corrupt++;
+        }
+      }
+      catch (NoSuchFileException e) {
+        // Deleted meanwhile
+      }
+      catch (IOException e) {
+        logger.warn("Failed to check " + path, e);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return corrupt;
+      }
+    }
+    try {
+      this.variants.sweep(live, started);
+    }
+    catch (IOException e) {
+      logger.warn("Failed to sweep compressed variants in " + this.rootLocation, e);
+    }
+    return corrupt;
+  }
+
+  /**
+   * Move the file described by {@code checked} to {@code .corrupt} unless it was
+   * replaced since.
+   * @return whether the file was moved
+   */
+  private boolean quarantine(StoredFile checked, String digest) throws IOException {
+    String filename = checked.filename();
+    Path target = this.layout.resolve(filename);
+    ReentrantLock lock = lockFor(filename);
+    lock.lock();
+    try {
+      StoredFile current = FileIndex.describe(filename, target);
+      if (current == null || current.size() != checked.size()
+          || !current.lastModified().equals(checked.lastModified())) {
+        return false;
+      }
+      Path quarantined = this.rootLocation.resolve(CORRUPT).resolve(filename);
+      Files.createDirectories(quarantined.getParent());
+      Files.move(target, quarantined, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      this.digests.delete(target);
+      this.index.remove(filename);
+      logger.error("Content of " + filename + " does not match its digest any more, moved it to "
+          + quarantined);
+      return true;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void startScrubbing() {
+    if (this.scrubbing != null) {
+      this.scrubbing.cancel(true);
+      this.scrubbing = null;
+    }
+    if (this.scrubInterval.isZero() || this.scrubInterval.isNegative()) {
+      return;
+    }
+    this.scrubbing = this.scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        int corrupt = scrub();
+        if (corrupt > 0) {
+          logger.warn("Found " + corrupt + " corrupt files in " + this.rootLocation);
+        }
+      }
+      catch (RuntimeException e) {
+        logger.warn("Failed to check stored files", e);
+      }
+    }, this.scrubInterval.toMillis(), this.scrubInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void close() {
+    this.scheduler.shutdownNow();
+    stopWatching();
+    this.variants.close();
+    this.trash.close();
+  }
+
+  private void rebuildIndex() throws IOException {
+    try (Stream<Path> files = this.layout.files()) {
+      this.index.rebuild(files);
+    }
+  }
+
+  /**
+   * Index the stored files on a background thread. Files stored or changed meanwhile
+   * are indexed as usual and take precedence over what the scan finds.
+   */
+  private void startIndexing() {
+    this.index.clear();
+    this.indexing = true;
+    Thread indexer = new Thread(() -> {
+      long start = System.nanoTime();
+      try (Stream<Path> files = this.layout.files()) {
+        this.index.addAll(files);
+        logger.info("Indexed " + this.index.size() + " stored files in "
+            + (System.nanoTime() - start) / 1_000_000 + "ms");
+      }
+      catch (IOException | UncheckedIOException e) {
+        logger.warn("Failed to index " + this.rootLocation, e);
+      }
+      finally {
+        this.indexing = false;
+      }
+    }, "storage-indexer");
+    indexer.setDaemon(true);
+    indexer.start();
+  }
+
+  /**
+   * Reconcile the index with changes made to the storage directory by anything other
+   * than this service.
+   */
+  private void startWatching() throws IOException {
+    stopWatching();
+    WatchService watchService = this.rootLocation.getFileSystem().newWatchService();
+    try (Stream<Path> directories = this.layout.directories()) {
+      for (Path directory : (Iterable<Path>) directories::iterator) {
+        register(watchService, directory);
+      }
+    }
+    catch (IOException e) {
+      watchService.close();
+      throw e;
+    }
+    this.watchService = watchService;
+    Thread watcher = new Thread(() -> watch(watchService), "storage-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  private static void register(WatchService watchService, Path directory) throws IOException {
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+  }
+
+  private void stopWatching() {
+    WatchService watchService = this.watchService;
+    this.watchService = null;
+    if (watchService != null) {
+      try {
+        watchService.close();
+      }
+      catch (IOException e) {
+        logger.debug("Failed to close storage watch service", e);
+      }
+    }
+  }
+
+  private void watch(WatchService watchService) {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            rebuildIndex();
+            continue;
+          }
+          Path path = directory.resolve((Path) event.context());
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)
+              && this.layout.isShardDirectory(path)) {
+            // A new shard directory: watch it and pick up whatever landed in it already
+            register(watchService, path);
+            try (Stream<Path> files = Files.walk(path, this.layout.depth())) {
+              files.filter(this.layout::isPlaced)
+                  .forEach(file -> this.index.refresh(file.getFileName().toString(), file));
+            }
+          }
+          else if (this.layout.isPlaced(path)) {
+            this.index.refresh(path.getFileName().toString(), path);
+          }
+        }
+        if (!key.reset() && directory.equals(this.rootLocation)) {
+          return;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ClosedWatchServiceException e) {
+      // stopped
+    }
+    catch (IOException e) {
+      logger.warn("Stopped watching " + this.rootLocation + " for changes", e);
+    }
+  }
+
+  /**
+   * Hashes files without reading more than a given number of bytes per second overall.
+   */
+  private static class Throttle {
+
+    private final long bytesPerSecond;
+
+    private final long start = System.nanoTime();
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private long read;
+
+    Throttle(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    String digest(Path file) throws IOException, InterruptedException {
+      MessageDigest messageDigest = ContentDigests.newMessageDigest();
+      try (InputStream in = Files.newInputStream(file)) {
+        for (int read = in.read(this.buffer); read != -1; read = in.read(this.buffer)) {
+          messageDigest.update(this.buffer, 0, read);
+          this.read += read;
+          long due = this.start + (long) (this.read * 1_000_000_000.0 / this.bytesPerSecond);
+          TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+        }
+      }
+      return ContentDigests.hex(messageDigest);
+    }
+
+  }
+
 }
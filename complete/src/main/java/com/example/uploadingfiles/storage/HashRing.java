@@ -0,0 +1,88 @@
+package com.example.uploadingfiles.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of file names onto nodes. Each node takes {@code virtualNodes}
+ * points on a ring of 64-bit hashes, and a file belongs to the first distinct nodes
+ * found walking clockwise from its own hash, so a node joining or leaving only moves
+ * the files next to its points.
+ */
+class HashRing {
+
+  private final int virtualNodes;
+
+  private final Set<String> nodes = new LinkedHashSet<>();
+
+  private final NavigableMap<Long, String> points = new TreeMap<>();
+
+  HashRing(Collection<String> nodes, int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("A node needs at least one point on the ring");
+    }
+    this.virtualNodes = virtualNodes;
+    nodes.forEach(this::add);
+  }
+
+  /**
+   * Add a node to the ring.
+   * @return whether the node was new
+   */
+  synchronized boolean add(String node) {
+    if (!this.nodes.add(node)) {
+      return false;
+    }
+    for (int i = 0; i < this.virtualNodes; i++) {
+      // On the rare collision the first node keeps the point
+      this.points.putIfAbsent(hash(node + "#" + i), node);
+    }
+    return true;
+  }
+
+  synchronized boolean contains(String node) {
+    return this.nodes.contains(node);
+  }
+
+  synchronized List<String> nodes() {
+    return List.copyOf(this.nodes);
+  }
+
+  /**
+   * Return the {@code count} nodes, or all nodes if there are fewer, that {@code key}
+   * belongs to, in ring order.
+   */
+  synchronized List<String> replicas(String key, int count) {
+    int wanted = Math.min(count, this.nodes.size());
+    List<String> replicas = new ArrayList<>(wanted);
+    if (wanted == 0) {
+      return replicas;
+    }
+    long hash = hash(key);
+    for (Map<Long, String> half : List.of(this.points.tailMap(hash, true), this.points.headMap(hash, false))) {
+      for (String node : half.values()) {
+        if (!replicas.contains(node)) {
+          replicas.add(node);
+          if (replicas.size() == wanted) {
+            return replicas;
+          }
+        }
+      }
+    }
+    return replicas;
+  }
+
+  private static long hash(String value) {
+    byte[] digest = ContentDigests.newMessageDigest().digest(value.getBytes(StandardCharsets.UTF_8));
+    return ByteBuffer.wrap(digest).getLong();
+  }
+
+}
@@ -0,0 +1,56 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the width and height of uploaded images, reading only their headers.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class ImageDimensionsProcessor implements FileProcessor {
+
+  @Override
+  public String name() {
+    return "image";
+  }
+
+  @Override
+  public boolean supports(StoredFile file) {
+    return file.contentType() != null && file.contentType().startsWith("image/");
+  }
+
+  @Override
+  public Map<String, String> process(StoredFile file, Resource content) throws IOException {
+    try (InputStream in = content.getInputStream();
+        ImageInputStream image = ImageIO.createImageInputStream(in)) {
+      Iterator<ImageReader> readers = (image != null ? ImageIO.getImageReaders(image) : null);
+      if (readers == null || !readers.hasNext()) {
+        return Map.of();
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(image, true, true);
+        return Map.of("format", reader.getFormatName().toLowerCase(Locale.ROOT),
+            "width", Integer.toString(reader.getWidth(0)),
+            "height", Integer.toString(reader.getHeight(0)));
+      }
+      finally {
+        reader.dispose();
+      }
+    }
+  }
+
+}
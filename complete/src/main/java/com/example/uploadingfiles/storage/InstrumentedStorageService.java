@@ -0,0 +1,257 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * {@link StorageService} decorator that publishes Micrometer meters for every operation:
+ * <ul>
+ * <li>{@code storage.store}: upload latency, with {@code storage.store.source.wait} for
+ * the part of it spent waiting for the client rather than writing to storage</li>
+ * <li>{@code storage.store.bytes} and {@code storage.uploads.active}</li>
+ * <li>{@code storage.load}: {@code loadAsResource} latency tagged {@code hit} or
+ * {@code miss}</li>
+ * <li>{@code storage.precompressed}: compressed variant lookups tagged {@code hit} or
+ * {@code miss}</li>
+ * <li>{@code storage.list}, {@code storage.list.entries}, {@code storage.scan} and
+ * {@code storage.scan.entries} for listings</li>
+ * <li>{@code storage.errors}: failures tagged by operation and exception type</li>
+ * </ul>
+ */
+public class InstrumentedStorageService extends DelegatingStorageService {
+
+  private final MeterRegistry registry;
+
+  private final AtomicInteger activeUploads = new AtomicInteger();
+
+  private final DistributionSummary storedBytes;
+
+  private final Timer sourceWait;
+
+  private final DistributionSummary listEntries;
+
+  private final Counter scanEntries;
+
+  public InstrumentedStorageService(StorageService delegate, MeterRegistry registry) {
+    super(delegate);
+    this.registry = registry;
+    String backend = DelegatingStorageService.unwrap(delegate).getClass().getSimpleName();
+    registry.gauge("storage.uploads.active", this.activeUploads);
+    this.storedBytes = DistributionSummary.builder("storage.store.bytes").baseUnit("bytes")
+        .tag("backend", backend).publishPercentileHistogram().register(registry);
+    this.sourceWait = Timer.builder("storage.store.source.wait").tag("backend", backend)
+        .register(registry);
+    this.listEntries = DistributionSummary.builder("storage.list.entries").tag("backend", backend)
+        .register(registry);
+    this.scanEntries = Counter.builder("storage.scan.entries").tag("backend", backend)
+        .register(registry);
+  }
+
+  @Override
+  public void init() {
+    record("init", "storage.init", () -> {
+      getDelegate().init();
+      return null;
+    });
+  }
+
+  @Override
+  public void store(MultipartFile file) {
+    upload(() -> {
+      getDelegate().store(file);
+      this.storedBytes.record(file.getSize());
+    });
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    upload(() -> {
+      MeteredInputStream metered = new MeteredInputStream(inputStream);
+      try {
+        getDelegate().store(filename, metered);
+      }
+      finally {
+        this.sourceWait.record(metered.waitNanos, TimeUnit.NANOSECONDS);
+      }
+      this.storedBytes.record(metered.bytes);
+    });
+  }
+
+  @Override
+  public void store(String filename, Path file) {
+    store(filename, file, null);
+  }
+
+  @Override
+  public void store(String filename, Path file, String digest) {
+    upload(() -> {
+      long size = size(file);
+      getDelegate().store(filename, file, digest);
+      this.storedBytes.record(size);
+    });
+  }
+
+  /**
+   * Backends may scan as the stream is consumed, so {@code storage.scan} is recorded
+   * when the stream is closed.
+   */
+  @Override
+  public Stream<Path> loadAll() {
+    long start = System.nanoTime();
+    Stream<Path> paths;
+    try {
+      paths = getDelegate().loadAll();
+    }
+    catch (RuntimeException ex) {
+      error("loadAll", ex);
+      Timer.builder("storage.scan").tag("outcome", "failure").register(this.registry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      throw ex;
+    }
+    return paths.peek(path -> this.scanEntries.increment())
+        .onClose(() -> Timer.builder("storage.scan").tag("outcome", "success").register(this.registry)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+  }
+
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    FilePage page = record("list", "storage.list", () -> getDelegate().list(limit, cursor, sort));
+    this.listEntries.record(page.files().size());
+    return page;
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    long start = System.nanoTime();
+    String result = "hit";
+    try {
+      return getDelegate().loadAsResource(filename);
+    }
+    catch (StorageFileNotFoundException ex) {
+      result = "miss";
+      throw ex;
+    }
+    catch (RuntimeException ex) {
+      result = "error";
+      error("loadAsResource", ex);
+      throw ex;
+    }
+    finally {
+      Timer.builder("storage.load").tag("result", result).register(this.registry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public Resource loadPrecompressed(StoredFile file, String contentCoding) {
+    Resource variant = getDelegate().loadPrecompressed(file, contentCoding);
+    Counter.builder("storage.precompressed").tag("result", (variant != null ? "hit" : "miss"))
+        .register(this.registry).increment();
+    return variant;
+  }
+
+  @Override
+  public void deleteAll() {
+    record("deleteAll", "storage.delete", () -> {
+      getDelegate().deleteAll();
+      return null;
+    });
+  }
+
+  private void upload(Runnable store) {
+    this.activeUploads.incrementAndGet();
+    try {
+      record("store", "storage.store", () -> {
+        store.run();
+        return null;
+      });
+    }
+    finally {
+      this.activeUploads.decrementAndGet();
+    }
+  }
+
+  private <T> T record(String operation, String timer, Supplier<T> action) {
+    long start = System.nanoTime();
+    String outcome = "success";
+    try {
+      return action.get();
+    }
+    catch (RuntimeException ex) {
+      outcome = "failure";
+      error(operation, ex);
+      throw ex;
+    }
+    finally {
+      Timer.builder(timer).tag("outcome", outcome).register(this.registry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void error(String operation, RuntimeException ex) {
+    Counter.builder("storage.errors").tag("operation", operation)
+        .tag("exception", ex.getClass().getSimpleName()).register(this.registry).increment();
+  }
+
+  private static long size(Path file) {
+    try {
+      return Files.size(file);
+    }
+    catch (IOException ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * Counts the bytes read and the time spent blocked waiting for them.
+   */
+  private static class MeteredInputStream extends FilterInputStream {
+
+    private long bytes;
+
+    private long waitNanos;
+
+    MeteredInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      long start = System.nanoTime();
+      int read = super.read();
+      this.waitNanos += System.nanoTime() - start;
+      if (read != -1) {
+        this.bytes++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      int read = super.read(b, off, len);
+      this.waitNanos += System.nanoTime() - start;
+      if (read > 0) {
+        this.bytes += read;
+      }
+      return read;
+    }
+
+  }
+
+}
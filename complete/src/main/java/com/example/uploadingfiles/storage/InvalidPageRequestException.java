@@ -0,0 +1,16 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Thrown when files are listed or queried with a malformed cursor or a limit that is
+ * not positive.
+ */
+public class InvalidPageRequestException extends IllegalArgumentException {
+
+  public InvalidPageRequestException(String message) {
+    super(message);
+  }
+
+  public InvalidPageRequestException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,12 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Thrown when a chunked upload is created with an invalid filename or size, or sent a
+ * chunk that does not belong to it.
+ */
+public class InvalidUploadException extends IllegalArgumentException {
+
+  public InvalidUploadException(String message) {
+    super(message);
+  }
+}
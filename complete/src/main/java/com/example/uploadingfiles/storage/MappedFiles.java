@@ -0,0 +1,238 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Pool of read-only memory mappings, one per stored file, shared by every reader of
+ * that file. Mappings are reference counted: the pool holds one reference for as long
+ * as the file is current and each reader holds one until it is done. A mapping is
+ * retired when the file is overwritten or deleted and unmapped once its last reader
+ * lets go, never earlier, so no reader can touch unmapped memory.
+ */
+class MappedFiles {
+
+  /**
+   * A {@link MappedByteBuffer} is limited to 2GB, so larger files are mapped in
+   * segments of this size.
+   */
+  static final long SEGMENT_SIZE = 1L << 30;
+
+  private static final Log logger = LogFactory.getLog(MappedFiles.class);
+
+  private static final Unmapper UNMAPPER = Unmapper.create();
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Map<String, Mapping> mappings = new HashMap<>();
+
+  /**
+   * Return the mapping of {@code path}, the current content of {@code file}, creating it
+   * if needed. The caller must {@link Mapping#release() release} it when done.
+   */
+  Mapping acquire(StoredFile file, Path path) throws IOException {
+    this.lock.lock();
+    try {
+      Mapping mapping = this.mappings.get(file.filename());
+      if (mapping != null && mapping.digest.equals(file.digest())) {
+        mapping.retain();
+        return mapping;
+      }
+      if (mapping != null) {
+        this.mappings.remove(file.filename()).release();
+      }
+      mapping = map(file, path);
+      this.mappings.put(file.filename(), mapping);
+      mapping.retain();
+      return mapping;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Retire the mapping of {@code filename}, if any.
+   */
+  void invalidate(String filename) {
+    Mapping mapping;
+    this.lock.lock();
+    try {
+      mapping = this.mappings.remove(filename);
+    }
+    finally {
+      this.lock.unlock();
+    }
+    if (mapping != null) {
+      mapping.release();
+    }
+  }
+
+  void clear() {
+    Map<String, Mapping> retired;
+    this.lock.lock();
+    try {
+      retired = new HashMap<>(this.mappings);
+      this.mappings.clear();
+    }
+    finally {
+      this.lock.unlock();
+    }
+    retired.values().forEach(Mapping::release);
+  }
+
+  int count() {
+    this.lock.lock();
+    try {
+      return this.mappings.size();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  long size() {
+    this.lock.lock();
+    try {
+      return this.mappings.values().stream().mapToLong(mapping -> mapping.size).sum();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  private static Mapping map(StoredFile file, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        long position = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(SEGMENT_SIZE, size - position));
+      }
+      return new Mapping(file.digest(), size, segments);
+    }
+  }
+
+  /**
+   * One mapped file. Its segments must not be used after {@link #release()}.
+   */
+  static final class Mapping {
+
+    private final String digest;
+
+    private final long size;
+
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Starts with the reference held by the pool.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Mapping(String digest, long size, MappedByteBuffer[] segments) {
+      this.digest = digest;
+      this.size = size;
+      this.segments = segments;
+    }
+
+    long size() {
+      return this.size;
+    }
+
+    /**
+     * Return read-only views of the bytes from {@code position} to
+     * {@code position + count}, one per segment they span.
+     */
+    ByteBuffer[] slices(long position, long count) {
+      if (count == 0) {
+        return new ByteBuffer[0];
+      }
+      int first = (int) (position / SEGMENT_SIZE);
+      int last = (int) ((position + count - 1) / SEGMENT_SIZE);
+      ByteBuffer[] slices = new ByteBuffer[last - first + 1];
+      for (int i = first; i <= last; i++) {
+        long segmentStart = i * SEGMENT_SIZE;
+        int from = (int) Math.max(0, position - segmentStart);
+        int to = (int) Math.min(this.segments[i].capacity(), position + count - segmentStart);
+        slices[i - first] = this.segments[i].asReadOnlyBuffer().slice(from, to - from);
+      }
+      return slices;
+    }
+
+    private void retain() {
+      this.references.incrementAndGet();
+    }
+
+    /**
+     * Take another reference unless the mapping is already gone.
+     */
+    boolean tryRetain() {
+      int references;
+      do {
+        references = this.references.get();
+        if (references == 0) {
+          return false;
+        }
+      }
+      while (!this.references.compareAndSet(references, references + 1));
+      return true;
+    }
+
+    void release() {
+      if (this.references.decrementAndGet() == 0) {
+        for (MappedByteBuffer segment : this.segments) {
+          UNMAPPER.unmap(segment);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Unmaps buffers eagerly through the JDK's cleaner where it is accessible; otherwise
+   * they are unmapped when garbage collected.
+   */
+  private record Unmapper(Object unsafe, Method invokeCleaner) {
+
+    static Unmapper create() {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field field = unsafeClass.getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        return new Unmapper(field.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+      }
+      catch (ReflectiveOperationException | RuntimeException e) {
+        logger.debug("Mapped files will be unmapped by the garbage collector", e);
+        return new Unmapper(null, null);
+      }
+    }
+
+    void unmap(ByteBuffer buffer) {
+      if (this.invokeCleaner == null) {
+        return;
+      }
+      try {
+        this.invokeCleaner.invoke(this.unsafe, buffer);
+      }
+      catch (ReflectiveOperationException e) {
+        logger.debug("Failed to unmap buffer", e);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,143 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * A stored file served from a memory mapping shared with other readers. Call
+ * {@link #close()} when done so the mapping can be unmapped once the file is replaced;
+ * a resource that is never closed only defers that to the garbage collector.
+ */
+public class MappedResource extends AbstractResource implements AutoCloseable {
+
+  private final StoredFile file;
+
+  private final MappedFiles.Mapping mapping;
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  MappedResource(StoredFile file, MappedFiles.Mapping mapping) {
+    this.file = file;
+    this.mapping = mapping;
+  }
+
+  /**
+   * Write {@code count} bytes starting at {@code position} straight from the mapping.
+   */
+  public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+    checkOpen();
+    for (ByteBuffer slice : this.mapping.slices(position, count)) {
+      while (slice.hasRemaining()) {
+        target.write(slice);
+      }
+    }
+  }
+
+  @Override
+  public boolean exists() {
+    return true;
+  }
+
+  @Override
+  public String getFilename() {
+    return this.file.filename();
+  }
+
+  @Override
+  public long contentLength() {
+    return this.mapping.size();
+  }
+
+  @Override
+  public long lastModified() {
+    return this.file.lastModified().toEpochMilli();
+  }
+
+  /**
+   * Return a stream over the mapping that holds its own reference to it until closed.
+   */
+  @Override
+  public InputStream getInputStream() throws IOException {
+    checkOpen();
+    if (!this.mapping.tryRetain()) {
+      throw new IOException("Mapped file was unmapped");
+    }
+    return new MappedInputStream(this.mapping);
+  }
+
+  @Override
+  public String getDescription() {
+    return "mapped file [" + this.file.filename() + "]";
+  }
+
+  @Override
+  public void close() {
+    if (this.closed.compareAndSet(false, true)) {
+      this.mapping.release();
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (this.closed.get()) {
+      throw new IOException("Mapped resource is closed");
+    }
+  }
+
+  private static class MappedInputStream extends InputStream {
+
+    private final MappedFiles.Mapping mapping;
+
+    private final ByteBuffer[] slices;
+
+    private int current;
+
+    private boolean closed;
+
+    MappedInputStream(MappedFiles.Mapping mapping) {
+      this.mapping = mapping;
+      this.slices = mapping.slices(0, mapping.size());
+    }
+
+    @Override
+    public int read() throws IOException {
+      ByteBuffer slice = slice();
+      return (slice != null ? slice.get() & 0xFF : -1);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      ByteBuffer slice = slice();
+      if (slice == null) {
+        return -1;
+      }
+      int count = Math.min(len, slice.remaining());
+      slice.get(b, off, count);
+      return count;
+    }
+
+    private ByteBuffer slice() throws IOException {
+      if (this.closed) {
+        throw new IOException("Stream closed");
+      }
+      while (this.current < this.slices.length && !this.slices[this.current].hasRemaining()) {
+        this.current++;
+      }
+      return (this.current < this.slices.length ? this.slices[this.current] : null);
+    }
+
+    @Override
+    public void close() {
+      if (!this.closed) {
+        this.closed = true;
+        this.mapping.release();
+      }
+    }
+
+  }
+
+}
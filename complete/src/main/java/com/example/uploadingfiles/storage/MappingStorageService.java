@@ -0,0 +1,115 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * {@link StorageService} decorator that returns files of at least
+ * {@code storage.map-threshold} bytes as {@link MappedResource}s backed by one mapping
+ * per file, shared by all concurrent readers. Stores, {@link #deleteAll()} and
+ * {@link FileDeletedEvent}s retire the affected mappings; a mapping of content that was
+ * replaced some other way is retired as soon as a reader sees the new digest. The number and total size of live
+ * mappings are published as {@code storage.mapped.files} and {@code storage.mapped.bytes}.
+ */
+public class MappingStorageService extends DelegatingStorageService {
+
+  private static final Log logger = LogFactory.getLog(MappingStorageService.class);
+
+  private final long threshold;
+
+  private final MappedFiles mappings = new MappedFiles();
+
+  /**
+   * @param registry where to publish meters, or {@code null} for none
+   */
+  public MappingStorageService(StorageService delegate, StorageProperties properties,
+      MeterRegistry registry) {
+
+    super(delegate);
+    this.threshold = properties.getMapThreshold().toBytes();
+    if (registry != null) {
+      Gauge.builder("storage.mapped.files", this.mappings, MappedFiles::count).register(registry);
+      Gauge.builder("storage.mapped.bytes", this.mappings, MappedFiles::size).baseUnit("bytes")
+          .register(registry);
+    }
+  }
+
+  @Override
+  public void store(MultipartFile file) {
+    try {
+      getDelegate().store(file);
+    }
+    finally {
+      this.mappings.invalidate(file.getOriginalFilename());
+    }
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    try {
+      getDelegate().store(filename, inputStream);
+    }
+    finally {
+      this.mappings.invalidate(filename);
+    }
+  }
+
+  @Override
+  public void store(String filename, Path file) {
+    store(filename, file, null);
+  }
+
+  @Override
+  public void store(String filename, Path file, String digest) {
+    try {
+      getDelegate().store(filename, file, digest);
+    }
+    finally {
+      this.mappings.invalidate(filename);
+    }
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    Resource resource = getDelegate().loadAsResource(filename);
+    StoredFile file = getDelegate().describe(filename);
+    if (file.size() < this.threshold || file.digest() == null || !resource.isFile()) {
+      return resource;
+    }
+    try {
+      return new MappedResource(file, this.mappings.acquire(file, resource.getFile().toPath()));
+    }
+    catch (IOException e) {
+      logger.debug("Failed to map " + filename + ", serving it from the file", e);
+      return resource;
+    }
+  }
+
+  /**
+   * Retire the mapping of a file that went away, such as when it was evicted. This
+   * decorator is not a bean, so {@link StorageServiceConfiguration} hands it the events.
+   */
+  public void deleted(FileDeletedEvent event) {
+    this.mappings.invalidate(event.filename());
+  }
+
+  @Override
+  public void deleteAll() {
+    try {
+      getDelegate().deleteAll();
+    }
+    finally {
+      this.mappings.clear();
+    }
+  }
+
+}
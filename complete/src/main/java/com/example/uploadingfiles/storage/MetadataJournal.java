@@ -0,0 +1,269 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only log of the entries {@link FileMetadataStore} writes, replayed when it
+ * starts. Every record holds a whole entry, or marks a file deleted, so the last record
+ * of a file wins, and is framed with its length and CRC32C so that a record torn by a
+ * crash is found and cut off. {@link #rewrite} replaces the log with just the live
+ * entries.
+ */
+class MetadataJournal implements Closeable {
+
+  private static final Log logger = LogFactory.getLog(MetadataJournal.class);
+
+  private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * First byte of a record marking a file deleted. Records of entries start with the
+   * length of the filename, whose first byte is 0 as records are smaller than 16MB.
+   */
+  private static final byte DELETED = 'D';
+
+  private final Path path;
+
+  private final boolean fsync;
+
+  private FileChannel channel;
+
+  private long records;
+
+  MetadataJournal(Path path, boolean fsync) {
+    this.path = path;
+    this.fsync = fsync;
+  }
+
+  /**
+   * Read every record in the log, in the order they were written, then open it for
+   * appending.
+   * @param replay called with each entry
+   * @param deleted called with the name of each file marked deleted
+   */
+  synchronized void open(Consumer<FileMetadataStore.Entry> replay, Consumer<String> deleted) throws IOException {
+    Files.createDirectories(this.path.toAbsolutePath().getParent());
+    long valid = 0;
+    this.records = 0;
+    if (Files.exists(this.path)) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.path)))) {
+        for (byte[] payload = read(in); payload != null; payload = read(in)) {
+          DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+          if (payload.length > 0 && payload[0] == DELETED) {
+            record.readByte();
+            deleted.accept(readString(record));
+          }
+          else {
+            replay.accept(decode(record));
+          }
+          valid += 8 + payload.length;
+          this.records++;
+        }
+      }
+    }
+    this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (this.channel.size() > valid) {
+      logger.warn("Discarding " + (this.channel.size() - valid) + " damaged bytes at the end of " + this.path);
+      this.channel.truncate(valid);
+    }
+    this.channel.position(valid);
+  }
+
+  /**
+   * Read the payload of the next record, or return {@code null} at the end of the log
+   * or of its intact part.
+   */
+  private static byte[] read(DataInputStream in) throws IOException {
+    try {
+      int length = in.readInt();
+      int checksum = in.readInt();
+      if (length < 0 || length > MAX_RECORD_SIZE) {
+        return null;
+      }
+      byte[] payload = in.readNBytes(length);
+      CRC32C crc = new CRC32C();
+      crc.update(payload);
+      return (payload.length == length && (int) crc.getValue() == checksum ? payload : null);
+    }
+    catch (EOFException e) {
+      return null;
+    }
+  }
+
+  synchronized void append(FileMetadataStore.Entry entry) throws IOException {
+    write(this.channel, entry);
+    if (this.fsync) {
+      this.channel.force(false);
+    }
+    this.records++;
+  }
+
+  /**
+   * Mark the file called {@code filename} deleted.
+   */
+  synchronized void delete(String filename) throws IOException {
+    write(this.channel, out -> {
+      out.writeByte(DELETED);
+      writeString(out, filename);
+    });
+    if (this.fsync) {
+      this.channel.force(false);
+    }
+    this.records++;
+  }
+
+  /**
+   * Forget every entry.
+   */
+  synchronized void clear() throws IOException {
+    this.channel.truncate(0);
+    this.channel.position(0);
+    if (this.fsync) {
+      this.channel.force(false);
+    }
+    this.records = 0;
+  }
+
+  /**
+   * Return how many records the log holds, superseded ones included.
+   */
+  synchronized long records() {
+    return this.records;
+  }
+
+  /**
+   * Replace the log with one holding only {@code entries}.
+   */
+  synchronized void rewrite(Collection<FileMetadataStore.Entry> entries) throws IOException {
+    Path rewritten = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(rewritten, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for (FileMetadataStore.Entry entry : entries) {
+        write(out, entry);
+      }
+      if (this.fsync) {
+        out.force(false);
+      }
+    }
+    this.channel.close();
+    Files.move(rewritten, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.channel = FileChannel.open(this.path, StandardOpenOption.WRITE);
+    this.channel.position(this.channel.size());
+    this.records = entries.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.channel != null) {
+      this.channel.close();
+    }
+  }
+
+  private static void write(FileChannel channel, FileMetadataStore.Entry entry) throws IOException {
+    write(channel, out -> encode(entry, out));
+  }
+
+  private static void write(FileChannel channel, Payload payload) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeInt(0);
+    payload.writeTo(out);
+    ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+    CRC32C crc = new CRC32C();
+    crc.update(record.array(), 8, record.capacity() - 8);
+    record.putInt(0, record.capacity() - 8).putInt(4, (int) crc.getValue());
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+  }
+
+  private static void encode(FileMetadataStore.Entry entry, DataOutputStream out) throws IOException {
+    StoredFile file = entry.file();
+    writeString(out, file.filename());
+    out.writeLong(file.size());
+    out.writeLong(file.lastModified().getEpochSecond());
+    out.writeInt(file.lastModified().getNano());
+    writeString(out, file.contentType());
+    writeString(out, file.digest());
+    writeString(out, entry.uploader());
+    out.writeInt(entry.results().size());
+    for (Map.Entry<String, Map<String, String>> result : entry.results().entrySet()) {
+      writeString(out, result.getKey());
+      out.writeInt(result.getValue().size());
+      for (Map.Entry<String, String> attribute : result.getValue().entrySet()) {
+        writeString(out, attribute.getKey());
+        writeString(out, attribute.getValue());
+      }
+    }
+  }
+
+  private static FileMetadataStore.Entry decode(DataInputStream in) throws IOException {
+    StoredFile file = new StoredFile(readString(in), in.readLong(),
+        Instant.ofEpochSecond(in.readLong(), in.readInt()), readString(in), readString(in));
+    String uploader = readString(in);
+    Map<String, Map<String, String>> results = new TreeMap<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      String processor = readString(in);
+      Map<String, String> attributes = new LinkedHashMap<>();
+      for (int j = in.readInt(); j > 0; j--) {
+        attributes.put(readString(in), readString(in));
+      }
+      results.put(processor, Map.copyOf(attributes));
+    }
+    return new FileMetadataStore.Entry(file, uploader, results);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = in.readNBytes(length);
+    if (bytes.length != length) {
+      throw new EOFException();
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  private interface Payload {
+
+    void writeTo(DataOutputStream out) throws IOException;
+
+  }
+
+}
@@ -0,0 +1,460 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * {@link StorageService} keeping files in a bucket of an S3-compatible object store, so
+ * that any number of nodes can serve the same files. Each file is an object below
+ * {@code files/}, with its SHA-256 digest in a small object of the same name below
+ * {@code digests/}. Large files travel in parts of {@code storage.s3-part-size}, several
+ * at a time: uploads are split into a multipart upload while they are read, and
+ * downloads read ahead with ranged requests. Either way only a few parts are ever held
+ * in memory.
+ */
+@Service
+@ConditionalOnBackend(StorageProperties.Backend.OBJECT_STORE)
+public class ObjectStoreStorageService implements StorageService {
+
+  static final String FILES = "files/";
+
+  static final String DIGESTS = "digests/";
+
+  private static final int LIST_PAGE_SIZE = 1000;
+
+  private final S3Client client;
+
+  private final int partSize;
+
+  private final int parallelism;
+
+  @Autowired
+  public ObjectStoreStorageService(StorageProperties properties) {
+    if (properties.getS3Endpoint().trim().length() == 0) {
+      throw new StorageException("Object store endpoint can not be Empty.");
+    }
+    this.client = new S3Client(URI.create(properties.getS3Endpoint()), properties.getS3Bucket(),
+        new AwsV4Signer(properties.getS3AccessKey(), properties.getS3SecretKey(), properties.getS3Region(), "s3"),
+        HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+    this.partSize = (int) Math.min(properties.getS3PartSize().toBytes(), Integer.MAX_VALUE - 8);
+    this.parallelism = Math.max(1, properties.getS3Parallelism());
+  }
+
+  @Override
+  public void init() {
+    try {
+      this.client.createBucketIfMissing();
+    }
+    catch (IOException e) {
+      throw new StorageException("Could not initialize storage", e);
+    }
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    filename = validate(filename);
+    String key = FILES + filename;
+    MessageDigest messageDigest = ContentDigests.newMessageDigest();
+    InputStream in = new DigestInputStream(inputStream, messageDigest);
+    try {
+      byte[] first = in.readNBytes(this.partSize);
+      String etag = (first.length < this.partSize
+          ? this.client.putObject(key, first, 0, first.length) : storeInParts(key, first, in));
+      byte[] digest = (ContentDigests.hex(messageDigest) + " " + etag).getBytes(StandardCharsets.US_ASCII);
+      this.client.putObject(DIGESTS + filename, digest, 0, digest.length);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+  }
+
+  /**
+   * Upload a file as a multipart upload, reading the next part while up to
+   * {@code parallelism} earlier ones are being sent.
+   */
+  private String storeInParts(String key, byte[] first, InputStream in) throws IOException {
+    String uploadId = this.client.createMultipartUpload(key);
+    List<CompletableFuture<String>> parts = new ArrayList<>();
+    Semaphore sending = new Semaphore(this.parallelism);
+    try {
+      byte[] part = first;
+      while (part.length > 0 && parts.stream().noneMatch(CompletableFuture::isCompletedExceptionally)) {
+        sending.acquire();
+        parts.add(this.client.uploadPart(key, uploadId, parts.size() + 1, part, 0, part.length)
+            .whenComplete((etag, failure) -> sending.release()));
+        part = (part.length == this.partSize ? in.readNBytes(this.partSize) : new byte[0]);
+      }
+      List<String> etags = new ArrayList<>();
+      for (CompletableFuture<String> etag : parts) {
+        etags.add(join(etag));
+      }
+      return this.client.completeMultipartUpload(key, uploadId, etags);
+    }
+    catch (IOException | RuntimeException | InterruptedException e) {
+      parts.forEach(part -> part.cancel(true));
+      try {
+        this.client.abortMultipartUpload(key, uploadId);
+      }
+      catch (IOException abortFailure) {
+        e.addSuppressed(abortFailure);
+      }
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while uploading " + key);
+      }
+      if (e instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw (RuntimeException) e;
+    }
+  }
+
+  /**
+   * Lists lazily, fetching a page of keys at a time.
+   */
+  @Override
+  public Stream<Path> loadAll() {
+    return Stream.iterate(listFiles(null, null, LIST_PAGE_SIZE), Objects::nonNull,
+        page -> (page.nextContinuationToken() != null
+            ? listFiles(page.nextContinuationToken(), null, LIST_PAGE_SIZE) : null))
+        .flatMap(page -> page.objects().stream())
+        .map(object -> Paths.get(object.key().substring(FILES.length())));
+  }
+
+  /**
+   * Pages by name come straight from the object store's listing. The store cannot list
+   * by modification time, so pages in that order cost a listing of every file.
+   */
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    if (limit < 1) {
+      throw new InvalidPageRequestException("Page limit must be positive");
+    }
+    if (sort == FileSort.LAST_MODIFIED) {
+      FileIndex index = new FileIndex();
+      S3Client.ObjectListing page = listFiles(null, null, LIST_PAGE_SIZE);
+      while (true) {
+        page.objects().forEach(object -> index.put(describe(object)));
+        if (page.nextContinuationToken() == null) {
+          return index.page(limit, cursor, sort);
+        }
+        page = listFiles(page.nextContinuationToken(), null, LIST_PAGE_SIZE);
+      }
+    }
+    String startAfter = (cursor != null ? FILES + decodeCursor(cursor) : null);
+    S3Client.ObjectListing page = listFiles(null, startAfter, limit);
+    List<StoredFile> files = page.objects().stream().map(ObjectStoreStorageService::describe).toList();
+    String nextCursor = (page.nextContinuationToken() != null && !files.isEmpty()
+        ? encodeCursor(files.get(files.size() - 1).filename()) : null);
+    return new FilePage(files, nextCursor);
+  }
+
+  /**
+   * Objects have no local path; this is just the file's name as a relative path.
+   */
+  @Override
+  public Path load(String filename) {
+    return Paths.get(filename);
+  }
+
+  @Override
+  public StoredFile describe(String filename) {
+    try {
+      S3Client.ObjectInfo object = this.client.headObject(FILES + filename);
+      if (object == null) {
+        throw new StorageFileNotFoundException("Could not read file: " + filename);
+      }
+      StoredFile file = describe(object);
+      byte[] sidecar = this.client.getObject(DIGESTS + filename);
+      String[] fields = (sidecar != null ? new String(sidecar, StandardCharsets.US_ASCII).trim().split(" ", 2)
+          : new String[0]);
+      if (fields.length == 2 && fields[1].equals(object.etag())) {
+        return file.withDigest(fields[0]);
+      }
+      // Written by something else, or overwritten since its digest was recorded
+      MessageDigest messageDigest = ContentDigests.newMessageDigest();
+      try (InputStream in = new RangedInputStream(object)) {
+        byte[] buffer = new byte[64 * 1024];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+          messageDigest.update(buffer, 0, read);
+        }
+      }
+      String digest = ContentDigests.hex(messageDigest);
+      byte[] content = (digest + " " + object.etag()).getBytes(StandardCharsets.US_ASCII);
+      this.client.putObject(DIGESTS + filename, content, 0, content.length);
+      return file.withDigest(digest);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to describe file " + filename, e);
+    }
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    try {
+      S3Client.ObjectInfo object = this.client.headObject(FILES + filename);
+      if (object == null) {
+        throw new StorageFileNotFoundException("Could not read file: " + filename);
+      }
+      return new ObjectResource(object);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to read file " + filename, e);
+    }
+  }
+
+  /**
+   * Deletes every object, {@code parallelism} requests at a time.
+   */
+  @Override
+  public void deleteAll() {
+    Semaphore deleting = new Semaphore(this.parallelism);
+    List<CompletableFuture<Void>> deletions = new ArrayList<>();
+    try {
+      for (String prefix : List.of(FILES, DIGESTS)) {
+        String token = null;
+        do {
+          S3Client.ObjectListing page = this.client.listObjects(prefix, token, null, LIST_PAGE_SIZE);
+          for (S3Client.ObjectInfo object : page.objects()) {
+            deleting.acquire();
+            deletions.add(this.client.deleteObject(object.key())
+                .whenComplete((result, failure) -> deleting.release()));
+          }
+          token = page.nextContinuationToken();
+        }
+        while (token != null);
+      }
+      deletions.forEach(ObjectStoreStorageService::join);
+    }
+    catch (IOException | UncheckedIOException e) {
+      throw new StorageException("Failed to delete stored files", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("Interrupted while deleting stored files", e);
+    }
+  }
+
+  private S3Client.ObjectListing listFiles(String continuationToken, String startAfter, int limit) {
+    try {
+      return this.client.listObjects(FILES, continuationToken, startAfter, Math.min(limit, LIST_PAGE_SIZE));
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to list stored files", e);
+    }
+  }
+
+  private static StoredFile describe(S3Client.ObjectInfo object) {
+    String filename = object.key().substring(FILES.length());
+    String contentType = MediaTypeFactory.getMediaType(filename)
+        .orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+    return new StoredFile(filename, object.size(), object.lastModified(), contentType);
+  }
+
+  private static String validate(String filename) {
+    Path path = Paths.get(filename).normalize();
+    if (path.getParent() != null || path.getFileName() == null || filename.isBlank()
+        || path.toString().equals("..")) {
+      // This is a security check
+      throw new StorageException("Cannot store file outside current directory.");
+    }
+    return path.toString();
+  }
+
+  private static String encodeCursor(String filename) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(filename.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String decodeCursor(String cursor) {
+    try {
+      return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+    catch (IllegalArgumentException e) {
+      throw new InvalidPageRequestException("Invalid listing cursor: " + cursor, e);
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * An object read with parallel ranged requests.
+   */
+  private class ObjectResource extends AbstractResource {
+
+    private final S3Client.ObjectInfo object;
+
+    ObjectResource(S3Client.ObjectInfo object) {
+      this.object = object;
+    }
+
+    @Override
+    public String getDescription() {
+      return "object [" + this.object.key() + "]";
+    }
+
+    @Override
+    public String getFilename() {
+      return this.object.key().substring(FILES.length());
+    }
+
+    @Override
+    public boolean exists() {
+      return true;
+    }
+
+    @Override
+    public long contentLength() {
+      return this.object.size();
+    }
+
+    @Override
+    public long lastModified() {
+      return this.object.lastModified().toEpochMilli();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new RangedInputStream(this.object);
+    }
+
+  }
+
+  /**
+   * Reads an object in parts, keeping up to {@code parallelism} ranged requests ahead
+   * of the reader. Every request is conditional on the object's entity tag, so a file
+   * replaced halfway through fails the read instead of mixing two contents. Skipping
+   * does not fetch what is skipped.
+   */
+  private class RangedInputStream extends InputStream {
+
+    private final S3Client.ObjectInfo object;
+
+    private final Deque<CompletableFuture<byte[]>> ahead = new ArrayDeque<>();
+
+    /**
+     * Offset of the next range to request.
+     */
+    private long next;
+
+    /**
+     * Offset of the next byte to return.
+     */
+    private long position;
+
+    private byte[] current = new byte[0];
+
+    private int index;
+
+    RangedInputStream(S3Client.ObjectInfo object) {
+      this.object = object;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return (read(single, 0, 1) == -1 ? -1 : single[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (this.index == this.current.length) {
+        fill();
+        if (this.ahead.isEmpty()) {
+          return -1;
+        }
+        try {
+          this.current = this.ahead.poll().join();
+        }
+        catch (CompletionException e) {
+          throw (e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause()
+              : new IOException("Failed to read " + this.object.key(), e.getCause()));
+        }
+        this.index = 0;
+      }
+      int count = Math.min(len, this.current.length - this.index);
+      System.arraycopy(this.current, this.index, b, off, count);
+      this.index += count;
+      this.position += count;
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      if (n <= 0) {
+        return 0;
+      }
+      if (n <= this.current.length - this.index) {
+        this.index += (int) n;
+        this.position += n;
+        return n;
+      }
+      long target = Math.min(this.position + n, this.object.size());
+      long skipped = target - this.position;
+      cancel();
+      this.current = new byte[0];
+      this.index = 0;
+      this.next = target;
+      this.position = target;
+      return skipped;
+    }
+
+    @Override
+    public void close() {
+      cancel();
+    }
+
+    private void fill() {
+      while (this.ahead.size() < parallelism && this.next < this.object.size()) {
+        long end = Math.min(this.next + partSize, this.object.size());
+        this.ahead.add(client.getRange(this.object.key(), this.next, end - 1, this.object.etag()));
+        this.next = end;
+      }
+    }
+
+    private void cancel() {
+      this.ahead.forEach(range -> range.cancel(true));
+      this.ahead.clear();
+    }
+
+  }
+
+}
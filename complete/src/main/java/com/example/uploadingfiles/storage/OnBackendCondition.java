@@ -0,0 +1,30 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionMessage;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * {@link ConditionalOnBackend} binding {@code storage.backend} the way
+ * {@link StorageProperties} does.
+ */
+class OnBackendCondition extends SpringBootCondition {
+
+  @Override
+  public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+    Map<String, Object> attributes = metadata.getAnnotationAttributes(ConditionalOnBackend.class.getName());
+    StorageProperties.Backend required = (StorageProperties.Backend) attributes.get("value");
+    StorageProperties.Backend backend = Binder.get(context.getEnvironment())
+        .bind("storage.backend", StorageProperties.Backend.class)
+        .orElse(StorageProperties.Backend.FILESYSTEM);
+    ConditionMessage.Builder message = ConditionMessage.forCondition(ConditionalOnBackend.class, required);
+    return (backend == required ? ConditionOutcome.match(message.foundExactly(backend))
+        : ConditionOutcome.noMatch(message.found("storage.backend").items(backend)));
+  }
+
+}
@@ -0,0 +1,198 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Calls the {@code /cluster} endpoints other nodes of a {@link ClusteredStorageService}
+ * serve their local files on.
+ */
+class PeerClient {
+
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  private final HttpClient http = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+
+  private final String secret;
+
+  PeerClient(String secret) {
+    this.secret = secret;
+  }
+
+  /**
+   * Send a copy of a file to {@code node} without waiting for it.
+   * @param digest the digest of the file's content, checked by the receiving node, or
+   * {@code null} to have it computed there
+   */
+  CompletableFuture<Void> put(String node, String filename, Path file, Instant lastModified, String digest) {
+    HttpRequest.Builder request;
+    try {
+      request = request(node, "/files/" + encode(filename))
+          .PUT(HttpRequest.BodyPublishers.ofFile(file))
+          .header(ClusteredStorageService.LAST_MODIFIED_HEADER, lastModified.toString());
+    }
+    catch (FileNotFoundException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    if (digest != null) {
+      request.header(ClusteredStorageService.DIGEST_HEADER, digest);
+    }
+    return this.http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+        .thenAccept(response -> {
+          try {
+            check(response, "store " + filename + " on " + node);
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * Describe a file of {@code node}, or return {@code null} if it has no such file.
+   */
+  StoredFile describe(String node, String filename) throws IOException {
+    HttpResponse<String> response = send(request(node, "/files/" + encode(filename))
+        .method("HEAD", HttpRequest.BodyPublishers.noBody()).timeout(REQUEST_TIMEOUT).build(),
+        HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() == 404) {
+      return null;
+    }
+    check(response, "describe " + filename + " on " + node);
+    String lastModified = response.headers().firstValue(ClusteredStorageService.LAST_MODIFIED_HEADER)
+        .orElseThrow(() -> new IOException(node + " did not say when " + filename + " was modified"));
+    return new StoredFile(filename, response.headers().firstValueAsLong("Content-Length").orElse(0),
+        Instant.parse(lastModified),
+        response.headers().firstValue("Content-Type").orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE),
+        response.headers().firstValue(ClusteredStorageService.DIGEST_HEADER).orElse(null));
+  }
+
+  /**
+   * Open a file of {@code node}, or return {@code null} if it has no such file.
+   */
+  InputStream get(String node, String filename) throws IOException {
+    HttpResponse<InputStream> response = send(request(node, "/files/" + encode(filename)).GET().build(),
+        HttpResponse.BodyHandlers.ofInputStream());
+    if (response.statusCode() >= 300) {
+      response.body().close();
+      if (response.statusCode() == 404) {
+        return null;
+      }
+      throw new IOException("Failed to read " + filename + " on " + node + ": HTTP " + response.statusCode());
+    }
+    return response.body();
+  }
+
+  /**
+   * Read a page of the files stored on {@code node}.
+   */
+  FilePage list(String node, int limit, String cursor, FileSort sort) throws IOException {
+    String query = "?limit=" + limit + "&sort=" + sort + (cursor != null ? "&cursor=" + encode(cursor) : "");
+    HttpResponse<String> response = check(send(request(node, "/files" + query).GET().timeout(REQUEST_TIMEOUT)
+        .build(), HttpResponse.BodyHandlers.ofString()), "list files on " + node);
+    return new FilePage(parse(response.body()),
+        response.headers().firstValue(ClusteredStorageService.NEXT_CURSOR_HEADER).orElse(null));
+  }
+
+  /**
+   * Delete every file stored on {@code node}.
+   */
+  void deleteAll(String node) throws IOException {
+    check(send(request(node, "/files").DELETE().timeout(REQUEST_TIMEOUT).build(),
+        HttpResponse.BodyHandlers.ofString()), "delete files on " + node);
+  }
+
+  /**
+   * Tell {@code node} that {@code self} is part of the cluster.
+   */
+  void join(String node, String self) throws IOException {
+    check(send(request(node, "/nodes?node=" + encode(self)).POST(HttpRequest.BodyPublishers.noBody())
+        .timeout(REQUEST_TIMEOUT).build(), HttpResponse.BodyHandlers.ofString()), "join " + node);
+  }
+
+  /**
+   * Write files one per line, as tab-separated fields.
+   */
+  static String format(List<StoredFile> files) {
+    StringBuilder text = new StringBuilder();
+    for (StoredFile file : files) {
+      text.append(encode(file.filename())).append('\t').append(file.size()).append('\t')
+          .append(file.lastModified()).append('\t').append(encode(file.contentType())).append('\t')
+          .append(file.digest() != null ? file.digest() : "-").append('\n');
+    }
+    return text.toString();
+  }
+
+  static List<StoredFile> parse(String text) throws IOException {
+    List<StoredFile> files = new ArrayList<>();
+    for (String line : text.split("\n")) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] fields = line.split("\t");
+      if (fields.length != 5) {
+        throw new IOException("Unreadable file listing: " + line);
+      }
+      files.add(new StoredFile(decode(fields[0]), Long.parseLong(fields[1]), Instant.parse(fields[2]),
+          decode(fields[3]), fields[4].equals("-") ? null : fields[4]));
+    }
+    return files;
+  }
+
+  private HttpRequest.Builder request(String node, String path) {
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + "/cluster" + path));
+    if (!this.secret.isEmpty()) {
+      request.header(ClusteredStorageService.SECRET_HEADER, this.secret);
+    }
+    return request;
+  }
+
+  private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+      throws IOException {
+
+    try {
+      return this.http.send(request, bodyHandler);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during " + request.method() + " " + request.uri());
+    }
+  }
+
+  private static HttpResponse<String> check(HttpResponse<String> response, String action) throws IOException {
+    if (response.statusCode() >= 300) {
+      throw new IOException("Failed to " + action + ": HTTP " + response.statusCode()
+          + (response.body() != null && !response.body().isEmpty() ? " " + response.body() : ""));
+    }
+    return response;
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,188 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs every stored file through the {@link FileProcessor} beans, in order, after the
+ * upload has completed. Each processor is a stage with its own bounded queue and
+ * workers, so a slow stage only holds up the files behind it. When a stage's queue is
+ * full, whoever hands it work waits, which ultimately slows uploads down to the rate the
+ * pipeline can sustain instead of queueing without bound.
+ */
+@Component
+public class ProcessingPipeline {
+
+  private static final Log logger = LogFactory.getLog(ProcessingPipeline.class);
+
+  private final StorageService storageService;
+
+  private final FileMetadataStore metadataStore;
+
+  private final List<Stage> stages;
+
+  @Autowired
+  public ProcessingPipeline(StorageService storageService, FileMetadataStore metadataStore,
+      ObjectProvider<FileProcessor> processors, StorageProperties properties,
+      ObjectProvider<MeterRegistry> meterRegistry) {
+
+    this.storageService = storageService;
+    this.metadataStore = metadataStore;
+    List<FileProcessor> ordered = processors.orderedStream().toList();
+    MeterRegistry registry = meterRegistry.getIfAvailable();
+    this.stages = ordered.stream()
+        .map(processor -> new Stage(processor, properties.getPipelineQueueCapacity(), registry))
+        .toList();
+    for (int i = 0; i < this.stages.size(); i++) {
+      this.stages.get(i).start(i + 1 < this.stages.size() ? this.stages.get(i + 1) : null,
+          properties.getPipelineWorkers());
+    }
+  }
+
+  @EventListener
+  public void onFileStored(FileStoredEvent event) {
+    if (!this.stages.isEmpty()) {
+      this.stages.get(0).submit(event.file());
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    this.stages.forEach(Stage::close);
+  }
+
+  private class Stage {
+
+    private final FileProcessor processor;
+
+    private final BlockingQueue<StoredFile> queue;
+
+    private final Timer.Builder timer;
+
+    private final MeterRegistry registry;
+
+    private final CustomizableThreadFactory threadFactory;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private Stage next;
+
+    Stage(FileProcessor processor, int queueCapacity, MeterRegistry registry) {
+      this.processor = processor;
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+      this.registry = registry;
+      this.timer = Timer.builder("storage.pipeline.process")
+          .description("Time to process stored files")
+          .tag("stage", processor.name());
+      if (registry != null) {
+        Gauge.builder("storage.pipeline.queued", this.queue, BlockingQueue::size)
+            .description("Stored files waiting to be processed")
+            .tag("stage", processor.name())
+            .register(registry);
+      }
+      this.threadFactory = new CustomizableThreadFactory("storage-" + processor.name() + "-");
+      this.threadFactory.setDaemon(true);
+    }
+
+    void start(Stage next, int workers) {
+      this.next = next;
+      for (int i = 0; i < workers; i++) {
+        Thread worker = this.threadFactory.newThread(this::work);
+        this.workers.add(worker);
+        worker.start();
+      }
+    }
+
+    /**
+     * Queue {@code file}, waiting for room if the stage is behind.
+     */
+    void submit(StoredFile file) {
+      try {
+        this.queue.put(file);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.debug("Not processing " + file.filename() + " after interrupt");
+      }
+    }
+
+    void close() {
+      this.workers.forEach(Thread::interrupt);
+    }
+
+    private void work() {
+      while (!Thread.currentThread().isInterrupted()) {
+        StoredFile file;
+        try {
+          file = this.queue.take();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        process(file);
+        if (this.next != null) {
+          this.next.submit(file);
+        }
+      }
+    }
+
+    private void process(StoredFile file) {
+      if (!this.processor.supports(file)) {
+        return;
+      }
+      String outcome = "success";
+      long start = System.nanoTime();
+      try {
+        StoredFile current = storageService.describe(file.filename());
+        if (file.digest() != null && !file.digest().equals(current.digest())) {
+          // Replaced since it was queued; the new content is on its way through
+          outcome = "stale";
+          return;
+        }
+        Resource content = storageService.loadAsResource(file.filename());
+        try {
+          Map<String, String> attributes = this.processor.process(current, content);
+          metadataStore.put(current, this.processor.name(), attributes);
+        }
+        finally {
+          if (content instanceof AutoCloseable closeable) {
+            closeable.close();
+          }
+        }
+      }
+      catch (StorageFileNotFoundException e) {
+        outcome = "stale";
+      }
+      catch (Exception e) {
+        outcome = "error";
+        logger.warn("Stage " + this.processor.name() + " failed to process " + file.filename(), e);
+      }
+      finally {
+        if (this.registry != null) {
+          this.timer.tag("outcome", outcome).register(this.registry)
+              .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.example.uploadingfiles.storage;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link StorageService} for the reactive web stack.
+ */
+public interface ReactiveStorageService {
+
+  /**
+   * Store the given content under the given filename, consuming it with backpressure.
+   */
+  Mono<Void> store(String filename, Flux<DataBuffer> content);
+
+  Flux<StoredFile> loadAll();
+
+  Mono<FilePage> list(int limit, String cursor, FileSort sort);
+
+  /**
+   * Return what is known about a stored file, including its content digest.
+   */
+  Mono<StoredFile> describe(String filename);
+
+  Mono<Resource> loadAsResource(String filename);
+
+}
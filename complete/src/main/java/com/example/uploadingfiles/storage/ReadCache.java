@@ -0,0 +1,155 @@
+package com.example.uploadingfiles.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded cache of file contents held in direct buffers, outside the Java heap.
+ * Entries are evicted least recently used first. A file is only admitted on its second
+ * miss within a window of recently seen names, so one-off downloads do not push out
+ * the files that are actually hot.
+ */
+class ReadCache {
+
+  private static final int SEEN_CAPACITY = 8192;
+
+  private final long capacity;
+
+  private final long maxEntrySize;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+  private final LinkedHashMap<String, Boolean> seen = new LinkedHashMap<>(256, 0.75f, true) {
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > SEEN_CAPACITY;
+    }
+
+  };
+
+  private long size;
+
+  private long evictions;
+
+  ReadCache(long capacity, long maxEntrySize) {
+    this.capacity = capacity;
+    this.maxEntrySize = Math.min(maxEntrySize, capacity);
+  }
+
+  /**
+   * Return the cached content of {@code file}, or {@code null} if it is not cached or
+   * the cached copy is of other content.
+   */
+  Entry get(StoredFile file) {
+    this.lock.lock();
+    try {
+      Entry entry = this.entries.get(file.filename());
+      return (entry != null && entry.digest().equals(file.digest()) ? entry : null);
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Whether {@code file} should be loaded into the cache after a miss.
+   */
+  boolean admit(StoredFile file) {
+    if (file.digest() == null || file.size() > this.maxEntrySize) {
+      return false;
+    }
+    this.lock.lock();
+    try {
+      if (this.seen.remove(file.filename()) != null) {
+        return true;
+      }
+      this.seen.put(file.filename(), Boolean.TRUE);
+      return false;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  void put(String filename, String digest, ByteBuffer content) {
+    Entry entry = new Entry(digest, content.asReadOnlyBuffer());
+    this.lock.lock();
+    try {
+      Entry previous = this.entries.put(filename, entry);
+      if (previous != null) {
+        this.size -= previous.size();
+      }
+      this.size += entry.size();
+      Iterator<Entry> eldest = this.entries.values().iterator();
+      while (this.size > this.capacity && eldest.hasNext()) {
+        Entry evicted = eldest.next();
+        eldest.remove();
+        this.size -= evicted.size();
+        this.evictions++;
+      }
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  void invalidate(String filename) {
+    this.lock.lock();
+    try {
+      Entry previous = this.entries.remove(filename);
+      if (previous != null) {
+        this.size -= previous.size();
+      }
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  void clear() {
+    this.lock.lock();
+    try {
+      this.entries.clear();
+      this.seen.clear();
+      this.size = 0;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  long size() {
+    this.lock.lock();
+    try {
+      return this.size;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  long evictions() {
+    this.lock.lock();
+    try {
+      return this.evictions;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  record Entry(String digest, ByteBuffer content) {
+
+    long size() {
+      return this.content.capacity();
+    }
+
+  }
+
+}
@@ -0,0 +1,285 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Just enough of the S3 REST API for {@link ObjectStoreStorageService}, over the JDK's
+ * HTTP client with path-style addressing, which S3 and the servers imitating it all
+ * understand.
+ */
+class S3Client {
+
+  private final URI endpoint;
+
+  private final String bucket;
+
+  private final AwsV4Signer signer;
+
+  private final HttpClient http;
+
+  S3Client(URI endpoint, String bucket, AwsV4Signer signer, HttpClient http) {
+    String uri = endpoint.toString();
+    this.endpoint = URI.create(uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri);
+    this.bucket = bucket;
+    this.signer = signer;
+    this.http = http;
+  }
+
+  record ObjectInfo(String key, long size, Instant lastModified, String etag) {
+
+  }
+
+  record ObjectListing(List<ObjectInfo> objects, String nextContinuationToken) {
+
+  }
+
+  /**
+   * Create the bucket unless it exists.
+   */
+  void createBucketIfMissing() throws IOException {
+    if (send("HEAD", null, Map.of(), Map.of(), null, 0, 0).statusCode() == 404) {
+      check(send("PUT", null, Map.of(), Map.of(), null, 0, 0), "create bucket");
+    }
+  }
+
+  String putObject(String key, byte[] content, int offset, int length) throws IOException {
+    HttpResponse<byte[]> response = check(send("PUT", key, Map.of(), Map.of(), content, offset, length),
+        "put " + key);
+    return response.headers().firstValue("ETag").orElse(null);
+  }
+
+  String createMultipartUpload(String key) throws IOException {
+    HttpResponse<byte[]> response = check(send("POST", key, Map.of("uploads", ""), Map.of(), null, 0, 0),
+        "start upload of " + key);
+    return text(parse(response.body()).getDocumentElement(), "UploadId");
+  }
+
+  /**
+   * Upload one part of a multipart upload without waiting for it.
+   * @return the entity tag of the part
+   */
+  CompletableFuture<String> uploadPart(String key, String uploadId, int partNumber, byte[] content,
+      int offset, int length) {
+
+    return sendAsync("PUT", key, Map.of("partNumber", Integer.toString(partNumber), "uploadId", uploadId),
+        Map.of(), content, offset, length).thenApply(response -> {
+          checkUnchecked(response, "upload part " + partNumber + " of " + key);
+          return response.headers().firstValue("ETag")
+              .orElseThrow(() -> new UncheckedIOException(new IOException("Part has no ETag")));
+        });
+  }
+
+  String completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+    StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+    for (int i = 0; i < etags.size(); i++) {
+      xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+          .append(etags.get(i).replace("\"", "&quot;")).append("</ETag></Part>");
+    }
+    byte[] body = xml.append("</CompleteMultipartUpload>").toString().getBytes(StandardCharsets.UTF_8);
+    HttpResponse<byte[]> response = check(send("POST", key, Map.of("uploadId", uploadId), Map.of(),
+        body, 0, body.length), "complete upload of " + key);
+    // Errors can come with a 200 status once the server started answering
+    Element result = parse(response.body()).getDocumentElement();
+    if ("Error".equals(result.getLocalName())) {
+      throw new IOException("Failed to complete upload of " + key + ": " + text(result, "Message"));
+    }
+    return text(result, "ETag");
+  }
+
+  void abortMultipartUpload(String key, String uploadId) throws IOException {
+    check(send("DELETE", key, Map.of("uploadId", uploadId), Map.of(), null, 0, 0), "abort upload of " + key);
+  }
+
+  /**
+   * Return the size, modification time and entity tag of an object, or {@code null} if
+   * there is no such object.
+   */
+  ObjectInfo headObject(String key) throws IOException {
+    HttpResponse<byte[]> response = send("HEAD", key, Map.of(), Map.of(), null, 0, 0);
+    if (response.statusCode() == 404) {
+      return null;
+    }
+    check(response, "describe " + key);
+    return new ObjectInfo(key, response.headers().firstValueAsLong("Content-Length").orElse(0),
+        response.headers().firstValue("Last-Modified")
+            .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+            .orElse(Instant.EPOCH),
+        response.headers().firstValue("ETag").orElse(null));
+  }
+
+  /**
+   * Return the whole content of a small object, or {@code null} if there is no such
+   * object.
+   */
+  byte[] getObject(String key) throws IOException {
+    HttpResponse<byte[]> response = send("GET", key, Map.of(), Map.of(), null, 0, 0);
+    if (response.statusCode() == 404) {
+      return null;
+    }
+    return check(response, "read " + key).body();
+  }
+
+  /**
+   * Read bytes {@code start} to {@code end}, inclusive, of the object version with the
+   * given entity tag, without waiting for them.
+   */
+  CompletableFuture<byte[]> getRange(String key, long start, long end, String etag) {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Range", "bytes=" + start + "-" + end);
+    if (etag != null) {
+      headers.put("If-Match", etag);
+    }
+    return sendAsync("GET", key, Map.of(), headers, null, 0, 0).thenApply(response -> {
+      if (response.statusCode() == 404 || response.statusCode() == 412) {
+        throw new UncheckedIOException(new IOException(key + " was deleted or replaced while it was read"));
+      }
+      return checkUnchecked(response, "read " + key).body();
+    });
+  }
+
+  /**
+   * List up to {@code maxKeys} objects whose key starts with {@code prefix}, in key
+   * order, continuing a previous listing or starting after a given key.
+   */
+  ObjectListing listObjects(String prefix, String continuationToken, String startAfter, int maxKeys)
+      throws IOException {
+
+    Map<String, String> query = new LinkedHashMap<>();
+    query.put("list-type", "2");
+    query.put("prefix", prefix);
+    query.put("max-keys", Integer.toString(maxKeys));
+    if (continuationToken != null) {
+      query.put("continuation-token", continuationToken);
+    }
+    if (startAfter != null) {
+      query.put("start-after", startAfter);
+    }
+    Element result = parse(check(send("GET", null, query, Map.of(), null, 0, 0), "list " + prefix).body())
+        .getDocumentElement();
+    List<ObjectInfo> objects = new ArrayList<>();
+    NodeList contents = result.getElementsByTagNameNS("*", "Contents");
+    for (int i = 0; i < contents.getLength(); i++) {
+      Element content = (Element) contents.item(i);
+      objects.add(new ObjectInfo(text(content, "Key"), Long.parseLong(text(content, "Size")),
+          Instant.parse(text(content, "LastModified")), text(content, "ETag")));
+    }
+    String next = ("true".equals(text(result, "IsTruncated")) ? text(result, "NextContinuationToken") : null);
+    return new ObjectListing(objects, next);
+  }
+
+  /**
+   * Delete an object, if it exists, without waiting for it.
+   */
+  CompletableFuture<Void> deleteObject(String key) {
+    return sendAsync("DELETE", key, Map.of(), Map.of(), null, 0, 0).thenAccept(response -> {
+      if (response.statusCode() != 404) {
+        checkUnchecked(response, "delete " + key);
+      }
+    });
+  }
+
+  private HttpResponse<byte[]> send(String method, String key, Map<String, String> query,
+      Map<String, String> headers, byte[] body, int offset, int length) throws IOException {
+
+    HttpRequest request = request(method, key, query, headers, body, offset, length);
+    try {
+      return this.http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during " + method + " " + request.uri());
+    }
+  }
+
+  private CompletableFuture<HttpResponse<byte[]>> sendAsync(String method, String key,
+      Map<String, String> query, Map<String, String> headers, byte[] body, int offset, int length) {
+
+    return this.http.sendAsync(request(method, key, query, headers, body, offset, length),
+        HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  private HttpRequest request(String method, String key, Map<String, String> query,
+      Map<String, String> headers, byte[] body, int offset, int length) {
+
+    String path = this.endpoint.getRawPath() + "/" + AwsV4Signer.encode(this.bucket, true)
+        + (key != null ? "/" + AwsV4Signer.encode(key, false) : "");
+    String canonicalQuery = AwsV4Signer.canonicalQuery(query);
+    URI uri = URI.create(this.endpoint.getScheme() + "://" + this.endpoint.getRawAuthority() + path
+        + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+    String payloadHash = (body != null ? AwsV4Signer.sha256Hex(body, offset, length)
+        : AwsV4Signer.EMPTY_PAYLOAD_HASH);
+    Instant now = Instant.now();
+    Map<String, String> signed = new LinkedHashMap<>();
+    signed.put("host", this.endpoint.getRawAuthority());
+    signed.put("x-amz-content-sha256", payloadHash);
+    signed.put("x-amz-date", AwsV4Signer.TIMESTAMP.format(now));
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+        .method(method, body != null ? HttpRequest.BodyPublishers.ofByteArray(body, offset, length)
+            : HttpRequest.BodyPublishers.noBody())
+        .header("x-amz-content-sha256", payloadHash)
+        .header("x-amz-date", signed.get("x-amz-date"))
+        .header("Authorization", this.signer.authorization(method, path, query, signed, payloadHash, now));
+    headers.forEach(request::header);
+    return request.build();
+  }
+
+  private static HttpResponse<byte[]> check(HttpResponse<byte[]> response, String action) throws IOException {
+    if (response.statusCode() >= 300) {
+      byte[] body = response.body();
+      throw new IOException("Failed to " + action + ": HTTP " + response.statusCode()
+          + (body != null && body.length > 0 ? " " + new String(body, StandardCharsets.UTF_8) : ""));
+    }
+    return response;
+  }
+
+  private static HttpResponse<byte[]> checkUnchecked(HttpResponse<byte[]> response, String action) {
+    try {
+      return check(response, action);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Document parse(byte[] xml) throws IOException {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+    catch (ParserConfigurationException | SAXException e) {
+      throw new IOException("Unreadable response from object store", e);
+    }
+  }
+
+  private static String text(Element parent, String name) {
+    NodeList nodes = parent.getElementsByTagNameNS("*", name);
+    return (nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null);
+  }
+
+}
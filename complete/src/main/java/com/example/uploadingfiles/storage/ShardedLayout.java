@@ -0,0 +1,143 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.util.DigestUtils;
+
+/**
+ * Maps filenames to their location below a root directory. With a depth of {@code n},
+ * files are spread over {@code n} levels of directories named after consecutive pairs of
+ * hex digits of the MD5 hash of the filename, e.g. {@code 3f/a2/report.pdf} for a depth
+ * of 2, so that no single directory grows beyond a few thousand entries.
+ */
+class ShardedLayout {
+
+  static final int MAX_DEPTH = 4;
+
+  private final Path root;
+
+  private final int depth;
+
+  ShardedLayout(Path root, int depth) {
+    if (depth < 0 || depth > MAX_DEPTH) {
+      throw new StorageException("Shard depth must be between 0 and " + MAX_DEPTH + ".");
+    }
+    this.root = root;
+    this.depth = depth;
+  }
+
+  int depth() {
+    return this.depth;
+  }
+
+  /**
+   * Return where {@code filename}, which must be a plain name, lives.
+   */
+  Path resolve(String filename) {
+    if (this.depth == 0) {
+      return this.root.resolve(filename);
+    }
+    String hash = DigestUtils.md5DigestAsHex(filename.getBytes(StandardCharsets.UTF_8));
+    Path directory = this.root;
+    for (int level = 0; level < this.depth; level++) {
+      directory = directory.resolve(hash.substring(level * 2, level * 2 + 2));
+    }
+    return directory.resolve(filename);
+  }
+
+  /**
+   * Whether {@code path} is where this layout would put a file with that name.
+   */
+  boolean isPlaced(Path path) {
+    return resolve(path.getFileName().toString()).equals(path);
+  }
+
+  /**
+   * Whether {@code directory} is the root or one of its shard directories.
+   */
+  boolean isShardDirectory(Path directory) {
+    return directory.getNameCount() - this.root.getNameCount() <= this.depth
+        && isShardPath(this.root.relativize(directory));
+  }
+
+  /**
+   * Return the regular files that are where this layout expects them.
+   */
+  Stream<Path> files() throws IOException {
+    return Files.walk(this.root, this.depth + 1)
+        .filter(path -> path.getNameCount() - this.root.getNameCount() == this.depth + 1)
+        .filter(Files::isRegularFile)
+        .filter(this::isPlaced);
+  }
+
+  /**
+   * Return the shard directories that currently exist, the root included.
+   */
+  Stream<Path> directories() throws IOException {
+    return Files.walk(this.root, this.depth)
+        .filter(Files::isDirectory)
+        .filter(path -> path.equals(this.root) || isShardPath(this.root.relativize(path)));
+  }
+
+  /**
+   * Move files stored under any other shard depth to where this layout expects them
+   * and remove shard directories left empty.
+   * @return the number of files moved
+   */
+  int migrate() throws IOException {
+    List<Path> misplaced = new ArrayList<>();
+    List<Path> directories = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(this.root, MAX_DEPTH + 1)) {
+      paths.filter(path -> !path.equals(this.root)).forEach(path -> {
+        Path relative = this.root.relativize(path);
+        if (Files.isDirectory(path)) {
+          if (isShardPath(relative)) {
+            directories.add(path);
+          }
+        }
+        else if (isShardPath(relative.getParent()) && !isPlaced(path)) {
+          misplaced.add(path);
+        }
+      });
+    }
+    for (Path path : misplaced) {
+      Path target = resolve(path.getFileName().toString());
+      Files.createDirectories(target.getParent());
+      Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    // Deepest first, so parents are empty by the time they are visited
+    directories.sort((a, b) -> b.getNameCount() - a.getNameCount());
+    for (Path directory : directories) {
+      try {
+        Files.deleteIfExists(directory);
+      }
+      catch (DirectoryNotEmptyException e) {
+        // Still in use
+      }
+    }
+    return misplaced.size();
+  }
+
+  private static boolean isShardPath(Path relative) {
+    if (relative == null) {
+      return true;
+    }
+    for (Path segment : relative) {
+      String name = segment.toString();
+      if (name.length() != 2 || Character.digit(name.charAt(0), 16) == -1
+          || Character.digit(name.charAt(1), 16) == -1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
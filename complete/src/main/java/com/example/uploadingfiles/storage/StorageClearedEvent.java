@@ -0,0 +1,8 @@
+package com.example.uploadingfiles.storage;
+
+/**
+ * Published after every stored file was deleted.
+ */
+public record StorageClearedEvent() {
+
+}
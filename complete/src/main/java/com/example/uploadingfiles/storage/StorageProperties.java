@@ -1,15 +1,229 @@
 package com.example.uploadingfiles.storage;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 @ConfigurationProperties("storage")
 public class StorageProperties {
 
+  /**
+   * Which storage implementation to use
+   */
+  private Backend backend = Backend.FILESYSTEM;
+
   /**
    * Folder location for storing files
    */
   private String location = "upload-dir";
 
+  /**
+   * Whether to watch the storage folder so that files added or removed by other
+   * processes show up in listings
+   */
+  private boolean watchForChanges = true;
+
+  /**
+   * Number of directory levels, each named after two hex digits of a hash of the
+   * filename, that files are spread over. 0 keeps every file directly in the location
+   */
+  private int shardDepth = 0;
+
+  /**
+   * Whether to move files that are not where the configured shard depth expects
+   * them, for example from an older flat layout, into place on startup
+   */
+  private boolean migrateLayout = false;
+
+  /**
+   * Whether to gzip downloads of compressible content for clients that accept it.
+   * Variants are compressed in the background after upload and served as-is;
+   * files without one yet are compressed while they are sent
+   */
+  private boolean compressDownloads = false;
+
+  /**
+   * Content types worth compressing
+   */
+  private List<String> compressibleTypes = new ArrayList<>(List.of("text/*", "application/json", "application/*+json",
+      "application/xml", "application/*+xml", "application/javascript", "application/x-ndjson"));
+
+  /**
+   * Off-heap memory for caching the content of frequently downloaded files. 0
+   * disables the cache
+   */
+  private DataSize readCacheSize = DataSize.ofMegabytes(64);
+
+  /**
+   * Largest file the read cache holds
+   */
+  private DataSize readCacheMaxFileSize = DataSize.ofKilobytes(256);
+
+  /**
+   * Files at least this large are served from a memory mapping shared by all
+   * concurrent downloads, which helps where the container cannot use sendfile, such
+   * as over TLS. 0 disables mapping
+   */
+  private DataSize mapThreshold = DataSize.ofBytes(0);
+
+  /**
+   * Whether to flush each upload and its directory entry to disk before the upload
+   * completes, so stored files survive a crash or power loss
+   */
+  private boolean fsync = false;
+
+  /**
+   * Files each post-store processing stage can have waiting before uploads wait
+   * for it
+   */
+  private int pipelineQueueCapacity = 1024;
+
+  /**
+   * Worker threads per post-store processing stage
+   */
+  private int pipelineWorkers = 2;
+
+  /**
+   * Whether to delete every stored file when the application starts. Turn off to keep
+   * files across restarts. A cluster node only deletes its own replicas
+   */
+  private boolean deleteOnStartup = true;
+
+  /**
+   * Whether to build the file index on a background thread when the storage is
+   * initialized, looking files up on disk until it is complete, so that startup time
+   * does not depend on how many files are stored
+   */
+  private boolean indexInBackground = false;
+
+  /**
+   * Files of a batch upload stored concurrently
+   */
+  private int batchParallelism = 8;
+
+  /**
+   * Largest file of a batch upload that is read into memory and stored in the
+   * background while the next one is read. Larger files are stored as they are read
+   */
+  private DataSize batchBufferSize = DataSize.ofMegabytes(1);
+
+  /**
+   * Directory of the cold tier, typically on a cheaper, slower mount, used by the
+   * tiered backend
+   */
+  private String coldLocation = "";
+
+  /**
+   * How long a file of the tiered backend has to go unread before it is moved to
+   * the cold tier
+   */
+  private Duration coldAfter = Duration.ofDays(30);
+
+  /**
+   * How often the tiered backend looks for files to move to the cold tier
+   */
+  private Duration tieringInterval = Duration.ofHours(1);
+
+  /**
+   * URL of the S3-compatible service used by the object-store backend
+   */
+  private String s3Endpoint = "";
+
+  /**
+   * Region requests to the object store are signed for
+   */
+  private String s3Region = "us-east-1";
+
+  /**
+   * Bucket the object-store backend keeps files in, created if missing
+   */
+  private String s3Bucket = "uploads";
+
+  /**
+   * Access key of the object store
+   */
+  private String s3AccessKey = "";
+
+  /**
+   * Secret key of the object store
+   */
+  private String s3SecretKey = "";
+
+  /**
+   * Size of the parts large files are uploaded and downloaded in. S3 requires at
+   * least 5MB
+   */
+  private DataSize s3PartSize = DataSize.ofMegabytes(8);
+
+  /**
+   * Parts of one file uploaded or downloaded at the same time
+   */
+  private int s3Parallelism = 4;
+
+  /**
+   * Base URLs of every node of the clustered backend, this one included
+   */
+  private List<String> clusterNodes = new ArrayList<>();
+
+  /**
+   * Base URL of this node, as listed in {@code cluster-nodes}
+   */
+  private String clusterSelf = "";
+
+  /**
+   * Number of nodes each file is stored on by the clustered backend
+   */
+  private int clusterReplication = 2;
+
+  /**
+   * Points each node takes on the consistent hash ring. More points spread files more
+   * evenly between nodes
+   */
+  private int clusterVirtualNodes = 128;
+
+  /**
+   * How often writes held for unreachable nodes are retried
+   */
+  private Duration clusterHandoffInterval = Duration.ofSeconds(10);
+
+  /**
+   * Secret nodes send each other, required on the internal {@code /cluster} endpoints
+   * and by the clustered backend
+   */
+  private String clusterSecret = "";
+
+  /**
+   * How often the file system backend re-reads stored files to check them against their
+   * digests, or zero not to
+   */
+  private Duration scrubInterval = Duration.ofDays(1);
+
+  /**
+   * How many bytes per second checking stored files against their digests may read
+   */
+  private DataSize scrubRate = DataSize.ofMegabytes(16);
+
+  /**
+   * Largest file that can be sent as a chunked upload
+   */
+  private DataSize maxUploadSize = DataSize.ofGigabytes(10);
+
+  /**
+   * How long a chunked upload may go without receiving a chunk before it is dropped
+   */
+  private Duration uploadExpiry = Duration.ofHours(24);
+
+  public Backend getBackend() {
+    return backend;
+  }
+
+  public void setBackend(Backend backend) {
+    this.backend = backend;
+  }
+
   public String getLocation() {
     return location;
   }
@@ -18,4 +232,313 @@ public class StorageProperties {
     this.location = location;
   }
 
+  public boolean isWatchForChanges() {
+    return watchForChanges;
+  }
+
+  public void setWatchForChanges(boolean watchForChanges) {
+    this.watchForChanges = watchForChanges;
+  }
+
+  public int getShardDepth() {
+    return shardDepth;
+  }
+
+  public void setShardDepth(int shardDepth) {
+    this.shardDepth = shardDepth;
+  }
+
+  public boolean isMigrateLayout() {
+    return migrateLayout;
+  }
+
+  public void setMigrateLayout(boolean migrateLayout) {
+    this.migrateLayout = migrateLayout;
+  }
+
+  public boolean isCompressDownloads() {
+    return compressDownloads;
+  }
+
+  public void setCompressDownloads(boolean compressDownloads) {
+    this.compressDownloads = compressDownloads;
+  }
+
+  public List<String> getCompressibleTypes() {
+    return compressibleTypes;
+  }
+
+  public void setCompressibleTypes(List<String> compressibleTypes) {
+    this.compressibleTypes = compressibleTypes;
+  }
+
+  public DataSize getReadCacheSize() {
+    return readCacheSize;
+  }
+
+  public void setReadCacheSize(DataSize readCacheSize) {
+    this.readCacheSize = readCacheSize;
+  }
+
+  public DataSize getReadCacheMaxFileSize() {
+    return readCacheMaxFileSize;
+  }
+
+  public void setReadCacheMaxFileSize(DataSize readCacheMaxFileSize) {
+    this.readCacheMaxFileSize = readCacheMaxFileSize;
+  }
+
+  public DataSize getMapThreshold() {
+    return mapThreshold;
+  }
+
+  public void setMapThreshold(DataSize mapThreshold) {
+    this.mapThreshold = mapThreshold;
+  }
+
+  public boolean isFsync() {
+    return fsync;
+  }
+
+  public void setFsync(boolean fsync) {
+    this.fsync = fsync;
+  }
+
+  public int getPipelineQueueCapacity() {
+    return pipelineQueueCapacity;
+  }
+
+  public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+    this.pipelineQueueCapacity = pipelineQueueCapacity;
+  }
+
+  public int getPipelineWorkers() {
+    return pipelineWorkers;
+  }
+
+  public void setPipelineWorkers(int pipelineWorkers) {
+    this.pipelineWorkers = pipelineWorkers;
+  }
+
+  public boolean isDeleteOnStartup() {
+    return deleteOnStartup;
+  }
+
+  public void setDeleteOnStartup(boolean deleteOnStartup) {
+    this.deleteOnStartup = deleteOnStartup;
+  }
+
+  public boolean isIndexInBackground() {
+    return indexInBackground;
+  }
+
+  public void setIndexInBackground(boolean indexInBackground) {
+    this.indexInBackground = indexInBackground;
+  }
+
+  public int getBatchParallelism() {
+    return batchParallelism;
+  }
+
+  public void setBatchParallelism(int batchParallelism) {
+    this.batchParallelism = batchParallelism;
+  }
+
+  public DataSize getBatchBufferSize() {
+    return batchBufferSize;
+  }
+
+  public void setBatchBufferSize(DataSize batchBufferSize) {
+    this.batchBufferSize = batchBufferSize;
+  }
+
+  public String getColdLocation() {
+    return coldLocation;
+  }
+
+  public void setColdLocation(String coldLocation) {
+    this.coldLocation = coldLocation;
+  }
+
+  public Duration getColdAfter() {
+    return coldAfter;
+  }
+
+  public void setColdAfter(Duration coldAfter) {
+    this.coldAfter = coldAfter;
+  }
+
+  public Duration getTieringInterval() {
+    return tieringInterval;
+  }
+
+  public void setTieringInterval(Duration tieringInterval) {
+    this.tieringInterval = tieringInterval;
+  }
+
+  public String getS3Endpoint() {
+    return s3Endpoint;
+  }
+
+  public void setS3Endpoint(String s3Endpoint) {
+    this.s3Endpoint = s3Endpoint;
+  }
+
+  public String getS3Region() {
+    return s3Region;
+  }
+
+  public void setS3Region(String s3Region) {
+    this.s3Region = s3Region;
+  }
+
+  public String getS3Bucket() {
+    return s3Bucket;
+  }
+
+  public void setS3Bucket(String s3Bucket) {
+    this.s3Bucket = s3Bucket;
+  }
+
+  public String getS3AccessKey() {
+    return s3AccessKey;
+  }
+
+  public void setS3AccessKey(String s3AccessKey) {
+    this.s3AccessKey = s3AccessKey;
+  }
+
+  public String getS3SecretKey() {
+    return s3SecretKey;
+  }
+
+  public void setS3SecretKey(String s3SecretKey) {
+    this.s3SecretKey = s3SecretKey;
+  }
+
+  public DataSize getS3PartSize() {
+    return s3PartSize;
+  }
+
+  public void setS3PartSize(DataSize s3PartSize) {
+    this.s3PartSize = s3PartSize;
+  }
+
+  public int getS3Parallelism() {
+    return s3Parallelism;
+  }
+
+  public void setS3Parallelism(int s3Parallelism) {
+    this.s3Parallelism = s3Parallelism;
+  }
+
+  public List<String> getClusterNodes() {
+    return clusterNodes;
+  }
+
+  public void setClusterNodes(List<String> clusterNodes) {
+    this.clusterNodes = clusterNodes;
+  }
+
+  public String getClusterSelf() {
+    return clusterSelf;
+  }
+
+  public void setClusterSelf(String clusterSelf) {
+    this.clusterSelf = clusterSelf;
+  }
+
+  public int getClusterReplication() {
+    return clusterReplication;
+  }
+
+  public void setClusterReplication(int clusterReplication) {
+    this.clusterReplication = clusterReplication;
+  }
+
+  public int getClusterVirtualNodes() {
+    return clusterVirtualNodes;
+  }
+
+  public void setClusterVirtualNodes(int clusterVirtualNodes) {
+    this.clusterVirtualNodes = clusterVirtualNodes;
+  }
+
+  public Duration getClusterHandoffInterval() {
+    return clusterHandoffInterval;
+  }
+
+  public void setClusterHandoffInterval(Duration clusterHandoffInterval) {
+    this.clusterHandoffInterval = clusterHandoffInterval;
+  }
+
+  public String getClusterSecret() {
+    return clusterSecret;
+  }
+
+  public void setClusterSecret(String clusterSecret) {
+    this.clusterSecret = clusterSecret;
+  }
+
+  public Duration getScrubInterval() {
+    return scrubInterval;
+  }
+
+  public void setScrubInterval(Duration scrubInterval) {
+    this.scrubInterval = scrubInterval;
+  }
+
+  public DataSize getScrubRate() {
+    return scrubRate;
+  }
+
+  public void setScrubRate(DataSize scrubRate) {
+    this.scrubRate = scrubRate;
+  }
+
+  public DataSize getMaxUploadSize() {
+    return maxUploadSize;
+  }
+
+  public void setMaxUploadSize(DataSize maxUploadSize) {
+    this.maxUploadSize = maxUploadSize;
+  }
+
+  public Duration getUploadExpiry() {
+    return uploadExpiry;
+  }
+
+  public void setUploadExpiry(Duration uploadExpiry) {
+    this.uploadExpiry = uploadExpiry;
+  }
+
+  public enum Backend {
+
+    /**
+     * Store each file as-is under its original name
+     */
+    FILESYSTEM,
+
+    /**
+     * Store each distinct content once, keyed by its SHA-256 digest
+     */
+    CONTENT_ADDRESSED,
+
+    /**
+     * Store files like {@link #FILESYSTEM}, moving files nobody reads to a cold tier
+     */
+    TIERED,
+
+    /**
+     * Store files in an S3-compatible object store shared by every node
+     */
+    OBJECT_STORE,
+
+    /**
+     * Spread files over several nodes, each stored on {@code cluster-replication} of them
+     */
+    CLUSTERED
+
+  }
+
 }
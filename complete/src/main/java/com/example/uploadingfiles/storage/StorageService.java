@@ -3,21 +3,111 @@ package com.example.uploadingfiles.storage;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public interface StorageService {
 
   void init();
 
-  void store(MultipartFile file);
+  default void store(MultipartFile file) {
+    try {
+      if (file.isEmpty()) {
+        throw new EmptyFileException();
+      }
+      try (InputStream inputStream = file.getInputStream()) {
+        store(file.getOriginalFilename(), inputStream);
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+  }
+
+  /**
+   * Store the content of the given stream under the given filename, reading it to the
+   * end without buffering it anywhere else first. The caller owns the stream.
+   */
+  void store(String filename, InputStream inputStream);
+
+  /**
+   * Store a complete local file under the given filename, taking ownership of it.
+   * Implementations on the same file system may move it into place instead of copying.
+   */
+  default void store(String filename, Path file) {
+    try {
+      try (InputStream inputStream = Files.newInputStream(file)) {
+        store(filename, inputStream);
+      }
+      Files.deleteIfExists(file);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to store file.", e);
+    }
+  }
+
+  /**
+   * Store a complete local file like {@link #store(String, Path)}, given the SHA-256
+   * digest (lower-case hex) of its content that the caller computed while writing it,
+   * so that the backend does not have to read the file again to learn it. Backends
+   * that do not keep digests ignore it.
+   * @param digest the digest of the file's content, or {@code null} if not known
+   */
+  default void store(String filename, Path file, String digest) {
+    store(filename, file);
+  }
 
   Stream<Path> loadAll();
 
+  /**
+   * Return one page of stored files in the given order. Pass {@code null} as the cursor
+   * for the first page and {@link FilePage#nextCursor()} for the following ones.
+   * @throws InvalidPageRequestException if the cursor is malformed or the limit is not
+   * positive
+   */
+  FilePage list(int limit, String cursor, FileSort sort);
+
   Path load(String filename);
 
+  /**
+   * Return what is known about a stored file, including its content digest, without
+   * reading its content where the digest was recorded when it was stored.
+   * @throws StorageFileNotFoundException if there is no such file
+   */
+  StoredFile describe(String filename);
+
+  /**
+   * Return what is known about a stored file without reading its content, so its
+   * digest is {@code null} where it was not recorded when the file was stored.
+   * @throws StorageFileNotFoundException if there is no such file
+   */
+  default StoredFile stat(String filename) {
+    return describe(filename);
+  }
+
   Resource loadAsResource(String filename);
 
+  /**
+   * Return a variant of a stored file compressed with the given content coding, such as
+   * {@code gzip}, or {@code null} if there is none, in which case one may be prepared
+   * for later requests.
+   */
+  default Resource loadPrecompressed(StoredFile file, String contentCoding) {
+    return null;
+  }
+
   void deleteAll();
 
+  /**
+   * Have {@code listener} called with the name of each file that goes away other than
+   * through {@link #deleteAll()}, such as when it is evicted, found corrupt or deleted by
+   * something else. Backends that cannot tell ignore it.
+   */
+  default void setRemovalListener(Consumer<String> listener) {
+  }
+
 }
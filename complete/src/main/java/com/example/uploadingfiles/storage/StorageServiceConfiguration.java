@@ -0,0 +1,70 @@
+package com.example.uploadingfiles.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Decorates whichever {@link StorageService} is configured: an
+ * {@link EventPublishingStorageService}, then a {@link MappingStorageService} when memory
+ * mapping is enabled and a {@link CachingStorageService} when the read cache is enabled,
+ * all wrapped in an {@link InstrumentedStorageService} when there is a {@link MeterRegistry}.
+ */
+@Configuration(proxyBeanMethods = false)
+public class StorageServiceConfiguration {
+
+  private final ObjectProvider<StorageService> storageServices;
+
+  public StorageServiceConfiguration(ObjectProvider<StorageService> storageServices) {
+    this.storageServices = storageServices;
+  }
+
+  @Bean
+  static BeanPostProcessor storageServicePostProcessor(ApplicationEventPublisher publisher,
+      ObjectProvider<MeterRegistry> meterRegistry, ObjectProvider<StorageProperties> properties) {
+
+    return new BeanPostProcessor() {
+
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof StorageService storageService
+            && !(bean instanceof DelegatingStorageService)) {
+          storageService = new EventPublishingStorageService(storageService, publisher);
+          MeterRegistry registry = meterRegistry.getIfAvailable();
+          StorageProperties storageProperties = properties.getObject();
+          if (storageProperties.getMapThreshold().toBytes() > 0) {
+            storageService = new MappingStorageService(storageService, storageProperties, registry);
+          }
+          if (storageProperties.getReadCacheSize().toBytes() > 0) {
+            storageService = new CachingStorageService(storageService, storageProperties, registry);
+          }
+          return (registry != null ? new InstrumentedStorageService(storageService, registry) : storageService);
+        }
+        return bean;
+      }
+
+    };
+  }
+
+  /**
+   * Hand a {@link FileDeletedEvent} to the {@link MappingStorageService}s in the chains
+   * built above, which are not beans and so cannot listen for it themselves.
+   */
+  @EventListener
+  public void deleted(FileDeletedEvent event) {
+    this.storageServices.orderedStream().forEach(storageService -> {
+      while (storageService instanceof DelegatingStorageService delegating) {
+        if (delegating instanceof MappingStorageService mapping) {
+          mapping.deleted(event);
+        }
+        storageService = delegating.getDelegate();
+      }
+    });
+  }
+
+}
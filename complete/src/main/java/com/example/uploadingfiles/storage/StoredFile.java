@@ -0,0 +1,21 @@
+package com.example.uploadingfiles.storage;
+
+import java.time.Instant;
+
+/**
+ * What the storage layer knows about a stored file without going back to disk. The
+ * {@code digest} is the hex SHA-256 of the content, or {@code null} while it is not
+ * known yet.
+ */
+public record StoredFile(String filename, long size, Instant lastModified, String contentType,
+    String digest) {
+
+  public StoredFile(String filename, long size, Instant lastModified, String contentType) {
+    this(filename, size, lastModified, contentType, null);
+  }
+
+  StoredFile withDigest(String digest) {
+    return new StoredFile(this.filename, this.size, this.lastModified, this.contentType, digest);
+  }
+
+}
@@ -0,0 +1,507 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import jakarta.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * {@link StorageService} that keeps files on a fast local tier, laid out like
+ * {@link FileSystemStorageService}, and moves files that have not been read for
+ * {@code storage.cold-after} to a {@link ColdTier}. Listings and descriptions cover both
+ * tiers. Reading a cold file streams it from the cold tier while copying it back to the
+ * hot one, so the first complete download also brings the file back.
+ */
+@Service
+@ConditionalOnBackend(StorageProperties.Backend.TIERED)
+public class TieredStorageService implements StorageService {
+
+  private static final Log logger = LogFactory.getLog(TieredStorageService.class);
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final FileSystemStorageService hot;
+
+  private final ColdTier cold;
+
+  private final Path recalls;
+
+  /**
+   * Files currently in the cold tier.
+   */
+  private final FileIndex coldIndex = new FileIndex();
+
+  /**
+   * When each file was last read or written since startup. Files not in here count as
+   * last used when they were modified.
+   */
+  private final Map<String, Instant> lastAccess = new ConcurrentHashMap<>();
+
+  /**
+   * Files being copied back to the hot tier.
+   */
+  private final Set<String> recalling = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Striped locks serializing moves between tiers with stores of the same name.
+   */
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+  private final Duration coldAfter;
+
+  private final Duration interval;
+
+  private final ScheduledExecutorService scheduler;
+
+  private ScheduledFuture<?> migration;
+
+  @Autowired
+  public TieredStorageService(StorageProperties properties) {
+    this(new FileSystemStorageService(properties), coldTier(properties), properties);
+  }
+
+  TieredStorageService(FileSystemStorageService hot, ColdTier cold, StorageProperties properties) {
+    this.hot = hot;
+    this.cold = cold;
+    this.recalls = Paths.get(properties.getLocation()).resolve(".recalls");
+    this.coldAfter = properties.getColdAfter();
+    this.interval = properties.getTieringInterval();
+    Arrays.setAll(this.locks, i -> new ReentrantLock());
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-tiering-");
+    threadFactory.setDaemon(true);
+    threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+  }
+
+  private static ColdTier coldTier(StorageProperties properties) {
+    if (properties.getColdLocation().trim().length() == 0) {
+      throw new StorageException("Cold tier location can not be Empty.");
+    }
+    return new DirectoryColdTier(Paths.get(properties.getColdLocation()));
+  }
+
+  @Override
+  public void store(String filename, InputStream inputStream) {
+    this.hot.store(filename, inputStream);
+    stored(filename);
+  }
+
+  @Override
+  public void store(String filename, Path file) {
+    store(filename, file, null);
+  }
+
+  @Override
+  public void store(String filename, Path file, String digest) {
+    this.hot.store(filename, file, digest);
+    stored(filename);
+  }
+
+  /**
+   * Drop the cold copy a store just replaced.
+   */
+  private void stored(String filename) {
+    filename = Paths.get(filename).getFileName().toString();
+    this.lastAccess.put(filename, Instant.now());
+    if (this.coldIndex.get(filename) == null) {
+      return;
+    }
+    ReentrantLock lock = lockFor(filename);
+    lock.lock();
+    try {
+      this.coldIndex.remove(filename);
+      this.cold.delete(filename);
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to delete cold copy of " + filename, e);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Stream<Path> loadAll() {
+    return Stream.concat(this.hot.loadAll(), this.coldIndex.files().map(file -> Paths.get(file.filename())))
+        .distinct();
+  }
+
+  @Override
+  public FilePage list(int limit, String cursor, FileSort sort) {
+    return FileIndex.merge(this.hot.list(limit, cursor, sort), this.coldIndex.page(limit, cursor, sort),
+        limit, sort);
+  }
+
+  /**
+   * Return where {@code filename} lives, or would live, on the hot tier.
+   */
+  @Override
+  public Path load(String filename) {
+    return this.hot.load(filename);
+  }
+
+  @Override
+  public StoredFile describe(String filename) {
+    try {
+      return this.hot.describe(filename);
+    }
+    catch (StorageFileNotFoundException e) {
+      return cold(filename, e);
+    }
+  }
+
+  @Override
+  public StoredFile stat(String filename) {
+    try {
+      return this.hot.stat(filename);
+    }
+    catch (StorageFileNotFoundException e) {
+      return cold(filename, e);
+    }
+  }
+
+  private StoredFile cold(String filename, StorageFileNotFoundException notHot) {
+    StoredFile file = this.coldIndex.get(filename);
+    if (file == null) {
+      throw notHot;
+    }
+    return file;
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    this.lastAccess.put(filename, Instant.now());
+    StoredFile file = this.coldIndex.get(filename);
+    return (file != null ? new RecallingResource(file) : this.hot.loadAsResource(filename));
+  }
+
+  @Override
+  public Resource loadPrecompressed(StoredFile file, String contentCoding) {
+    return (this.coldIndex.get(file.filename()) == null
+        ? this.hot.loadPrecompressed(file, contentCoding) : null);
+  }
+
+  /**
+   * Files leaving the hot tier for the cold one are not reported.
+   */
+  @Override
+  public void setRemovalListener(Consumer<String> listener) {
+    this.hot.setRemovalListener(filename -> {
+      if (this.coldIndex.get(filename) == null) {
+        listener.accept(filename);
+      }
+    });
+  }
+
+  @Override
+  public void deleteAll() {
+    this.hot.deleteAll();
+    try {
+      this.cold.deleteAll();
+    }
+    catch (IOException e) {
+      throw new StorageException("Failed to delete cold tier", e);
+    }
+    this.coldIndex.clear();
+    this.lastAccess.clear();
+  }
+
+  @Override
+  public void init() {
+    this.hot.init();
+    try {
+      this.cold.init();
+      FileSystemUtils.deleteRecursively(this.recalls);
+      Files.createDirectories(this.recalls);
+      this.coldIndex.clear();
+      try (Stream<StoredFile> files = this.cold.files()) {
+        for (StoredFile file : (Iterable<StoredFile>) files::iterator) {
+          if (Files.exists(this.hot.load(file.filename()))) {
+            // Moved or recalled when the application stopped, the hot copy wins
+            this.cold.delete(file.filename());
+          }
+          else {
+            this.coldIndex.put(file);
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new StorageException("Could not initialize cold tier", e);
+    }
+    if (this.migration != null) {
+      this.migration.cancel(false);
+    }
+    this.migration = this.scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        migrate();
+      }
+      catch (RuntimeException e) {
+        logger.warn("Failed to move files to the cold tier", e);
+      }
+    }, this.interval.toMillis(), this.interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Move every hot file that has not been used for {@code storage.cold-after} to the
+   * cold tier.
+   * @return the number of files moved
+   */
+  public int migrate() {
+    Instant threshold = Instant.now().minus(this.coldAfter);
+    List<Path> candidates;
+    try (Stream<Path> files = this.hot.loadAll()) {
+      candidates = files.toList();
+    }
+    int moved = 0;
+    for (Path candidate : candidates) {
+      String filename = candidate.toString();
+      StoredFile file;
+      try {
+        file = this.hot.describe(filename);
+      }
+      catch (StorageFileNotFoundException e) {
+        continue;
+      }
+      if (this.lastAccess.getOrDefault(filename, file.lastModified()).isBefore(threshold)
+          && moveToCold(file)) {
+        moved++;
+      }
+    }
+    if (moved > 0) {
+      logger.info("Moved " + moved + " files to the cold tier");
+    }
+    return moved;
+  }
+
+  private boolean moveToCold(StoredFile file) {
+    String filename = file.filename();
+    try {
+      this.cold.put(file, this.hot.load(filename));
+      ReentrantLock lock = lockFor(filename);
+      lock.lock();
+      try {
+        this.coldIndex.put(file);
+        if (this.hot.evict(file)) {
+          this.lastAccess.remove(filename);
+          return true;
+        }
+        // Replaced while it was being copied
+        this.coldIndex.remove(filename);
+        this.cold.delete(filename);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+    catch (IOException e) {
+      logger.warn("Failed to move " + filename + " to the cold tier", e);
+    }
+    return false;
+  }
+
+  /**
+   * Move a complete copy of a cold file, read while it was being served, back to the
+   * hot tier unless the file changed in the meantime.
+   */
+  private void recall(StoredFile file, Path copy) throws IOException {
+    String filename = file.filename();
+    ReentrantLock lock = lockFor(filename);
+    lock.lock();
+    try {
+      if (file.equals(this.coldIndex.get(filename))) {
+        Files.setLastModifiedTime(copy, FileTime.from(file.lastModified()));
+        this.hot.store(filename, copy, file.digest());
+        this.coldIndex.remove(filename);
+        this.cold.delete(filename);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    this.scheduler.shutdownNow();
+    this.hot.close();
+    this.cold.close();
+  }
+
+  private ReentrantLock lockFor(String filename) {
+    return this.locks[Math.floorMod(filename.hashCode(), this.locks.length)];
+  }
+
+  /**
+   * A cold file, streamed from the cold tier.
+   */
+  private class RecallingResource extends AbstractResource {
+
+    private final StoredFile file;
+
+    RecallingResource(StoredFile file) {
+      this.file = file;
+    }
+
+    @Override
+    public String getDescription() {
+      return "cold file [" + this.file.filename() + "]";
+    }
+
+    @Override
+    public String getFilename() {
+      return this.file.filename();
+    }
+
+    @Override
+    public boolean exists() {
+      return true;
+    }
+
+    @Override
+    public long contentLength() {
+      return this.file.size();
+    }
+
+    @Override
+    public long lastModified() {
+      return this.file.lastModified().toEpochMilli();
+    }
+
+    /**
+     * Unless another reader is already recalling the file, what is read is also
+     * copied back to the hot tier.
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+      String filename = this.file.filename();
+      InputStream in;
+      try {
+        in = cold.get(filename);
+      }
+      catch (NoSuchFileException e) {
+        // Recalled or replaced since this resource was created
+        return hot.loadAsResource(filename).getInputStream();
+      }
+      if (!recalling.add(filename)) {
+        return in;
+      }
+      try {
+        Path copy = Files.createTempFile(recalls, "recall-", ".tmp");
+        return new RecallingInputStream(in, this.file, copy);
+      }
+      catch (IOException | RuntimeException e) {
+        recalling.remove(filename);
+        in.close();
+        throw e;
+      }
+    }
+
+  }
+
+  /**
+   * Copies what is read to a file that replaces the cold copy once it is complete.
+   */
+  private class RecallingInputStream extends FilterInputStream {
+
+    private final StoredFile file;
+
+    private final Path copy;
+
+    private final OutputStream out;
+
+    private final MessageDigest messageDigest = ContentDigests.newMessageDigest();
+
+    private long count;
+
+    private boolean skipped;
+
+    RecallingInputStream(InputStream in, StoredFile file, Path copy) throws IOException {
+      super(in);
+      this.file = file;
+      this.copy = copy;
+      this.out = Files.newOutputStream(copy);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read != -1) {
+        this.out.write(read);
+        this.messageDigest.update((byte) read);
+        this.count++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        this.out.write(b, off, read);
+        this.messageDigest.update(b, off, read);
+        this.count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // A range was requested, the copy will not be complete. Full downloads skip 0.
+      if (n > 0) {
+        this.skipped = true;
+      }
+      return super.skip(n);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+        this.out.close();
+        if (!this.skipped && this.count == this.file.size()
+            && ContentDigests.hex(this.messageDigest).equals(this.file.digest())) {
+          recall(this.file, this.copy);
+        }
+      }
+      finally {
+        recalling.remove(this.file.filename());
+        Files.deleteIfExists(this.copy);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,175 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Removes directory trees without making the caller wait for it. A tree is renamed into
+ * a trash directory next to it, which takes the same time however much it holds, and
+ * then deleted in the background by a fork-join pool: one task per directory and per
+ * batch of files, so shard directories are emptied in parallel. Whatever a crash or
+ * shutdown leaves in the trash is deleted by {@link #empty()}.
+ */
+class Trash {
+
+  private static final int BATCH_SIZE = 256;
+
+  private static final Log logger = LogFactory.getLog(Trash.class);
+
+  private final Path directory;
+
+  private final ForkJoinPool pool = new ForkJoinPool();
+
+  /**
+   * Entries of the trash queued or being deleted.
+   */
+  private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Create a trash for trees at or below {@code location}, kept in a sibling
+   * directory so that moving into it never crosses file systems.
+   */
+  Trash(Path location) {
+    Path absolute = location.toAbsolutePath().normalize();
+    this.directory = absolute.resolveSibling(absolute.getFileName() + ".trash");
+  }
+
+  /**
+   * Move {@code path} out of the way and delete it in the background. If it cannot be
+   * moved, say because it is a mount point, it is deleted in place before returning.
+   */
+  void discard(Path path) throws IOException {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    Path discarded = this.directory.resolve(UUID.randomUUID().toString());
+    try {
+      Files.createDirectories(this.directory);
+      Files.move(path, discarded, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      logger.debug("Could not move " + path + " to the trash, deleting it in place", e);
+      this.pool.invoke(new DeleteTree(path));
+      return;
+    }
+    queue(discarded);
+  }
+
+  /**
+   * Delete, in the background, whatever is in the trash and not being deleted already.
+   */
+  void empty() {
+    if (!Files.isDirectory(this.directory)) {
+      return;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.directory)) {
+      for (Path entry : entries) {
+        queue(entry);
+      }
+    }
+    catch (IOException e) {
+      logger.warn("Failed to empty " + this.directory, e);
+    }
+  }
+
+  private void queue(Path entry) {
+    if (!this.queued.add(entry)) {
+      return;
+    }
+    this.pool.execute(() -> {
+      try {
+        new DeleteTree(entry).invoke();
+      }
+      finally {
+        this.queued.remove(entry);
+      }
+    });
+  }
+
+  void close() {
+    this.pool.shutdownNow();
+  }
+
+  private static class DeleteTree extends RecursiveAction {
+
+    private final Path root;
+
+    DeleteTree(Path root) {
+      this.root = root;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        if (!Files.isDirectory(this.root, LinkOption.NOFOLLOW_LINKS)) {
+          Files.deleteIfExists(this.root);
+          return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.root)) {
+          for (Path entry : entries) {
+            if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+              tasks.add(new DeleteTree(entry));
+            }
+            else {
+              files.add(entry);
+              if (files.size() == BATCH_SIZE) {
+                tasks.add(new DeleteFiles(files));
+                files = new ArrayList<>();
+              }
+            }
+          }
+        }
+        tasks.add(new DeleteFiles(files));
+        invokeAll(tasks);
+        Files.deleteIfExists(this.root);
+      }
+      catch (NoSuchFileException e) {
+        // Deleted meanwhile
+      }
+      catch (IOException e) {
+        logger.warn("Failed to delete " + this.root, e);
+      }
+    }
+
+  }
+
+  private static class DeleteFiles extends RecursiveAction {
+
+    private final List<Path> files;
+
+    DeleteFiles(List<Path> files) {
+      this.files = files;
+    }
+
+    @Override
+    protected void compute() {
+      for (Path file : this.files) {
+        try {
+          Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+          logger.warn("Failed to delete " + file, e);
+        }
+      }
+    }
+
+  }
+
+}
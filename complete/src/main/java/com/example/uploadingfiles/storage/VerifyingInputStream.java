@@ -0,0 +1,151 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Checks content against the digests its sender supplied as it is read, so that it is
+ * never read twice. Where the stream ends, a read throws {@link DigestMismatchException}
+ * instead of returning {@code -1} if any digest does not match, so a store reading the
+ * stream fails before the content is committed.
+ */
+public class VerifyingInputStream extends FilterInputStream {
+
+  /**
+   * Algorithms that can be verified, named as in the HTTP digest algorithm registry.
+   */
+  public static final Set<String> ALGORITHMS = Set.of("md5", "sha-256", "sha-512", "crc32c");
+
+  private final Map<String, byte[]> expected;
+
+  private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+  private final CRC32C crc32c;
+
+  private boolean verified;
+
+  /**
+   * @param expected the digests to check, by algorithm
+   */
+  public VerifyingInputStream(InputStream in, Map<String, byte[]> expected) {
+    super(in);
+    this.expected = Map.copyOf(expected);
+    for (String algorithm : this.expected.keySet()) {
+      if (!ALGORITHMS.contains(algorithm)) {
+        throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+      }
+      if (!algorithm.equals("crc32c")) {
+        try {
+          this.digests.put(algorithm, MessageDigest.getInstance(algorithm.toUpperCase(Locale.ROOT)));
+        }
+        catch (NoSuchAlgorithmException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+    this.crc32c = (this.expected.containsKey("crc32c") ? new CRC32C() : null);
+  }
+
+  @Override
+  public int read() throws IOException {
+    int read = this.in.read();
+    if (read == -1) {
+      verify();
+    }
+    else {
+      for (MessageDigest digest : this.digests.values()) {
+        digest.update((byte) read);
+      }
+      if (this.crc32c != null) {
+        this.crc32c.update(read);
+      }
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = this.in.read(b, off, len);
+    if (read == -1) {
+      verify();
+    }
+    else {
+      for (MessageDigest digest : this.digests.values()) {
+        digest.update(b, off, read);
+      }
+      if (this.crc32c != null) {
+        this.crc32c.update(b, off, read);
+      }
+    }
+    return read;
+  }
+
+  /**
+   * Skipped bytes are read, as they have to be digested too.
+   */
+  @Override
+  public long skip(long n) throws IOException {
+    byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public long transferTo(OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    long transferred = 0;
+    for (int read = read(buffer, 0, buffer.length); read != -1; read = read(buffer, 0, buffer.length)) {
+      out.write(buffer, 0, read);
+      transferred += read;
+    }
+    return transferred;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void verify() {
+    if (this.verified) {
+      return;
+    }
+    for (Map.Entry<String, byte[]> expected : this.expected.entrySet()) {
+      String algorithm = expected.getKey();
+      byte[] actual = (algorithm.equals("crc32c")
+          ? ByteBuffer.allocate(4).putInt((int) this.crc32c.getValue()).array()
+          : this.digests.get(algorithm).digest());
+      if (!MessageDigest.isEqual(actual, expected.getValue())) {
+        throw new DigestMismatchException("Content does not match its " + algorithm + " digest");
+      }
+    }
+    this.verified = true;
+  }
+
+}
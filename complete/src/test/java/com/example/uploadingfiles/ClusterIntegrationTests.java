@@ -0,0 +1,240 @@
+package com.example.uploadingfiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import com.example.uploadingfiles.storage.ClusteredStorageService;
+import com.example.uploadingfiles.storage.DelegatingStorageService;
+import com.example.uploadingfiles.storage.FileSort;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageProperties;
+import com.example.uploadingfiles.storage.StorageService;
+
+/**
+ * Runs a cluster of three nodes on localhost, each storing every file on two of them.
+ */
+public class ClusterIntegrationTests {
+
+  private static final int NODES = 3;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  private final String location = "target/files/" + Math.abs(new Random().nextLong());
+
+  private final int[] ports = new int[NODES];
+
+  private final ConfigurableApplicationContext[] nodes = new ConfigurableApplicationContext[NODES];
+
+  @BeforeEach
+  public void choosePorts() throws IOException {
+    for (int i = 0; i < NODES; i++) {
+      try (ServerSocket socket = new ServerSocket(0)) {
+        ports[i] = socket.getLocalPort();
+      }
+    }
+  }
+
+  @AfterEach
+  public void stopNodes() {
+    for (ConfigurableApplicationContext node : nodes) {
+      if (node != null) {
+        node.close();
+      }
+    }
+  }
+
+  @Test
+  public void storesEachFileOnTwoNodesAndServesItFromAny() throws Exception {
+    startAll(NODES);
+
+    for (int i = 0; i < 10; i++) {
+      cluster(i % NODES).store("file-" + i + ".txt", new ByteArrayInputStream(("Content " + i).getBytes()));
+    }
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(replicas("file-" + i + ".txt")).isEqualTo(2);
+      for (int node = 0; node < NODES; node++) {
+        assertThat(download(node, "file-" + i + ".txt")).isEqualTo("Content " + i);
+      }
+    }
+    assertThat(cluster(0).loadAll()).hasSize(10);
+    assertThat(cluster(1).list(4, null, FileSort.NAME).files()).hasSize(4);
+  }
+
+  @Test
+  public void handsOffWritesMissedByStoppedNode() throws Exception {
+    startAll(NODES);
+    nodes[2].close();
+    nodes[2] = null;
+
+    for (int i = 0; i < 10; i++) {
+      cluster(i % 2).store("file-" + i + ".txt", new ByteArrayInputStream(("Content " + i).getBytes()));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertThat(download(i % 2, "file-" + i + ".txt")).isEqualTo("Content " + i);
+    }
+
+    start(2, NODES);
+    await(() -> IntStream.range(0, 10).allMatch(i -> replicas("file-" + i + ".txt") == 2));
+    assertThat(IntStream.range(0, 10).filter(i -> stored(2, "file-" + i + ".txt")).count()).isPositive();
+  }
+
+  @Test
+  public void movesFilesToAddedNode() throws Exception {
+    start(0, 2);
+    start(1, 2);
+    for (int i = 0; i < 20; i++) {
+      cluster(i % 2).store("file-" + i + ".txt", new ByteArrayInputStream(("Content " + i).getBytes()));
+    }
+
+    start(2, NODES);
+    assertThat(IntStream.range(0, 20).noneMatch(i -> stored(2, "file-" + i + ".txt"))).isTrue();
+    for (int i = 0; i < 2; i++) {
+      nodes[i].close();
+      start(i, NODES);
+    }
+    await(() -> IntStream.range(0, 20).allMatch(i -> replicas("file-" + i + ".txt") == 2)
+        && IntStream.range(0, 20).anyMatch(i -> stored(2, "file-" + i + ".txt")));
+    for (int i = 0; i < 20; i++) {
+      assertThat(download(2, "file-" + i + ".txt")).isEqualTo("Content " + i);
+    }
+  }
+
+  @Test
+  public void restartDeletingOnStartupLeavesOtherNodesAlone() throws Exception {
+    startAll(NODES);
+    for (int i = 0; i < 10; i++) {
+      cluster(i % NODES).store("file-" + i + ".txt", new ByteArrayInputStream(("Content " + i).getBytes()));
+    }
+    List<String> onFirst = storedOn(1);
+    List<String> onSecond = storedOn(2);
+
+    nodes[0].close();
+    start(0, NODES, true);
+
+    assertThat(storedOn(1)).isNotEmpty().containsExactlyElementsOf(onFirst);
+    assertThat(storedOn(2)).isNotEmpty().containsExactlyElementsOf(onSecond);
+    for (int i = 0; i < 10; i++) {
+      assertThat(download(1, "file-" + i + ".txt")).isEqualTo("Content " + i);
+    }
+  }
+
+  @Test
+  public void rejectsUnknownNodesAndWrongSecret() throws Exception {
+    startAll(NODES);
+
+    assertThat(post(0, "/cluster/nodes?node=http://localhost:1", "test-secret").statusCode()).isEqualTo(403);
+    assertThat(post(0, "/cluster/nodes?node=" + url(1), "wrong-secret").statusCode()).isEqualTo(403);
+    assertThat(post(0, "/cluster/nodes?node=" + url(1), "test-secret").statusCode()).isEqualTo(204);
+  }
+
+  @Test
+  public void requiresSecret() {
+    StorageProperties properties = new StorageProperties();
+    properties.setLocation(location);
+    properties.setClusterSelf(url(0));
+
+    assertThatExceptionOfType(StorageException.class)
+        .isThrownBy(() -> new ClusteredStorageService(properties));
+  }
+
+  private HttpResponse<String> post(int index, String path, String secret) throws Exception {
+    return client.send(HttpRequest.newBuilder(URI.create(url(index) + path))
+        .header(ClusteredStorageService.SECRET_HEADER, secret)
+        .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private void startAll(int count) {
+    for (int i = 0; i < count; i++) {
+      start(i, count);
+    }
+  }
+
+  private void start(int index, int count) {
+    start(index, count, false);
+  }
+
+  /**
+   * Start node {@code index} in a cluster of the first {@code count} nodes.
+   */
+  private void start(int index, int count, boolean deleteOnStartup) {
+    String members = IntStream.range(0, count).mapToObj(this::url).collect(Collectors.joining(","));
+    nodes[index] = new SpringApplicationBuilder(UploadingFilesApplication.class).properties(
+        "server.port=" + ports[index],
+        "spring.main.banner-mode=off",
+        "storage.backend=clustered",
+        "storage.location=" + location + "-" + index,
+        "storage.delete-on-startup=" + deleteOnStartup,
+        "storage.cluster-nodes=" + members,
+        "storage.cluster-self=" + url(index),
+        "storage.cluster-replication=2",
+        "storage.cluster-handoff-interval=100ms",
+        "storage.cluster-secret=test-secret").run();
+  }
+
+  private String url(int index) {
+    return "http://localhost:" + ports[index];
+  }
+
+  private ClusteredStorageService cluster(int index) {
+    return (ClusteredStorageService) DelegatingStorageService.unwrap(nodes[index].getBean(StorageService.class));
+  }
+
+  private boolean stored(int index, String filename) {
+    return nodes[index] != null && Files.exists(cluster(index).load(filename));
+  }
+
+  private List<String> storedOn(int index) {
+    return IntStream.range(0, 10).mapToObj(i -> "file-" + i + ".txt")
+        .filter(filename -> stored(index, filename)).toList();
+  }
+
+  private int replicas(String filename) {
+    List<Integer> holders = new ArrayList<>();
+    for (int i = 0; i < NODES; i++) {
+      if (stored(i, filename)) {
+        holders.add(i);
+      }
+    }
+    return holders.size();
+  }
+
+  private String download(int index, String filename) throws Exception {
+    HttpResponse<String> response = client.send(
+        HttpRequest.newBuilder(URI.create(url(index) + "/files/" + filename)).build(),
+        HttpResponse.BodyHandlers.ofString());
+    assertThat(response.statusCode()).isEqualTo(200);
+    return response.body();
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + 20_000_000_000L;
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime()).as("Cluster did not settle in time").isLessThan(deadline);
+      Thread.sleep(100);
+    }
+  }
+
+}
@@ -1,7 +1,9 @@
 package com.example.uploadingfiles;
 
 import java.net.http.HttpClient;
-import java.util.stream.Stream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -15,19 +17,27 @@ import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.client.RestTestClient;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.BDDMockito.given;
 
+import com.example.uploadingfiles.storage.FilePage;
 import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.storage.StoredFile;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @AutoConfigureRestTestClient
 public class FileUploadIntegrationTests {
 
+  private static final String LOCATION = "target/files/" + Math.abs(new Random().nextLong());
+
   @Autowired
   private RestTestClient client;
 
@@ -37,12 +47,17 @@ public class FileUploadIntegrationTests {
   @LocalServerPort
   private int port;
 
+  @DynamicPropertySource
+  static void storageLocation(DynamicPropertyRegistry registry) {
+    registry.add("storage.location", () -> LOCATION);
+  }
+
   @Test
   public void shouldUploadFile() throws Exception {
     ClassPathResource resource = new ClassPathResource("testupload.txt", getClass());
 
-    // In case of redirect, GET "/" calls storageService.loadAll(); stub it to avoid errors
-    given(this.storageService.loadAll()).willReturn(Stream.empty());
+    // In case of redirect, GET "/" calls storageService.list(); stub it to avoid errors
+    given(this.storageService.list(anyInt(), any(), any())).willReturn(new FilePage(List.of(), null));
 
     MultiValueMap<String, Object> map = new LinkedMultiValueMap<>();
     map.add("file", resource);
@@ -65,6 +80,8 @@ public class FileUploadIntegrationTests {
   @Test
   public void shouldDownloadFile() {
     ClassPathResource resource = new ClassPathResource("testupload.txt", getClass());
+    given(this.storageService.describe("testupload.txt"))
+        .willReturn(new StoredFile("testupload.txt", 16, Instant.EPOCH, "text/plain"));
     given(this.storageService.loadAsResource("testupload.txt")).willReturn(resource);
 
     this.client.get().uri("/files/{filename}", "testupload.txt").exchangeSuccessfully()
@@ -0,0 +1,311 @@
+package com.example.uploadingfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-end load test against the running application. Excluded from the normal build;
+ * run it with {@code ./mvnw test -P load-test} or {@code ./gradlew loadTest}. Tune it
+ * with system properties:
+ * <ul>
+ * <li>{@code load.concurrency}: concurrent clients (16)</li>
+ * <li>{@code load.duration}: measured run time in seconds (30)</li>
+ * <li>{@code load.file-sizes}: sizes of uploaded and downloaded files (1KB,64KB,1MB)</li>
+ * <li>{@code load.mix}: relative weight of each operation (upload:1,list:2,download:7)</li>
+ * <li>{@code load.slow-clients}: connections trickling an upload throughout the run
+ * to tie up request threads (0)</li>
+ * <li>{@code load.request-timeout}: seconds after which a request that got no response
+ * counts as an error, say because slow clients hold every request thread (10)</li>
+ * </ul>
+ * The report is written to {@code target/load-test-report.txt}. To compare slow-client
+ * capacity with and without virtual threads, run it on Java 21 or later with
+ * {@code load.slow-clients} above Tomcat's 200 threads, once as is and once with
+ * {@code -Dspring.threads.virtual.enabled=true}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "storage.location=target/files/load",
+    "spring.servlet.multipart.max-file-size=-1",
+    "spring.servlet.multipart.max-request-size=-1" })
+public class FileUploadLoadTests {
+
+  private static final String BOUNDARY = "load-test-boundary";
+
+  @LocalServerPort
+  private int port;
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .followRedirects(HttpClient.Redirect.NEVER)
+      .build();
+
+  private final Duration requestTimeout = Duration.ofSeconds(Long.getLong("load.request-timeout", 10));
+
+  @Test
+  public void uploadListAndDownloadUnderLoad() throws Exception {
+    int concurrency = Integer.getInteger("load.concurrency", 16);
+    Duration duration = Duration.ofSeconds(Long.getLong("load.duration", 30));
+    List<byte[]> contents = Arrays.stream(System.getProperty("load.file-sizes", "1KB,64KB,1MB").split(","))
+        .map(size -> new byte[(int) DataSize.parse(size.trim()).toBytes()])
+        .toList();
+    Map<String, Integer> mix = parseMix(System.getProperty("load.mix", "upload:1,list:2,download:7"));
+    int slowClients = Integer.getInteger("load.slow-clients", 0);
+
+    for (int i = 0; i < contents.size(); i++) {
+      ThreadLocalRandom.current().nextBytes(contents.get(i));
+      upload("seed-" + i + ".bin", contents.get(i));
+    }
+
+    AtomicBoolean running = new AtomicBoolean(true);
+    ExecutorService slowPool = Executors.newFixedThreadPool(Math.max(1, slowClients));
+    for (int i = 0; i < slowClients; i++) {
+      slowPool.submit(() -> slowUpload(running));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+    long deadline = System.nanoTime() + duration.toNanos();
+    List<Future<Map<String, Samples>>> results = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      int client = i;
+      results.add(pool.submit(() -> drive(client, deadline, mix, contents)));
+    }
+    Map<String, Samples> samples = new LinkedHashMap<>();
+    for (Future<Map<String, Samples>> result : results) {
+      result.get().forEach((operation, each) -> samples.merge(operation, each, Samples::merge));
+    }
+    running.set(false);
+    pool.shutdown();
+    slowPool.shutdownNow();
+
+    String report = report(samples, duration, concurrency, slowClients);
+    Files.writeString(Paths.get("target/load-test-report.txt"), report);
+    assertThat(samples.values()).allSatisfy(each -> assertThat(each.errors).isZero());
+  }
+
+  private Map<String, Samples> drive(int client, long deadline, Map<String, Integer> mix,
+      List<byte[]> contents) {
+
+    Map<String, Samples> samples = new LinkedHashMap<>();
+    mix.keySet().forEach(operation -> samples.put(operation, new Samples()));
+    int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+    int sequence = 0;
+    while (System.nanoTime() < deadline) {
+      String operation = pick(mix, ThreadLocalRandom.current().nextInt(totalWeight));
+      int file = ThreadLocalRandom.current().nextInt(contents.size());
+      long start = System.nanoTime();
+      long bytes;
+      try {
+        bytes = switch (operation) {
+          case "upload" -> upload("client-" + client + "-" + (sequence++ % 16) + ".bin", contents.get(file));
+          case "list" -> get("/");
+          case "download" -> get("/files/seed-" + file + ".bin");
+          default -> throw new IllegalArgumentException("Unknown operation " + operation);
+        };
+      }
+      catch (Exception ex) {
+        samples.get(operation).errors++;
+        continue;
+      }
+      samples.get(operation).add(System.nanoTime() - start, bytes);
+    }
+    return samples;
+  }
+
+  private long upload(String filename, byte[] content) throws IOException, InterruptedException {
+    byte[] head = ("--" + BOUNDARY + "\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+        + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    HttpRequest request = HttpRequest.newBuilder(uri("/"))
+        .timeout(this.requestTimeout)
+        .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+        .POST(HttpRequest.BodyPublishers.concat(HttpRequest.BodyPublishers.ofByteArray(head),
+            HttpRequest.BodyPublishers.ofByteArray(content), HttpRequest.BodyPublishers.ofByteArray(tail)))
+        .build();
+    HttpResponse<Void> response = this.client.send(request, HttpResponse.BodyHandlers.discarding());
+    check(response);
+    return content.length;
+  }
+
+  private long get(String path) throws IOException, InterruptedException {
+    HttpResponse<InputStream> response = this.client.send(HttpRequest.newBuilder(uri(path)).timeout(this.requestTimeout).build(),
+        HttpResponse.BodyHandlers.ofInputStream());
+    check(response);
+    try (InputStream body = response.body()) {
+      return body.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  /**
+   * Hold a request thread by sending an upload one byte at a time until the run ends.
+   */
+  private void slowUpload(AtomicBoolean running) {
+    byte[] head = "--slow\r\nContent-Disposition: form-data; name=\"padding\"\r\n\r\n"
+        .getBytes(StandardCharsets.US_ASCII);
+    InputStream trickle = new InputStream() {
+
+      private int sent;
+
+      @Override
+      public int read() {
+        if (this.sent < head.length) {
+          return head[this.sent++];
+        }
+        if (!running.get()) {
+          return -1;
+        }
+        try {
+          Thread.sleep(100);
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return -1;
+        }
+        return 'x';
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        int read = read();
+        if (read == -1) {
+          return -1;
+        }
+        b[off] = (byte) read;
+        return 1;
+      }
+
+    };
+    HttpRequest request = HttpRequest.newBuilder(uri("/files"))
+        .header("Content-Type", "multipart/form-data; boundary=slow")
+        .POST(HttpRequest.BodyPublishers.ofInputStream(() -> trickle))
+        .build();
+    try {
+      this.client.send(request, HttpResponse.BodyHandlers.discarding());
+    }
+    catch (IOException | InterruptedException ex) {
+      // Expected once the run is over
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + this.port + path);
+  }
+
+  private static void check(HttpResponse<?> response) throws IOException {
+    if (response.statusCode() >= 400) {
+      throw new IOException("Unexpected status " + response.statusCode());
+    }
+  }
+
+  private static String pick(Map<String, Integer> mix, int roll) {
+    for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+      roll -= entry.getValue();
+      if (roll < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  private static Map<String, Integer> parseMix(String mix) {
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split(":");
+      weights.put(parts[0], Integer.parseInt(parts[1]));
+    }
+    return weights;
+  }
+
+  private static String report(Map<String, Samples> samples, Duration duration, int concurrency,
+      int slowClients) {
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Load test: %d clients, %d slow clients, %ds%n", concurrency,
+        slowClients, duration.toSeconds()));
+    report.append(String.format("%-10s %10s %8s %10s %10s %10s %12s%n", "operation", "requests",
+        "errors", "p50 ms", "p99 ms", "p999 ms", "MB/s"));
+    double seconds = duration.toNanos() / 1e9;
+    samples.forEach((operation, each) -> {
+      long[] latencies = each.sorted();
+      report.append(String.format("%-10s %10d %8d %10.2f %10.2f %10.2f %12.2f%n", operation,
+          latencies.length, each.errors, percentile(latencies, 0.50), percentile(latencies, 0.99),
+          percentile(latencies, 0.999), each.bytes / seconds / (1024 * 1024)));
+    });
+    long total = samples.values().stream().mapToLong(each -> each.count).sum();
+    report.append(String.format("Throughput: %.1f requests/s%n", total / seconds));
+    return report.toString();
+  }
+
+  private static double percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+
+  private static class Samples {
+
+    private long[] latencies = new long[1024];
+
+    private int count;
+
+    private long bytes;
+
+    private long errors;
+
+    void add(long latency, long bytes) {
+      if (this.count == this.latencies.length) {
+        this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+      }
+      this.latencies[this.count++] = latency;
+      this.bytes += bytes;
+    }
+
+    long[] sorted() {
+      long[] sorted = Arrays.copyOf(this.latencies, this.count);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+
+    Samples merge(Samples other) {
+      Samples merged = new Samples();
+      merged.latencies = Arrays.copyOf(this.latencies, this.count + other.count);
+      System.arraycopy(other.latencies, 0, merged.latencies, this.count, other.count);
+      merged.count = this.count + other.count;
+      merged.bytes = this.bytes + other.bytes;
+      merged.errors = this.errors + other.errors;
+      return merged;
+    }
+
+  }
+
+}
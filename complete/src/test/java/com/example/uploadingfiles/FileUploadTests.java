@@ -1,43 +1,99 @@
 package com.example.uploadingfiles;
 
-import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.example.uploadingfiles.storage.CompressedVariants;
+import com.example.uploadingfiles.storage.FileMetadataStore;
+import com.example.uploadingfiles.storage.FilePage;
+import com.example.uploadingfiles.storage.FileSort;
+import com.example.uploadingfiles.storage.FileStoredEvent;
+import com.example.uploadingfiles.storage.InvalidPageRequestException;
+import com.example.uploadingfiles.storage.StorageException;
 import com.example.uploadingfiles.storage.StorageFileNotFoundException;
 import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.storage.StoredFile;
 
-@SpringBootTest
+@SpringBootTest(properties = "storage.compress-downloads=true")
 @AutoConfigureMockMvc
 public class FileUploadTests {
 
+  private static final String LOCATION = "target/files/" + Math.abs(new Random().nextLong());
+
+  private static final String DIGEST = "0f1c2dcd54c7d0d1d2eac3e1d4be9e2b9e4f3dcd0f4b4fd9bd7a32bd9d8e2e3f";
+
   @Autowired
   private MockMvc mvc;
 
   @MockitoBean
   private StorageService storageService;
 
+  @Autowired
+  private FileMetadataStore metadataStore;
+
+  @Autowired
+  private MeterRegistry registry;
+
+  @DynamicPropertySource
+  static void storageLocation(DynamicPropertyRegistry registry) {
+    registry.add("storage.location", () -> LOCATION);
+  }
+
   @Test
   public void shouldListAllFiles() throws Exception {
-    given(this.storageService.loadAll())
-        .willReturn(Stream.of(Paths.get("first.txt"), Paths.get("second.txt")));
+    given(this.storageService.list(100, null, FileSort.NAME))
+        .willReturn(new FilePage(List.of(storedFile("first.txt"), storedFile("second.txt")), null));
 
     this.mvc.perform(get("/")).andExpect(status().isOk())
         .andExpect(model().attribute("files",
@@ -45,6 +101,54 @@ public class FileUploadTests {
                 "http://localhost/files/second.txt")));
   }
 
+  @Test
+  public void shouldListFilesAsJsonPage() throws Exception {
+    given(this.storageService.list(1, "Zmlyc3QudHh0", FileSort.NAME))
+        .willReturn(new FilePage(List.of(storedFile("second.txt")), "c2Vjb25kLnR4dA"));
+
+    this.mvc.perform(get("/api/files").param("limit", "1").param("cursor", "Zmlyc3QudHh0"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.files[0].filename").value("second.txt"))
+        .andExpect(jsonPath("$.nextCursor").value("c2Vjb25kLnR4dA"));
+  }
+
+  @Test
+  public void shouldRejectInvalidListingCursor() throws Exception {
+    given(this.storageService.list(1, "bogus", FileSort.NAME))
+        .willThrow(new InvalidPageRequestException("Invalid listing cursor: bogus"));
+
+    this.mvc.perform(get("/api/files").param("limit", "1").param("cursor", "bogus"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void shouldDescribeFileWithProcessingResults() throws Exception {
+    StoredFile file = storedFile("first.txt");
+    given(this.storageService.describe("first.txt")).willReturn(file);
+    this.metadataStore.put(file, "words", Map.of("count", "2"));
+
+    this.mvc.perform(get("/api/files/first.txt"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.file.digest").value(DIGEST))
+        .andExpect(jsonPath("$.metadata.words.count").value("2"));
+  }
+
+  @Test
+  public void shouldSearchFilesByMetadata() throws Exception {
+    this.metadataStore.stored(new FileStoredEvent(new StoredFile("small.txt", 10, Instant.parse("2026-01-01T00:00:00Z"),
+        "text/plain", DIGEST)));
+    this.metadataStore.stored(new FileStoredEvent(new StoredFile("large.txt", 5000,
+        Instant.parse("2026-01-02T00:00:00Z"), "text/plain", DIGEST)));
+
+    this.mvc.perform(get("/api/search").param("minSize", "100").param("storedAfter", "2026-01-01T12:00:00Z")
+        .param("sort", "SIZE"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(1))
+        .andExpect(jsonPath("$[0].file.filename").value("large.txt"));
+    this.mvc.perform(get("/api/search").param("storedAfter", "yesterday"))
+        .andExpect(status().isBadRequest());
+  }
+
   @Test
   public void shouldSaveUploadedFile() throws Exception {
     MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
@@ -56,10 +160,370 @@ public class FileUploadTests {
     then(this.storageService).should().store(multipartFile);
   }
 
+  @Test
+  public void shouldStreamUploadedFiles() throws Exception {
+    Map<String, String> stored = new HashMap<>();
+    willAnswer(invocation -> {
+      InputStream body = invocation.getArgument(1);
+      stored.put(invocation.getArgument(0), new String(body.readAllBytes(), StandardCharsets.UTF_8));
+      return null;
+    }).given(this.storageService).store(anyString(), any(InputStream.class));
+
+    String body = "preamble\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"comment\"\r\n\r\n"
+        + "ignored\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"first.txt\"\r\n"
+        + "Content-Type: text/plain\r\n\r\n"
+        + "Spring\r\n-- Framework\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"second.txt\"\r\n\r\n"
+        + "Boot\r\n"
+        + "--xyz--\r\n";
+    this.mvc.perform(post("/files").contentType("multipart/form-data; boundary=xyz")
+        .content(body.getBytes(StandardCharsets.UTF_8)))
+        .andExpect(status().isFound())
+        .andExpect(header().string("Location", "/"));
+
+    assertThat(stored).containsOnly(
+        Map.entry("first.txt", "Spring\r\n-- Framework"),
+        Map.entry("second.txt", "Boot"));
+  }
+
+  @Test
+  public void shouldRejectEmptyStreamedFileAfterStoringEarlierOnes() throws Exception {
+    Map<String, String> stored = new HashMap<>();
+    willAnswer(invocation -> {
+      InputStream body = invocation.getArgument(1);
+      stored.put(invocation.getArgument(0), new String(body.readAllBytes(), StandardCharsets.UTF_8));
+      return null;
+    }).given(this.storageService).store(anyString(), any(InputStream.class));
+
+    String body = "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"first.txt\"\r\n\r\n"
+        + "Spring\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"empty.txt\"\r\n\r\n"
+        + "\r\n"
+        + "--xyz--\r\n";
+    this.mvc.perform(post("/files").contentType("multipart/form-data; boundary=xyz")
+        .content(body.getBytes(StandardCharsets.UTF_8)))
+        .andExpect(status().isBadRequest());
+
+    assertThat(stored).containsOnly(Map.entry("first.txt", "Spring"));
+  }
+
+  @Test
+  public void shouldReportEachFileOfBatchUpload() throws Exception {
+    Map<String, String> stored = new ConcurrentHashMap<>();
+    willAnswer(invocation -> {
+      InputStream body = invocation.getArgument(1);
+      stored.put(invocation.getArgument(0), new String(body.readAllBytes(), StandardCharsets.UTF_8));
+      return null;
+    }).given(this.storageService).store(anyString(), any(InputStream.class));
+    willThrow(new StorageException("Cannot store file outside current directory."))
+        .given(this.storageService).store(eq("../escape.txt"), any(InputStream.class));
+
+    String body = "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"files\"; filename=\"first.txt\"\r\n\r\n"
+        + "Spring\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"files\"; filename=\"../escape.txt\"\r\n\r\n"
+        + "Nope\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"files\"; filename=\"second.txt\"\r\n\r\n"
+        + "Framework\r\n"
+        + "--xyz--\r\n";
+    this.mvc.perform(post("/api/files").contentType("multipart/form-data; boundary=xyz")
+        .content(body.getBytes(StandardCharsets.UTF_8)))
+        .andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$.stored").value(2))
+        .andExpect(jsonPath("$.failed").value(1))
+        .andExpect(jsonPath("$.files[0].filename").value("first.txt"))
+        .andExpect(jsonPath("$.files[1].stored").value(false))
+        .andExpect(jsonPath("$.files[1].error").value("Cannot store file outside current directory."))
+        .andExpect(jsonPath("$.files[2].size").value(9));
+
+    assertThat(stored).containsOnly(Map.entry("first.txt", "Spring"), Map.entry("second.txt", "Framework"));
+  }
+
+  @Test
+  public void shouldRejectUploadNotMatchingItsDigest() throws Exception {
+    Map<String, String> stored = new HashMap<>();
+    willAnswer(invocation -> {
+      InputStream body = invocation.getArgument(1);
+      stored.put(invocation.getArgument(0), new String(body.readAllBytes(), StandardCharsets.UTF_8));
+      return null;
+    }).given(this.storageService).store(anyString(), any(InputStream.class));
+
+    String body = "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"first.txt\"\r\n"
+        + "Content-MD5: " + md5("Spring") + "\r\n\r\n"
+        + "Spring\r\n"
+        + "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"second.txt\"\r\n"
+        + "Repr-Digest: sha-256=:" + Base64.getEncoder().encodeToString(HexFormat.of().parseHex(DIGEST))
+        + ":\r\n\r\n"
+        + "Framework\r\n"
+        + "--xyz--\r\n";
+    this.mvc.perform(post("/files").contentType("multipart/form-data; boundary=xyz")
+        .content(body.getBytes(StandardCharsets.UTF_8)))
+        .andExpect(status().isBadRequest());
+
+    assertThat(stored).containsOnly(Map.entry("first.txt", "Spring"));
+  }
+
+  @Test
+  public void shouldRejectMalformedDigestField() throws Exception {
+    String body = "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"first.txt\"\r\n"
+        + "Content-MD5: not base64!\r\n\r\n"
+        + "Spring\r\n"
+        + "--xyz--\r\n";
+    this.mvc.perform(post("/files").contentType("multipart/form-data; boundary=xyz")
+        .content(body.getBytes(StandardCharsets.UTF_8)))
+        .andExpect(status().isBadRequest());
+
+    then(this.storageService).should(never()).store(anyString(), any(InputStream.class));
+  }
+
+  @Test
+  public void shouldReportFileOfBatchUploadNotMatchingItsDigest() throws Exception {
+    String body = "--xyz\r\n"
+        + "Content-Disposition: form-data; name=\"files\"; filename=\"first.txt\"\r\n"
+        + "Content-MD5: " + md5("Framework") + "\r\n\r\n"
+        + "Spring\r\n"
+        + "--xyz--\r\n";
+    this.mvc.perform(post("/api/files").contentType("multipart/form-data; boundary=xyz")
+        .content(body.getBytes(StandardCharsets.UTF_8)))
+        .andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$.files[0].stored").value(false))
+        .andExpect(jsonPath("$.files[0].error").value("Content does not match its md5 digest"));
+
+    then(this.storageService).should(never()).store(anyString(), any(InputStream.class));
+  }
+
+  @Test
+  public void shouldSendDigestOfFileAsStored() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+    String sha256 = Base64.getEncoder().encodeToString(HexFormat.of().parseHex(DIGEST));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=7-"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string("Repr-Digest", "sha-256=:" + sha256 + ":"))
+        .andExpect(header().string("Digest", "SHA-256=" + sha256));
+  }
+
+  @Test
+  public void shouldServeRequestedRange() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=7-"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string("Accept-Ranges", "bytes"))
+        .andExpect(header().string("Content-Range", "bytes 7-15/16"))
+        .andExpect(content().string("Framework"));
+  }
+
+  @Test
+  public void shouldHandUnchangedFileToSendfile() throws Exception {
+    Path file = download("Spring Framework");
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt")).willReturn(new FileSystemResource(file));
+    double sent = sentBytes("storage.download.bytes");
+    double handedOff = sentBytes("storage.download.sendfile.bytes");
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=7-")
+        .requestAttr(DownloadHandler.SENDFILE_SUPPORT_ATTRIBUTE, true))
+        .andExpect(status().isPartialContent())
+        .andExpect(request().attribute(DownloadHandler.SENDFILE_FILENAME_ATTRIBUTE,
+            file.toAbsolutePath().toString()))
+        .andExpect(request().attribute(DownloadHandler.SENDFILE_START_ATTRIBUTE, 7L))
+        .andExpect(request().attribute(DownloadHandler.SENDFILE_END_ATTRIBUTE, 16L))
+        .andExpect(content().string(""));
+    assertThat(sentBytes("storage.download.bytes")).isEqualTo(sent);
+    assertThat(sentBytes("storage.download.sendfile.bytes")).isEqualTo(handedOff + 9);
+  }
+
+  @Test
+  public void shouldSendReplacedFileFromOpenChannelInsteadOfSendfile() throws Exception {
+    Path file = download("Spring Framework");
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    // Modified after the headers were written
+    given(this.storageService.loadAsResource("testupload.txt")).willReturn(new FileSystemResource(file) {
+
+      @Override
+      public long lastModified() {
+        return 0;
+      }
+
+    });
+    double sent = sentBytes("storage.download.bytes");
+
+    this.mvc.perform(get("/files/testupload.txt")
+        .requestAttr(DownloadHandler.SENDFILE_SUPPORT_ATTRIBUTE, true))
+        .andExpect(status().isOk())
+        .andExpect(request().attribute(DownloadHandler.SENDFILE_FILENAME_ATTRIBUTE, Matchers.nullValue()))
+        .andExpect(content().string("Spring Framework"));
+    assertThat(sentBytes("storage.download.bytes")).isEqualTo(sent + 16);
+  }
+
+  @Test
+  public void shouldIgnoreRangeWhenIfRangeDoesNotMatch() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=0-5")
+        .header("If-Range", "Thu, 01 Jan 1970 00:00:00 GMT"))
+        .andExpect(status().isOk())
+        .andExpect(content().string("Spring Framework"));
+  }
+
+  @Test
+  public void shouldRejectUnsatisfiableRange() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=100-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string("Content-Range", "bytes */16"));
+  }
+
+  @Test
+  public void shouldIgnoreMalformedRange() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=a-b"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("Content-Range"))
+        .andExpect(content().string("Spring Framework"));
+  }
+
+  @Test
+  public void shouldServeRangeWhenIfRangeMatchesEntityTag() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Range", "bytes=0-5")
+        .header("If-Range", "\"" + DIGEST + "\""))
+        .andExpect(status().isPartialContent())
+        .andExpect(content().string("Spring"));
+  }
+
+  @Test
+  public void shouldSendValidatorsWithDownload() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("ETag", "\"" + DIGEST + "\""))
+        .andExpect(header().string("Last-Modified", "Wed, 01 May 2024 12:00:00 GMT"))
+        .andExpect(header().string("Cache-Control", "no-cache, public"));
+  }
+
+  @Test
+  public void shouldAnswerConditionalRequestsWithoutLoadingFile() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+
+    this.mvc.perform(get("/files/testupload.txt").header("If-None-Match", "\"" + DIGEST + "\""))
+        .andExpect(status().isNotModified());
+    this.mvc.perform(get("/files/testupload.txt").header("If-Modified-Since", "Wed, 01 May 2024 12:00:00 GMT"))
+        .andExpect(status().isNotModified());
+
+    then(this.storageService).should(never()).loadAsResource(anyString());
+  }
+
+  @Test
+  public void shouldCompressDownloadWithoutPrecompressedVariant() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    byte[] body = this.mvc.perform(get("/files/testupload.txt").header("Accept-Encoding", "br, gzip"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Encoding", "gzip"))
+        .andExpect(header().string("Vary", "Accept-Encoding"))
+        .andExpect(header().string("ETag", "\"" + DIGEST + "-gzip\""))
+        .andReturn().getResponse().getContentAsByteArray();
+
+    assertThat(gunzip(body)).isEqualTo("Spring Framework");
+  }
+
+  @Test
+  public void shouldServePrecompressedVariant() throws Exception {
+    StoredFile stored = storedFile("testupload.txt");
+    ByteArrayOutputStream variant = new ByteArrayOutputStream();
+    try (OutputStream out = CompressedVariants.compressor(variant)) {
+      out.write("Spring Framework".getBytes(StandardCharsets.UTF_8));
+    }
+    given(this.storageService.describe("testupload.txt")).willReturn(stored);
+    given(this.storageService.loadPrecompressed(stored, "gzip"))
+        .willReturn(new ByteArrayResource(variant.toByteArray()));
+
+    byte[] body = this.mvc.perform(get("/files/testupload.txt").header("Accept-Encoding", "gzip;q=0.8"))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Encoding", "gzip"))
+        .andExpect(header().string("Content-Type", "text/plain"))
+        .andExpect(header().longValue("Content-Length", variant.size()))
+        .andReturn().getResponse().getContentAsByteArray();
+
+    assertThat(gunzip(body)).isEqualTo("Spring Framework");
+    then(this.storageService).should(never()).loadAsResource(anyString());
+  }
+
+  @Test
+  public void shouldNotCompressWhenGzipIsRefused() throws Exception {
+    given(this.storageService.describe("testupload.txt")).willReturn(storedFile("testupload.txt"));
+    given(this.storageService.loadAsResource("testupload.txt"))
+        .willReturn(new ClassPathResource("testupload.txt", getClass()));
+
+    this.mvc.perform(get("/files/testupload.txt").header("Accept-Encoding", "*, gzip;q=0"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("Content-Encoding"))
+        .andExpect(content().string("Spring Framework"));
+  }
+
+  private static String gunzip(byte[] content) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String md5(String content) throws Exception {
+    return Base64.getEncoder().encodeToString(
+        MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static Path download(String content) throws IOException {
+    Files.createDirectories(Path.of("target/files"));
+    Path file = Files.createTempFile(Path.of("target/files"), "download-", ".txt");
+    return Files.writeString(file, content);
+  }
+
+  private double sentBytes(String name) {
+    return this.registry.get(name).counter().count();
+  }
+
+  private static StoredFile storedFile(String filename) {
+    return new StoredFile(filename, 16, Instant.parse("2024-05-01T12:00:00Z"), "text/plain", DIGEST);
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void should404WhenMissingFile() throws Exception {
-    given(this.storageService.loadAsResource("test.txt"))
+    given(this.storageService.describe("test.txt"))
         .willThrow(StorageFileNotFoundException.class);
 
     this.mvc.perform(get("/files/test.txt")).andExpect(status().isNotFound());
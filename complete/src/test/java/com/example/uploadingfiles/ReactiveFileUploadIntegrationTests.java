@@ -0,0 +1,81 @@
+package com.example.uploadingfiles;
+
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.uploadingfiles.storage.StorageService;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "spring.main.web-application-type=reactive", "storage.location=target/files/reactive" })
+public class ReactiveFileUploadIntegrationTests {
+
+  @LocalServerPort
+  private int port;
+
+  @Autowired
+  private StorageService storageService;
+
+  @Test
+  public void shouldUploadAndDownloadFile() throws Exception {
+    WebTestClient client = WebTestClient.bindToServer().baseUrl("http://localhost:" + this.port).build();
+
+    MultipartBodyBuilder body = new MultipartBodyBuilder();
+    body.part("file", new ClassPathResource("testupload.txt", getClass()));
+    client.post().uri("/").body(BodyInserters.fromMultipartData(body.build())).exchange()
+        .expectStatus().isSeeOther()
+        .expectHeader().location("/");
+    assertThat(this.storageService.stat("testupload.txt").digest()).isEqualTo(HexFormat.of()
+        .formatHex(MessageDigest.getInstance("SHA-256").digest("Spring Framework".getBytes())));
+
+    client.get().uri("/files/{filename}", "testupload.txt").exchange()
+        .expectStatus().isOk()
+        .expectHeader().contentDisposition(ContentDisposition.attachment().filename("testupload.txt").build())
+        .expectBody(String.class).isEqualTo("Spring Framework");
+
+    client.get().uri("/files/{filename}", "testupload.txt").header(HttpHeaders.RANGE, "bytes=7-")
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+        .expectBody(String.class).isEqualTo("Framework");
+
+    client.get().uri("/api/files").exchange()
+        .expectStatus().isOk()
+        .expectBody().jsonPath("$.files[0].filename").isEqualTo("testupload.txt");
+  }
+
+  @Test
+  public void shouldRejectEmptyFile() {
+    WebTestClient client = WebTestClient.bindToServer().baseUrl("http://localhost:" + this.port).build();
+
+    MultipartBodyBuilder body = new MultipartBodyBuilder();
+    body.part("file", new ByteArrayResource(new byte[0]) {
+
+      @Override
+      public String getFilename() {
+        return "empty.txt";
+      }
+
+    });
+    client.post().uri("/").body(BodyInserters.fromMultipartData(body.build())).exchange()
+        .expectStatus().isBadRequest();
+
+    client.get().uri("/files/{filename}", "empty.txt").exchange()
+        .expectStatus().isNotFound();
+  }
+
+}
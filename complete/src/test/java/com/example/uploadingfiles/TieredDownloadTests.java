@@ -0,0 +1,60 @@
+package com.example.uploadingfiles;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.uploadingfiles.storage.DelegatingStorageService;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.storage.TieredStorageService;
+
+@SpringBootTest(properties = { "storage.backend=tiered", "storage.cold-after=0s",
+    "storage.watch-for-changes=false", TieredDownloadTests.LOCATION, TieredDownloadTests.COLD_LOCATION })
+@AutoConfigureMockMvc
+public class TieredDownloadTests {
+
+  static final String DIRECTORY = "target/files/tiered-download";
+
+  static final String LOCATION = "storage.location=" + DIRECTORY;
+
+  static final String COLD_LOCATION = "storage.cold-location=" + DIRECTORY + "-cold";
+
+  @Autowired
+  private MockMvc mvc;
+
+  @Autowired
+  private StorageService storageService;
+
+  @Test
+  public void downloadRecallsColdFile() throws Exception {
+    String filename = "cold-" + Math.abs(new Random().nextLong()) + ".txt";
+    this.mvc.perform(multipart("/").file(new MockMultipartFile("file", filename, "text/plain",
+        "Hello, World".getBytes())));
+    Thread.sleep(10);
+    TieredStorageService tiered = (TieredStorageService) DelegatingStorageService.unwrap(this.storageService);
+    assertThat(tiered.migrate()).isPositive();
+    assertThat(tiered.load(filename)).doesNotExist();
+
+    this.mvc.perform(get("/files/" + filename))
+        .andExpect(status().isOk())
+        .andExpect(content().string("Hello, World"));
+
+    assertThat(Files.readString(tiered.load(filename))).isEqualTo("Hello, World");
+    assertThat(Paths.get(DIRECTORY + "-cold", "files", filename)).doesNotExist();
+  }
+
+}
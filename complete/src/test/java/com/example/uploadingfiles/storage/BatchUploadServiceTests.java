@@ -0,0 +1,83 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchUploadServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private FileSystemStorageService storageService;
+
+  private BatchUploadService service;
+
+  @BeforeEach
+  public void init() {
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    properties.setWatchForChanges(false);
+    properties.setBatchBufferSize(DataSize.ofBytes(1024));
+    storageService = new FileSystemStorageService(properties);
+    storageService.init();
+    service = new BatchUploadService(storageService, properties);
+  }
+
+  @AfterEach
+  public void close() {
+    service.close();
+  }
+
+  @Test
+  public void storesEveryFileOfBatch() throws Exception {
+    BatchUploadService.Batch batch = service.begin();
+    for (int i = 0; i < 100; i++) {
+      batch.add("file-" + i + ".txt", new ByteArrayInputStream(("content " + i).getBytes()));
+    }
+
+    BatchUploadReport report = batch.finish();
+
+    assertThat(report.stored()).isEqualTo(100);
+    assertThat(report.files()).extracting(BatchUploadResult::filename).startsWith("file-0.txt", "file-1.txt");
+    assertThat(storageService.loadAll()).hasSize(100);
+    assertThat(Files.readString(storageService.load("file-42.txt"))).isEqualTo("content 42");
+  }
+
+  @Test
+  public void storesFilesOfZipArchive() throws Exception {
+    byte[] large = new byte[10_000];
+    new Random().nextBytes(large);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+      zip.putNextEntry(new ZipEntry("small.txt"));
+      zip.write("Hello, World".getBytes());
+      zip.putNextEntry(new ZipEntry("docs/"));
+      zip.putNextEntry(new ZipEntry("docs/nested.txt"));
+      zip.write("Nested".getBytes());
+      zip.putNextEntry(new ZipEntry("large.bin"));
+      zip.write(large);
+    }
+
+    BatchUploadReport report = service.storeZip(new ByteArrayInputStream(archive.toByteArray()));
+
+    assertThat(report.stored()).isEqualTo(2);
+    assertThat(report.failed()).isEqualTo(1);
+    assertThat(report.files()).extracting(BatchUploadResult::filename)
+        .containsExactly("small.txt", "docs/nested.txt", "large.bin");
+    assertThat(report.files().get(2).size()).isEqualTo(large.length);
+    assertThat(Files.readAllBytes(storageService.load("large.bin"))).isEqualTo(large);
+    assertThat(Paths.get(properties.getLocation(), "docs")).doesNotExist();
+  }
+
+}
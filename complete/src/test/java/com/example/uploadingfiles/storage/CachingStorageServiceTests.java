@@ -0,0 +1,87 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachingStorageServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private CachingStorageService service;
+
+  @BeforeEach
+  public void init() {
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    properties.setWatchForChanges(false);
+    properties.setReadCacheSize(DataSize.ofBytes(20));
+    service = new CachingStorageService(new FileSystemStorageService(properties), properties, registry);
+    service.init();
+  }
+
+  @Test
+  public void servesFilesFromMemoryFromTheirSecondRequest() throws Exception {
+    store("foo.txt", "Hello, World");
+
+    assertThat(service.loadAsResource("foo.txt")).isNotInstanceOf(CachedResource.class);
+    assertThat(content(service.loadAsResource("foo.txt"))).isEqualTo("Hello, World");
+    Resource cached = service.loadAsResource("foo.txt");
+    assertThat(cached).isInstanceOf(CachedResource.class);
+    assertThat(content(cached)).isEqualTo("Hello, World");
+    assertThat(registry.get("storage.cache.requests").tag("result", "hit").counter().count()).isEqualTo(1);
+    assertThat(registry.get("storage.cache.size").gauge().value()).isEqualTo(12);
+  }
+
+  @Test
+  public void storeInvalidatesCachedContent() throws Exception {
+    store("foo.txt", "Hello, World");
+    service.loadAsResource("foo.txt");
+    service.loadAsResource("foo.txt");
+
+    store("foo.txt", "Goodbye");
+    assertThat(content(service.loadAsResource("foo.txt"))).isEqualTo("Goodbye");
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedFiles() throws Exception {
+    store("foo.txt", "Hello, World");
+    store("bar.txt", "Goodbye, World");
+    for (String filename : new String[] { "foo.txt", "foo.txt", "bar.txt", "bar.txt" }) {
+      service.loadAsResource(filename);
+    }
+
+    assertThat(service.loadAsResource("bar.txt")).isInstanceOf(CachedResource.class);
+    assertThat(service.loadAsResource("foo.txt")).isNotInstanceOf(CachedResource.class);
+    assertThat(registry.get("storage.cache.evictions").functionCounter().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void cachesWithoutMeterRegistry() throws Exception {
+    service = new CachingStorageService(new FileSystemStorageService(properties), properties, null);
+    store("foo.txt", "Hello, World");
+    service.loadAsResource("foo.txt");
+
+    assertThat(content(service.loadAsResource("foo.txt"))).isEqualTo("Hello, World");
+    assertThat(service.loadAsResource("foo.txt")).isInstanceOf(CachedResource.class);
+  }
+
+  private void store(String filename, String content) {
+    service.store(filename, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String content(Resource resource) throws Exception {
+    return resource.getContentAsString(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,196 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ChunkedUploadServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private FileSystemStorageService storageService;
+
+  private ChunkedUploadService service;
+
+  @BeforeEach
+  public void init() {
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    storageService = new FileSystemStorageService(properties);
+    storageService.init();
+    service = new ChunkedUploadService(storageService, properties);
+  }
+
+  @AfterEach
+  public void close() {
+    service.close();
+    storageService.close();
+  }
+
+  @Test
+  public void assemblesChunksReceivedConcurrentlyAndOutOfOrder() throws Exception {
+    byte[] content = new byte[10_000];
+    new Random().nextBytes(content);
+    ChunkedUploadStatus upload = service.create("foo.bin", content.length, 1024);
+    assertThat(upload.chunkCount()).isEqualTo(10);
+
+    List<Integer> order = IntStream.range(0, 10).map(i -> 9 - i).boxed().toList();
+    order.parallelStream().forEach(index -> {
+      int from = index * 1024;
+      int to = Math.min(from + 1024, content.length);
+      service.writeChunk(upload.id(), index,
+          new ByteArrayInputStream(Arrays.copyOfRange(content, from, to)));
+    });
+    assertThat(service.status(upload.id()).complete()).isTrue();
+
+    service.commit(upload.id());
+    assertThat(Files.readAllBytes(storageService.load("foo.bin"))).isEqualTo(content);
+    assertThat(storageService.loadAll()).extracting(Object::toString).containsExactly("foo.bin");
+    assertThat(storageService.stat("foo.bin").digest()).isEqualTo(sha256(content));
+  }
+
+  @Test
+  public void storesDigestOfChunksHashedAsTheyArrived() throws Exception {
+    byte[] content = new byte[3000];
+    new Random().nextBytes(content);
+    int[][] orders = { { 0, 1, 2 }, { 0, 2, 1 }, { 0, 1, 0, 2 } };
+    for (int i = 0; i < orders.length; i++) {
+      ChunkedUploadStatus upload = service.create("file-" + i + ".bin", content.length, 1024);
+      for (int index : orders[i]) {
+        int from = index * 1024;
+        service.writeChunk(upload.id(), index, new ByteArrayInputStream(
+            Arrays.copyOfRange(content, from, Math.min(from + 1024, content.length))));
+      }
+      service.commit(upload.id());
+
+      assertThat(storageService.stat("file-" + i + ".bin").digest()).isEqualTo(sha256(content));
+    }
+  }
+
+  @Test
+  public void reportsMissingChunks() {
+    ChunkedUploadStatus upload = service.create("foo.bin", 3000, 1024);
+    service.writeChunk(upload.id(), 1, new ByteArrayInputStream(new byte[1024]));
+    assertThat(service.status(upload.id()).receivedChunks()).containsExactly(1);
+    assertThrows(IllegalStateException.class, () -> service.commit(upload.id()));
+  }
+
+  @Test
+  public void rejectsChunkOfWrongLength() {
+    ChunkedUploadStatus upload = service.create("foo.bin", 3000, 1024);
+    assertThrows(IllegalArgumentException.class,
+        () -> service.writeChunk(upload.id(), 2, new ByteArrayInputStream(new byte[1024])));
+    assertThat(service.status(upload.id()).receivedChunks()).isEmpty();
+  }
+
+  @Test
+  public void rejectsInvalidFilenamesAndOversizedUploads() {
+    properties.setMaxUploadSize(DataSize.ofKilobytes(1));
+    service.close();
+    service = new ChunkedUploadService(storageService, properties);
+
+    for (String filename : List.of("../foo.bin", "dir/foo.bin", ".digests")) {
+      assertThatIllegalArgumentException().isThrownBy(() -> service.create(filename, 10, 1024));
+    }
+    assertThatIllegalArgumentException().isThrownBy(() -> service.create("foo.bin", 1025, 1024));
+    assertThat(service.create("foo.bin", 1024, 1024).chunkCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void keepsUploadWhileChunkIsWritten() throws Exception {
+    ChunkedUploadStatus upload = service.create("foo.bin", 2048, 1024);
+    service.writeChunk(upload.id(), 0, new ByteArrayInputStream(new byte[1024]));
+    service.writeChunk(upload.id(), 1, new ByteArrayInputStream(new byte[1024]));
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InputStream slow = new InputStream() {
+
+      private int remaining = 1024;
+
+      @Override
+      public int read() throws IOException {
+        reading.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        return (this.remaining-- > 0 ? 1 : -1);
+      }
+
+    };
+    CompletableFuture<ChunkedUploadStatus> rewrite = CompletableFuture
+        .supplyAsync(() -> service.writeChunk(upload.id(), 1, slow));
+    assertThat(reading.await(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThrows(IllegalStateException.class, () -> service.commit(upload.id()));
+    service.abort(upload.id());
+    assertThat(uploads().resolve(upload.id() + ".part")).exists();
+    assertThrows(StorageFileNotFoundException.class,
+        () -> service.writeChunk(upload.id(), 0, new ByteArrayInputStream(new byte[1024])));
+
+    release.countDown();
+    rewrite.get(10, TimeUnit.SECONDS);
+    assertThat(uploads().resolve(upload.id() + ".part")).doesNotExist();
+    assertThat(storageService.loadAll()).isEmpty();
+  }
+
+  @Test
+  public void dropsIdleUploads() {
+    service.create("foo.bin", 3000, 1024);
+    assertThat(service.expire()).isZero();
+
+    properties.setUploadExpiry(Duration.ZERO);
+    service.close();
+    service = new ChunkedUploadService(storageService, properties);
+    assertThat(uploads()).doesNotExist();
+    ChunkedUploadStatus upload = service.create("foo.bin", 3000, 1024);
+
+    assertThat(service.expire()).isEqualTo(1);
+    assertThrows(StorageFileNotFoundException.class, () -> service.status(upload.id()));
+    assertThat(uploads().resolve(upload.id() + ".part")).doesNotExist();
+  }
+
+  @Test
+  public void dropsUploadsWhenStorageIsCleared() {
+    ChunkedUploadStatus upload = service.create("foo.bin", 3000, 1024);
+
+    service.deleteAll();
+
+    assertThrows(StorageFileNotFoundException.class, () -> service.status(upload.id()));
+    assertThat(uploads()).doesNotExist();
+  }
+
+  private static String sha256(byte[] content) throws Exception {
+    return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+  }
+
+  private Path uploads() {
+    return Paths.get(properties.getLocation(), ".uploads");
+  }
+
+}
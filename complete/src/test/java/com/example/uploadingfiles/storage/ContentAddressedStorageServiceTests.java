@@ -0,0 +1,82 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.core.io.Resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ContentAddressedStorageServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private ContentAddressedStorageService service;
+
+  @BeforeEach
+  public void init() {
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    service = new ContentAddressedStorageService(properties);
+    service.init();
+  }
+
+  @Test
+  public void identicalContentIsStoredOnce() throws Exception {
+    store("foo.txt", "Hello, World");
+    store("bar.txt", "Hello, World");
+    assertThat(service.load("foo.txt")).isEqualTo(service.load("bar.txt"));
+    assertThat(blobCount()).isEqualTo(1);
+    assertThat(service.loadAll()).containsExactly(Paths.get("bar.txt"), Paths.get("foo.txt"));
+  }
+
+  @Test
+  public void unreferencedContentIsRemoved() throws Exception {
+    store("foo.txt", "Hello, World");
+    Path original = service.load("foo.txt");
+    store("foo.txt", "Goodbye, World");
+    assertThat(original).doesNotExist();
+    assertThat(blobCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void loadAsResourceKeepsOriginalFilename() throws Exception {
+    store("foo.txt", "Hello, World");
+    Resource resource = service.loadAsResource("foo.txt");
+    assertThat(resource.getFilename()).isEqualTo("foo.txt");
+    assertThat(resource.getContentAsString(StandardCharsets.UTF_8)).isEqualTo("Hello, World");
+  }
+
+  @Test
+  public void mappingSurvivesRestart() {
+    store("foo.txt", "Hello, World");
+    service = new ContentAddressedStorageService(properties);
+    service.init();
+    assertThat(service.loadAll()).containsExactly(Paths.get("foo.txt"));
+    assertThat(service.load("foo.txt")).exists();
+  }
+
+  @Test
+  public void saveRelativePathNotPermitted() {
+    assertThrows(StorageException.class, () -> store("../foo.txt", "Hello, World"));
+  }
+
+  private void store(String filename, String content) {
+    service.store(filename, new ByteArrayInputStream(content.getBytes()));
+  }
+
+  private long blobCount() throws Exception {
+    try (Stream<Path> files = Files.walk(Paths.get(properties.getLocation(), "blobs"))) {
+      return files.filter(Files::isRegularFile).count();
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+public class FileMetadataStoreTests {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+  private final Path journal = Paths.get("target/files/" + Math.abs(new Random().nextLong()) + ".metadata");
+
+  private FileMetadataStore store;
+
+  @BeforeEach
+  public void init() {
+    store = new FileMetadataStore(journal, false);
+  }
+
+  @AfterEach
+  public void close() throws IOException {
+    store.close();
+  }
+
+  @Test
+  public void findsLargeFilesStoredAfterTimeBySize() {
+    for (int i = 0; i < 100; i++) {
+      store.stored(new FileStoredEvent(file("file-" + i + ".txt", (i * 37) % 100, NOW.plusSeconds(i))));
+    }
+
+    List<FileDetails> found = store.query(new FileQuery(50L, null, NOW.plusSeconds(49), null, null, null,
+        FileQuery.Sort.SIZE, false, 10));
+
+    assertThat(found).hasSize(10).allSatisfy(details -> {
+      assertThat(details.file().size()).isGreaterThanOrEqualTo(50);
+      assertThat(details.file().lastModified()).isAfter(NOW.plusSeconds(49));
+    });
+    assertThat(found).extracting(details -> details.file().size()).isSorted();
+    assertThat(store.query(new FileQuery(null, 3L, null, null, null, null, FileQuery.Sort.LAST_MODIFIED, true, 100)))
+        .extracting(details -> details.file().filename())
+        .containsExactly("file-73.txt", "file-46.txt", "file-19.txt", "file-0.txt");
+  }
+
+  @Test
+  public void filtersByContentTypeAndUploader() {
+    store.stored(new FileStoredEvent(new StoredFile("a.png", 1, NOW, "image/png", "1")));
+    store.stored(new FileStoredEvent(new StoredFile("b.txt", 2, NOW, "text/plain", "2")));
+
+    assertThat(store.query(new FileQuery(null, null, null, null, "image/", null, FileQuery.Sort.NAME, false, 10)))
+        .extracting(details -> details.file().filename()).containsExactly("a.png");
+    assertThat(store.query(new FileQuery(null, null, null, null, null, "someone", FileQuery.Sort.NAME, false, 10)))
+        .isEmpty();
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> store.query(new FileQuery(null, null, null, null, null, null, FileQuery.Sort.NAME, false, 0)));
+  }
+
+  @Test
+  public void keepsLatestEntryOfEachFileAcrossRestarts() throws IOException {
+    StoredFile first = file("foo.txt", 3, NOW);
+    store.stored(new FileStoredEvent(first));
+    store.put(first, "words", Map.of("count", "1"));
+    StoredFile second = new StoredFile("foo.txt", 5, NOW.plusSeconds(1), "text/plain", "other");
+    store.stored(new FileStoredEvent(second));
+    store.put(second, "words", Map.of("count", "2"));
+    store.close();
+
+    store = new FileMetadataStore(journal, false);
+
+    assertThat(store.get(first)).isEmpty();
+    assertThat(store.get(second)).isEqualTo(Map.of("words", Map.of("count", "2")));
+    assertThat(store.query(new FileQuery(4L, null, null, null, null, null, FileQuery.Sort.SIZE, false, 10)))
+        .extracting(FileDetails::file).containsExactly(second);
+    assertThat(store.query(new FileQuery(null, 4L, null, null, null, null, FileQuery.Sort.SIZE, false, 10)))
+        .isEmpty();
+  }
+
+  @Test
+  public void discardsTornRecordAtEndOfJournal() throws IOException {
+    store.stored(new FileStoredEvent(file("foo.txt", 3, NOW)));
+    store.stored(new FileStoredEvent(file("bar.txt", 4, NOW)));
+    store.close();
+    long size = Files.size(journal);
+    try (var channel = Files.newByteChannel(journal, StandardOpenOption.WRITE)) {
+      channel.truncate(size - 5);
+    }
+
+    store = new FileMetadataStore(journal, false);
+    store.stored(new FileStoredEvent(file("baz.txt", 5, NOW)));
+    store.close();
+    store = new FileMetadataStore(journal, false);
+
+    assertThat(store.query(new FileQuery(null, null, null, null, null, null, FileQuery.Sort.NAME, false, 10)))
+        .extracting(details -> details.file().filename()).containsExactly("baz.txt", "foo.txt");
+  }
+
+  @Test
+  public void forgetsDeletedFilesAcrossRestarts() throws IOException {
+    store.stored(new FileStoredEvent(file("foo.txt", 3, NOW)));
+    store.stored(new FileStoredEvent(file("bar.txt", 4, NOW)));
+
+    store.deleted(new FileDeletedEvent("foo.txt"));
+    store.deleted(new FileDeletedEvent("unknown.txt"));
+    assertThat(store.query(new FileQuery(null, null, null, null, null, null, FileQuery.Sort.SIZE, false, 10)))
+        .extracting(details -> details.file().filename()).containsExactly("bar.txt");
+    store.close();
+    store = new FileMetadataStore(journal, false);
+
+    assertThat(store.query(new FileQuery(null, null, null, null, null, null, FileQuery.Sort.NAME, false, 10)))
+        .extracting(details -> details.file().filename()).containsExactly("bar.txt");
+  }
+
+  @Test
+  public void forgetsEverythingWhenStorageIsCleared() throws IOException {
+    store.stored(new FileStoredEvent(file("foo.txt", 3, NOW)));
+
+    store.clear();
+    store.close();
+    store = new FileMetadataStore(journal, false);
+
+    assertThat(store.query(new FileQuery(null, null, null, null, null, null, FileQuery.Sort.NAME, false, 10)))
+        .isEmpty();
+  }
+
+  private static StoredFile file(String filename, long size, Instant lastModified) {
+    return new StoredFile(filename, size, lastModified, "text/plain", filename);
+  }
+
+}
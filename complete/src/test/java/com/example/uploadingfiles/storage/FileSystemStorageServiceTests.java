@@ -15,9 +15,22 @@
  */
 package com.example.uploadingfiles.storage;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -27,12 +40,15 @@ import org.junit.jupiter.api.condition.EnabledOnOs;
 import org.junit.jupiter.api.condition.OS;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class FileSystemStorageServiceTests {
 
+  private static final String HELLO_DIGEST = "03675ac53ff9cd1535ccc7dfcdfa2c458c5218371f418dc136f2d19ac1fbe8a5";
+
   private StorageProperties properties = new StorageProperties();
 
   private FileSystemStorageService service;
@@ -53,6 +69,42 @@ public class FileSystemStorageServiceTests {
     });
     }
 
+  @Test
+  public void scrubMovesCorruptFilesAside() throws Exception {
+    properties.setWatchForChanges(false);
+    service = new FileSystemStorageService(properties);
+    service.init();
+    List<String> removed = new CopyOnWriteArrayList<>();
+    service.setRemovalListener(removed::add);
+    service.store("good.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    service.store("bad.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    Path bad = service.load("bad.txt");
+    FileTime modified = Files.getLastModifiedTime(bad);
+    Files.writeString(bad, "Hello, Wordl");
+    Files.setLastModifiedTime(bad, modified);
+
+    assertThat(service.scrub()).isEqualTo(1);
+
+    assertThat(service.load("good.txt")).exists();
+    assertThat(bad).doesNotExist();
+    assertThat(Paths.get(properties.getLocation(), ".corrupt", "bad.txt")).hasContent("Hello, Wordl");
+    assertThrows(StorageFileNotFoundException.class, () -> service.describe("bad.txt"));
+    assertThat(removed).containsExactly("bad.txt");
+    assertThat(service.scrub()).isZero();
+  }
+
+  @Test
+  public void scrubReadsNoFasterThanRate() {
+    properties.setScrubRate(DataSize.ofKilobytes(64));
+    service = new FileSystemStorageService(properties);
+    service.init();
+    service.store("large.bin", new ByteArrayInputStream(new byte[32 * 1024]));
+
+    long start = System.nanoTime();
+    assertThat(service.scrub()).isZero();
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(450_000_000L);
+  }
+
   @Test
   public void loadNonExistent() {
     assertThat(service.load("foo.txt")).doesNotExist();
@@ -81,6 +133,17 @@ public class FileSystemStorageServiceTests {
     });
   }
 
+  @Test
+  public void saveReservedNameNotPermitted() {
+    for (String name : new String[] { ".digests", ".variants", ".incoming", ".uploads", ".corrupt",
+        ".recalls" }) {
+      assertThrows(StorageException.class,
+          () -> service.store(name, new ByteArrayInputStream("Hello, World".getBytes())));
+    }
+    service.store("foo.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    assertThat(service.describe("foo.txt").digest()).isEqualTo(HELLO_DIGEST);
+  }
+
   @Test
   @EnabledOnOs({OS.LINUX})
   public void saveAbsolutePathInFilenamePermitted() {
@@ -98,4 +161,221 @@ public class FileSystemStorageServiceTests {
         MediaType.TEXT_PLAIN_VALUE, "Hello, World".getBytes()));
   }
 
+  @Test
+  public void loadAllListsStoredFiles() {
+    service.store(new MockMultipartFile("foo", "foo.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    service.store(new MockMultipartFile("bar", "bar.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    assertThat(service.loadAll()).containsExactly(Paths.get("bar.txt"), Paths.get("foo.txt"));
+  }
+
+  @Test
+  public void listPagesThroughFilesByName() {
+    for (String name : new String[] { "c.txt", "a.txt", "b.txt" }) {
+      service.store(new MockMultipartFile("foo", name, MediaType.TEXT_PLAIN_VALUE,
+          "Hello, World".getBytes()));
+    }
+    FilePage first = service.list(2, null, FileSort.NAME);
+    assertThat(first.files()).extracting(StoredFile::filename).containsExactly("a.txt", "b.txt");
+    FilePage second = service.list(2, first.nextCursor(), FileSort.NAME);
+    assertThat(second.files()).extracting(StoredFile::filename).containsExactly("c.txt");
+    assertThat(second.nextCursor()).isNull();
+  }
+
+  @Test
+  public void listPagesThroughFilesByLastModified() throws Exception {
+    Path root = Paths.get(properties.getLocation());
+    for (String name : new String[] { "c.txt", "a.txt", "b.txt" }) {
+      service.store(new MockMultipartFile("foo", name, MediaType.TEXT_PLAIN_VALUE,
+          "Hello, World".getBytes()));
+    }
+    Files.setLastModifiedTime(root.resolve("c.txt"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(root.resolve("a.txt"), FileTime.fromMillis(2000));
+    Files.setLastModifiedTime(root.resolve("b.txt"), FileTime.fromMillis(3000));
+    service.init();
+    FilePage first = service.list(1, null, FileSort.LAST_MODIFIED);
+    assertThat(first.files()).extracting(StoredFile::filename).containsExactly("c.txt");
+    FilePage rest = service.list(5, first.nextCursor(), FileSort.LAST_MODIFIED);
+    assertThat(rest.files()).extracting(StoredFile::filename).containsExactly("a.txt", "b.txt");
+  }
+
+  @Test
+  public void storeSpreadsFilesOverShardDirectories() {
+    properties.setShardDepth(2);
+    service = new FileSystemStorageService(properties);
+    service.init();
+    service.store(new MockMultipartFile("foo", "foo.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    Path stored = service.load("foo.txt");
+    assertThat(stored).exists();
+    assertThat(Paths.get(properties.getLocation()).relativize(stored).getNameCount()).isEqualTo(3);
+    assertThat(service.loadAll()).containsExactly(Paths.get("foo.txt"));
+  }
+
+  @Test
+  public void migrateLayoutMovesFlatFilesIntoShards() {
+    service.store(new MockMultipartFile("foo", "foo.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    properties.setShardDepth(1);
+    properties.setMigrateLayout(true);
+    service = new FileSystemStorageService(properties);
+    service.init();
+    assertThat(Paths.get(properties.getLocation(), "foo.txt")).doesNotExist();
+    assertThat(service.load("foo.txt")).exists();
+    assertThat(service.loadAll()).containsExactly(Paths.get("foo.txt"));
+  }
+
+  @Test
+  public void loadAllReflectsChangesMadeOutsideTheService() throws Exception {
+    List<String> removed = new CopyOnWriteArrayList<>();
+    service.setRemovalListener(removed::add);
+    Path root = Paths.get(properties.getLocation());
+    Files.writeString(root.resolve("external.txt"), "Hello, World");
+    waitUntil(() -> service.loadAll().anyMatch(Paths.get("external.txt")::equals));
+    Files.delete(root.resolve("external.txt"));
+    waitUntil(() -> service.loadAll().findAny().isEmpty() && !removed.isEmpty());
+    assertThat(removed).containsExactly("external.txt");
+  }
+
+  @Test
+  public void digestIsRecordedAtStoreAndPersisted() {
+    service.store(new MockMultipartFile("foo", "foo.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    assertThat(service.describe("foo.txt").digest()).isEqualTo(HELLO_DIGEST);
+    assertThat(Paths.get(properties.getLocation(), ContentDigests.DIRECTORY, "foo.txt")).exists();
+
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+    assertThat(service.describe("foo.txt").digest()).isEqualTo(HELLO_DIGEST);
+  }
+
+  @Test
+  public void digestIsRecomputedForFilesChangedOutsideTheService() throws Exception {
+    properties.setWatchForChanges(false);
+    service.store(new MockMultipartFile("foo", "foo.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    Path file = service.load("foo.txt");
+    Files.writeString(file, "Goodbye");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+    assertThat(service.describe("foo.txt").digest())
+        .isEqualTo("c015ad6ddaf8bb50689d2d7cbf1539dff6dd84473582a08ed1d15d841f4254f4");
+  }
+
+  @Test
+  public void compressibleFilesGetGzipVariant() throws Exception {
+    properties.setCompressDownloads(true);
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+    service.store(new MockMultipartFile("foo", "foo.txt", MediaType.TEXT_PLAIN_VALUE,
+        "Hello, World".getBytes()));
+    service.store(new MockMultipartFile("foo", "foo.png", MediaType.IMAGE_PNG_VALUE,
+        "Goodbye".getBytes()));
+
+    StoredFile stored = service.describe("foo.txt");
+    waitUntil(() -> service.loadPrecompressed(stored, "gzip") != null);
+    try (InputStream in = new GZIPInputStream(service.loadPrecompressed(stored, "gzip").getInputStream())) {
+      assertThat(in.readAllBytes()).isEqualTo("Hello, World".getBytes());
+    }
+    assertThat(service.loadPrecompressed(service.describe("foo.png"), "gzip")).isNull();
+  }
+
+  @Test
+  public void sharedGzipVariantIsKeptUntilNoFileHasItsContent() throws Exception {
+    properties.setCompressDownloads(true);
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+    service.store("foo.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    service.store("bar.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    StoredFile stored = service.describe("bar.txt");
+    waitUntil(() -> service.loadPrecompressed(stored, "gzip") != null);
+    Path variant = service.loadPrecompressed(stored, "gzip").getFile().toPath();
+
+    service.store("foo.txt", new ByteArrayInputStream("Goodbye".getBytes()));
+    service.scrub();
+    assertThat(service.loadPrecompressed(service.describe("bar.txt"), "gzip")).isNotNull();
+
+    service.store("bar.txt", new ByteArrayInputStream("Goodbye".getBytes()));
+    assertThat(variant).exists();
+    service.scrub();
+    assertThat(variant).doesNotExist();
+  }
+
+  @Test
+  public void concurrentUploadsOfSameNameLeaveOneCompleteFile() throws Exception {
+    properties.setFsync(true);
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+    List<String> contents = IntStream.range(0, 16).mapToObj(i -> String.valueOf(i).repeat(10_000)).toList();
+
+    contents.parallelStream().forEach(content -> service.store("foo.txt",
+        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))));
+
+    String stored = Files.readString(service.load("foo.txt"));
+    assertThat(contents).contains(stored);
+    assertThat(service.describe("foo.txt").digest()).isEqualTo(HexFormat.of()
+        .formatHex(MessageDigest.getInstance("SHA-256").digest(stored.getBytes(StandardCharsets.UTF_8))));
+    try (Stream<Path> incoming = Files.list(Paths.get(properties.getLocation(), ".incoming"))) {
+      assertThat(incoming).isEmpty();
+    }
+  }
+
+  @Test
+  public void deleteAllMovesFilesToTrashAndDeletesThemInBackground() throws Exception {
+    properties.setShardDepth(2);
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+    for (int i = 0; i < 100; i++) {
+      service.store("file-" + i + ".txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    }
+
+    service.deleteAll();
+
+    assertThat(Paths.get(properties.getLocation())).doesNotExist();
+    assertThat(service.loadAll()).isEmpty();
+    Path trash = Paths.get(properties.getLocation() + ".trash");
+    waitUntil(() -> {
+      try (Stream<Path> discarded = Files.list(trash)) {
+        return discarded.findAny().isEmpty();
+      }
+      catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    service.init();
+    service.store("foo.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    assertThat(service.loadAll()).containsExactly(Paths.get("foo.txt"));
+  }
+
+  @Test
+  public void indexInBackgroundFindsFilesBeforeIndexIsComplete() throws Exception {
+    service.store("foo.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    service.store("bar.txt", new ByteArrayInputStream("Goodbye".getBytes()));
+    properties.setIndexInBackground(true);
+    service.close();
+    service = new FileSystemStorageService(properties);
+    service.init();
+
+    assertThat(service.describe("foo.txt").digest()).isEqualTo(HELLO_DIGEST);
+    waitUntil(() -> service.loadAll().count() == 2);
+    assertThat(service.loadAll()).containsExactlyInAnyOrder(Paths.get("foo.txt"), Paths.get("bar.txt"));
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for index update");
+      Thread.sleep(20);
+    }
+  }
+
 }
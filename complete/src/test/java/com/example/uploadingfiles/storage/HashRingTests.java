@@ -0,0 +1,54 @@
+package com.example.uploadingfiles.storage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashRingTests {
+
+  private static final List<String> NODES = List.of("http://a", "http://b", "http://c");
+
+  @Test
+  public void placesFilesOnDistinctNodes() {
+    HashRing ring = new HashRing(NODES, 64);
+
+    List<String> replicas = ring.replicas("foo.txt", 2);
+
+    assertThat(replicas).hasSize(2).doesNotHaveDuplicates().isSubsetOf(NODES);
+    assertThat(new HashRing(List.of("http://c", "http://a", "http://b"), 64).replicas("foo.txt", 2))
+        .isEqualTo(replicas);
+    assertThat(ring.replicas("foo.txt", 5)).containsExactlyInAnyOrderElementsOf(NODES);
+  }
+
+  @Test
+  public void spreadsFilesEvenly() {
+    HashRing ring = new HashRing(NODES, 128);
+    Map<String, Integer> owned = new HashMap<>();
+
+    IntStream.range(0, 3000).forEach(i -> owned.merge(ring.replicas("file-" + i, 1).get(0), 1, Integer::sum));
+
+    assertThat(owned.values()).allSatisfy(count -> assertThat(count).isBetween(700, 1300));
+  }
+
+  @Test
+  public void joiningNodeOnlyTakesFilesOverFromOthers() {
+    HashRing ring = new HashRing(NODES, 128);
+    Map<String, String> before = new HashMap<>();
+    IntStream.range(0, 3000).forEach(i -> before.put("file-" + i, ring.replicas("file-" + i, 1).get(0)));
+
+    assertThat(ring.add("http://d")).isTrue();
+    assertThat(ring.add("http://d")).isFalse();
+
+    long moved = before.entrySet().stream()
+        .filter(file -> !ring.replicas(file.getKey(), 1).get(0).equals(file.getValue()))
+        .peek(file -> assertThat(ring.replicas(file.getKey(), 1)).containsExactly("http://d"))
+        .count();
+    assertThat(moved).isBetween(500L, 1000L);
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InstrumentedStorageServiceTests {
+
+  private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private InstrumentedStorageService service;
+
+  @BeforeEach
+  public void init() {
+    StorageProperties properties = new StorageProperties();
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    properties.setWatchForChanges(false);
+    service = new InstrumentedStorageService(new FileSystemStorageService(properties), registry);
+    service.init();
+  }
+
+  @Test
+  public void recordsStoredBytesAndLoadOutcomes() {
+    service.store("foo.txt", new ByteArrayInputStream(new byte[1000]));
+    service.loadAsResource("foo.txt");
+    assertThrows(StorageFileNotFoundException.class, () -> service.loadAsResource("bar.txt"));
+
+    assertThat(registry.get("storage.store").tag("outcome", "success").timer().count()).isEqualTo(1);
+    assertThat(registry.get("storage.store.bytes").summary().totalAmount()).isEqualTo(1000);
+    assertThat(registry.get("storage.uploads.active").gauge().value()).isZero();
+    assertThat(registry.get("storage.load").tag("result", "hit").timer().count()).isEqualTo(1);
+    assertThat(registry.get("storage.load").tag("result", "miss").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void countsScannedEntriesAndFailures() {
+    service.store("foo.txt", new ByteArrayInputStream(new byte[1]));
+    service.store("bar.txt", new ByteArrayInputStream(new byte[1]));
+    try (Stream<Path> files = service.loadAll()) {
+      assertThat(registry.find("storage.scan").timer()).isNull();
+      assertThat(files).hasSize(2);
+    }
+    assertThrows(StorageException.class,
+        () -> service.store("../foo.txt", new ByteArrayInputStream(new byte[1])));
+
+    assertThat(registry.get("storage.scan.entries").counter().count()).isEqualTo(2);
+    assertThat(registry.get("storage.scan").tag("outcome", "success").timer().count()).isEqualTo(1);
+    assertThat(registry.get("storage.errors").tag("operation", "store")
+        .tag("exception", "StorageException").counter().count()).isEqualTo(1);
+  }
+
+}
@@ -0,0 +1,87 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappingStorageServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private FileSystemStorageService backend;
+
+  private MappingStorageService service;
+
+  @BeforeEach
+  public void init() {
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    properties.setWatchForChanges(false);
+    properties.setMapThreshold(DataSize.ofBytes(8));
+    backend = new FileSystemStorageService(properties);
+    service = new MappingStorageService(backend, properties, registry);
+    service.init();
+  }
+
+  @Test
+  public void concurrentReadersShareOneMapping() throws Exception {
+    store("foo.txt", "Hello, World");
+    store("tiny.txt", "Hi");
+
+    try (MappedResource first = (MappedResource) service.loadAsResource("foo.txt");
+        MappedResource second = (MappedResource) service.loadAsResource("foo.txt")) {
+      assertThat(read(first, 0, 12)).isEqualTo("Hello, World");
+      assertThat(read(second, 7, 5)).isEqualTo("World");
+      assertThat(registry.get("storage.mapped.files").gauge().value()).isEqualTo(1);
+    }
+    assertThat(service.loadAsResource("tiny.txt")).isNotInstanceOf(MappedResource.class);
+  }
+
+  @Test
+  public void readersKeepTheirMappingWhenFileIsOverwritten() throws Exception {
+    store("foo.txt", "Hello, World");
+
+    try (MappedResource before = (MappedResource) service.loadAsResource("foo.txt")) {
+      store("foo.txt", "Goodbye, World");
+      assertThat(read(before, 0, 12)).isEqualTo("Hello, World");
+      try (MappedResource after = (MappedResource) service.loadAsResource("foo.txt")) {
+        assertThat(read(after, 0, 14)).isEqualTo("Goodbye, World");
+        assertThat(after.getContentAsString(StandardCharsets.UTF_8)).isEqualTo("Goodbye, World");
+      }
+    }
+  }
+
+  @Test
+  public void deletedFilesAreUnmapped() throws Exception {
+    backend.setRemovalListener(filename -> service.deleted(new FileDeletedEvent(filename)));
+    store("foo.txt", "Hello, World");
+    ((MappedResource) service.loadAsResource("foo.txt")).close();
+    assertThat(registry.get("storage.mapped.files").gauge().value()).isEqualTo(1);
+
+    assertThat(backend.evict(backend.describe("foo.txt"))).isTrue();
+    assertThat(registry.get("storage.mapped.files").gauge().value()).isZero();
+    assertThat(registry.get("storage.mapped.bytes").gauge().value()).isZero();
+  }
+
+  private void store(String filename, String content) {
+    service.store(filename, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String read(MappedResource resource, long position, long count) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    resource.transferTo(position, count, Channels.newChannel(out));
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+}
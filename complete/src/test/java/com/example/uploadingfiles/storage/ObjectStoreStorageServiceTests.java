@@ -0,0 +1,171 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ObjectStoreStorageServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private S3StandIn objectStore;
+
+  private ObjectStoreStorageService service;
+
+  @BeforeEach
+  public void init() throws IOException {
+    objectStore = new S3StandIn();
+    properties.setS3Endpoint(objectStore.endpoint());
+    properties.setS3AccessKey(S3StandIn.ACCESS_KEY);
+    properties.setS3SecretKey(S3StandIn.SECRET_KEY);
+    properties.setS3PartSize(DataSize.ofKilobytes(64));
+    properties.setS3Parallelism(3);
+    service = new ObjectStoreStorageService(properties);
+    service.init();
+  }
+
+  @AfterEach
+  public void close() {
+    objectStore.close();
+  }
+
+  @Test
+  public void storesSmallFileInOneRequest() throws Exception {
+    service.store("foo.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+
+    assertThat(objectStore.requests("PutObject")).isEqualTo(2);
+    assertThat(objectStore.requests("CreateMultipartUpload")).isZero();
+    StoredFile file = service.describe("foo.txt");
+    assertThat(file.filename()).isEqualTo("foo.txt");
+    assertThat(file.size()).isEqualTo(12);
+    assertThat(file.contentType()).isEqualTo("text/plain");
+    assertThat(file.digest()).isEqualTo(AwsV4Signer.sha256Hex("Hello, World".getBytes()));
+    try (InputStream in = service.loadAsResource("foo.txt").getInputStream()) {
+      assertThat(new String(in.readAllBytes())).isEqualTo("Hello, World");
+    }
+  }
+
+  @Test
+  public void storesAndReadsLargeFileInParallelParts() throws Exception {
+    byte[] content = random(300 * 1024 + 17);
+    service.store("large.bin", new ByteArrayInputStream(content));
+
+    assertThat(objectStore.requests("UploadPart")).isEqualTo(5);
+    assertThat(objectStore.pendingUploads()).isZero();
+    assertThat(objectStore.content(properties.getS3Bucket(), "files/large.bin")).isEqualTo(content);
+    assertThat(service.describe("large.bin").digest()).isEqualTo(AwsV4Signer.sha256Hex(content));
+    try (InputStream in = service.loadAsResource("large.bin").getInputStream()) {
+      assertThat(in.readAllBytes()).isEqualTo(content);
+    }
+    assertThat(objectStore.requests("GetRange")).isEqualTo(5);
+  }
+
+  @Test
+  public void skippingDoesNotFetchSkippedParts() throws Exception {
+    byte[] content = random(300 * 1024);
+    service.store("large.bin", new ByteArrayInputStream(content));
+
+    try (InputStream in = service.loadAsResource("large.bin").getInputStream()) {
+      assertThat(in.read()).isEqualTo(content[0] & 0xff);
+      assertThat(in.skip(256 * 1024)).isEqualTo(256 * 1024);
+      assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 256 * 1024 + 1, content.length));
+    }
+    assertThat(objectStore.requests("GetRange")).isLessThanOrEqualTo(5);
+  }
+
+  @Test
+  public void failedReadOfReplacedFile() throws Exception {
+    service.store("large.bin", new ByteArrayInputStream(random(300 * 1024)));
+
+    try (InputStream in = service.loadAsResource("large.bin").getInputStream()) {
+      in.read();
+      service.store("large.bin", new ByteArrayInputStream(random(300 * 1024)));
+      assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+    }
+  }
+
+  @Test
+  public void describesFileWrittenByOthers() throws Exception {
+    service.store("foo.txt", new ByteArrayInputStream("Hello, World".getBytes()));
+    service.store("bar.txt", new ByteArrayInputStream("Goodbye".getBytes()));
+    StoredFile bar = service.describe("bar.txt");
+
+    // Overwrite foo.txt's object without updating its digest
+    S3Client client = new S3Client(URI.create(objectStore.endpoint()), properties.getS3Bucket(),
+        new AwsV4Signer(S3StandIn.ACCESS_KEY, S3StandIn.SECRET_KEY, S3StandIn.REGION, "s3"),
+        HttpClient.newHttpClient());
+    client.putObject("files/foo.txt", "Goodbye".getBytes(), 0, 7);
+
+    assertThat(service.describe("foo.txt").digest()).isEqualTo(bar.digest());
+  }
+
+  @Test
+  public void listsPagesByName() {
+    Stream.of("c.txt", "a.txt", "b.txt", "d.txt")
+        .forEach(name -> service.store(name, new ByteArrayInputStream(name.getBytes())));
+
+    FilePage first = service.list(3, null, FileSort.NAME);
+    assertThat(first.files()).extracting(StoredFile::filename).containsExactly("a.txt", "b.txt", "c.txt");
+    FilePage second = service.list(3, first.nextCursor(), FileSort.NAME);
+    assertThat(second.files()).extracting(StoredFile::filename).containsExactly("d.txt");
+    assertThat(second.nextCursor()).isNull();
+    assertThat(service.list(10, null, FileSort.LAST_MODIFIED).files()).hasSize(4);
+    assertThat(service.loadAll()).containsExactly(Paths.get("a.txt"), Paths.get("b.txt"), Paths.get("c.txt"),
+        Paths.get("d.txt"));
+  }
+
+  @Test
+  public void deleteAllRemovesEveryObject() {
+    Stream.of("a.txt", "b.txt").forEach(name -> service.store(name, new ByteArrayInputStream(name.getBytes())));
+
+    service.deleteAll();
+
+    assertThat(objectStore.keys(properties.getS3Bucket())).isEmpty();
+    assertThat(service.loadAll()).isEmpty();
+    assertThatThrownBy(() -> service.describe("a.txt")).isInstanceOf(StorageFileNotFoundException.class);
+  }
+
+  @Test
+  public void rejectsFilesOutsideBucketPrefix() {
+    assertThatThrownBy(() -> service.store("../foo.txt", new ByteArrayInputStream(new byte[0])))
+        .isInstanceOf(StorageException.class);
+    assertThat(objectStore.keys(properties.getS3Bucket())).isEmpty();
+  }
+
+  @Test
+  public void signsRequestsAsAws() {
+    AwsV4Signer signer = new AwsV4Signer("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY",
+        "us-east-1", "service");
+    String authorization = signer.authorization("GET", "/", Map.of(),
+        Map.of("host", "example.amazonaws.com", "x-amz-date", "20150830T123600Z"),
+        AwsV4Signer.EMPTY_PAYLOAD_HASH, Instant.parse("2015-08-30T12:36:00Z"));
+
+    assertThat(authorization).isEqualTo("AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/20150830/us-east-1/service/"
+        + "aws4_request, SignedHeaders=host;x-amz-date, "
+        + "Signature=5fa00fa31553b73ebf1942676e86291e8372ff2a2260956d9b8aae1d763fbf31");
+  }
+
+  private static byte[] random(int size) {
+    byte[] content = new byte[size];
+    new Random().nextBytes(content);
+    return content;
+  }
+
+}
@@ -0,0 +1,46 @@
+package com.example.uploadingfiles.storage;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OnBackendConditionTests {
+
+  private final ApplicationContextRunner runner = new ApplicationContextRunner()
+      .withUserConfiguration(BackendConfiguration.class);
+
+  @Test
+  public void matchesEverySpellingOfTheBackend() {
+    for (String value : new String[] { "CONTENT_ADDRESSED", "content-addressed", "content_addressed" }) {
+      this.runner.withPropertyValues("storage.backend=" + value)
+          .run(context -> assertThat(context).hasBean("contentAddressed").doesNotHaveBean("filesystem"));
+    }
+  }
+
+  @Test
+  public void matchesFileSystemWhenNotSet() {
+    this.runner.run(context -> assertThat(context).hasBean("filesystem").doesNotHaveBean("contentAddressed"));
+  }
+
+  @Configuration(proxyBeanMethods = false)
+  static class BackendConfiguration {
+
+    @Bean
+    @ConditionalOnBackend(StorageProperties.Backend.FILESYSTEM)
+    String filesystem() {
+      return "filesystem";
+    }
+
+    @Bean
+    @ConditionalOnBackend(StorageProperties.Backend.CONTENT_ADDRESSED)
+    String contentAddressed() {
+      return "content-addressed";
+    }
+
+  }
+
+}
@@ -0,0 +1,203 @@
+package com.example.uploadingfiles.storage;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.Resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProcessingPipelineTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private FileMetadataStore metadataStore;
+
+  private FileSystemStorageService backend;
+
+  private ProcessingPipeline pipeline;
+
+  private StorageService service;
+
+  @BeforeEach
+  public void init() {
+    properties.setLocation("target/files/" + Math.abs(new Random().nextLong()));
+    properties.setWatchForChanges(false);
+    metadataStore = new FileMetadataStore(properties);
+    backend = new FileSystemStorageService(properties);
+    backend.init();
+  }
+
+  @AfterEach
+  public void close() throws IOException {
+    if (pipeline != null) {
+      pipeline.close();
+    }
+    metadataStore.close();
+  }
+
+  @Test
+  public void recordsWhatEachStageFindsOut() throws Exception {
+    start(new TestProcessor("length", content -> Map.of("characters", Integer.toString(content.length()))),
+        new TestProcessor("words", content -> Map.of("first", content.split(",")[0])));
+
+    store("foo.txt", "Hello, World".getBytes(StandardCharsets.UTF_8));
+
+    Map<String, Map<String, String>> metadata = awaitMetadata("foo.txt", 2);
+    assertThat(metadata).containsEntry("length", Map.of("characters", "12"))
+        .containsEntry("words", Map.of("first", "Hello"));
+    // Timed once the results are recorded
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (registry.find("storage.pipeline.process").tag("stage", "words").timer() == null
+        && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(registry.get("storage.pipeline.process").tag("stage", "words").tag("outcome", "success")
+        .timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void resultsAreDroppedWhenContentChanges() throws Exception {
+    start(new TestProcessor("length", content -> Map.of("characters", Integer.toString(content.length()))));
+    store("foo.txt", "Hello, World".getBytes(StandardCharsets.UTF_8));
+    awaitMetadata("foo.txt", 1);
+
+    backend.store("foo.txt", new ByteArrayInputStream("Bye".getBytes(StandardCharsets.UTF_8)));
+
+    assertThat(metadataStore.get(backend.describe("foo.txt"))).isEmpty();
+  }
+
+  @Test
+  public void storesWaitWhenAStageFallsBehind() throws Exception {
+    properties.setPipelineQueueCapacity(1);
+    properties.setPipelineWorkers(1);
+    CountDownLatch release = new CountDownLatch(1);
+    start(new TestProcessor("slow", content -> {
+      try {
+        release.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return Map.of();
+    }));
+
+    Thread uploader = new Thread(() -> {
+      for (int i = 0; i < 3; i++) {
+        store("file-" + i + ".txt", "content".getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    uploader.start();
+    // One file being processed, one queued, the third upload waits for room
+    uploader.join(500);
+    assertThat(uploader.isAlive()).isTrue();
+
+    release.countDown();
+    uploader.join(5000);
+    assertThat(uploader.isAlive()).isFalse();
+  }
+
+  @Test
+  public void localFilesArePublishedWithoutHashingThem() throws Exception {
+    start(new TestProcessor("length", content -> Map.of("characters", Integer.toString(content.length()))));
+    List<StoredFile> published = new ArrayList<>();
+    StorageService publishing = new EventPublishingStorageService(backend, event -> {
+      if (event instanceof FileStoredEvent stored) {
+        published.add(stored.file());
+        pipeline.onFileStored(stored);
+      }
+    });
+    Path file = Files.createTempFile(Paths.get(properties.getLocation()), "upload", ".tmp");
+    Files.writeString(file, "Hello, World");
+
+    publishing.store("foo.txt", file);
+
+    assertThat(published).singleElement().satisfies(stored -> {
+      assertThat(stored.size()).isEqualTo(12);
+      assertThat(stored.digest()).isNull();
+    });
+    assertThat(awaitMetadata("foo.txt", 1)).containsEntry("length", Map.of("characters", "12"));
+  }
+
+  @Test
+  public void recordsImageDimensions() throws Exception {
+    start(new ImageDimensionsProcessor());
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB), "png", png);
+
+    store("pixel.png", png.toByteArray());
+
+    assertThat(awaitMetadata("pixel.png", 1).get("image")).containsEntry("width", "32")
+        .containsEntry("height", "16").containsEntry("format", "png");
+  }
+
+  private void start(FileProcessor... processors) {
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    for (FileProcessor processor : processors) {
+      beanFactory.addBean(processor.name(), processor);
+    }
+    beanFactory.addBean("meterRegistry", registry);
+    pipeline = new ProcessingPipeline(backend, metadataStore, beanFactory.getBeanProvider(FileProcessor.class),
+        properties, beanFactory.getBeanProvider(MeterRegistry.class));
+    service = new EventPublishingStorageService(backend, event -> {
+      if (event instanceof FileStoredEvent stored) {
+        pipeline.onFileStored(stored);
+      }
+    });
+  }
+
+  private void store(String filename, byte[] content) {
+    service.store(filename, new ByteArrayInputStream(content));
+  }
+
+  private Map<String, Map<String, String>> awaitMetadata(String filename, int stages) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    Map<String, Map<String, String>> metadata = Map.of();
+    while (System.nanoTime() < deadline) {
+      metadata = metadataStore.get(backend.describe(filename));
+      if (metadata.size() == stages) {
+        break;
+      }
+      Thread.sleep(10);
+    }
+    return metadata;
+  }
+
+  private record TestProcessor(String name, Function<String, Map<String, String>> function)
+      implements FileProcessor {
+
+    @Override
+    public Map<String, String> process(StoredFile file, Resource content) throws IOException {
+      try (InputStream in = content.getInputStream()) {
+        return this.function.apply(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,336 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for an S3-compatible object store, implementing the part of
+ * the API that {@link S3Client} uses and checking every request's signature.
+ */
+class S3StandIn implements AutoCloseable {
+
+  static final String ACCESS_KEY = "test-access-key";
+
+  static final String SECRET_KEY = "test-secret-key";
+
+  static final String REGION = "us-east-1";
+
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private static final Pattern PART = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+
+  private final AwsV4Signer signer = new AwsV4Signer(ACCESS_KEY, SECRET_KEY, REGION, "s3");
+
+  private final HttpServer server;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private final Map<String, NavigableMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+
+  private final Map<String, NavigableMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+  private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+  private final AtomicInteger uploadIds = new AtomicInteger();
+
+  private record StoredObject(byte[] content, Instant lastModified, String etag) {
+
+  }
+
+  S3StandIn() throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(this.executor);
+    this.server.start();
+  }
+
+  String endpoint() {
+    return "http://localhost:" + this.server.getAddress().getPort();
+  }
+
+  /**
+   * Return how many requests of a kind, such as {@code UploadPart} or
+   * {@code GetRange}, were made.
+   */
+  int requests(String operation) {
+    AtomicInteger count = this.requests.get(operation);
+    return (count != null ? count.get() : 0);
+  }
+
+  List<String> keys(String bucket) {
+    return List.copyOf(this.buckets.getOrDefault(bucket, new ConcurrentSkipListMap<>()).keySet());
+  }
+
+  byte[] content(String bucket, String key) {
+    StoredObject object = this.buckets.get(bucket).get(key);
+    return (object != null ? object.content() : null);
+  }
+
+  int pendingUploads() {
+    return this.uploads.size();
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      byte[] body = exchange.getRequestBody().readAllBytes();
+      URI uri = exchange.getRequestURI();
+      Map<String, String> query = query(uri.getRawQuery());
+      if (!authorized(exchange, uri.getRawPath(), query, body)) {
+        respond(exchange, 403, "<Error><Code>SignatureDoesNotMatch</Code></Error>");
+        return;
+      }
+      String path = uri.getPath().substring(1);
+      int slash = path.indexOf('/');
+      String bucket = (slash < 0 ? path : path.substring(0, slash));
+      String key = (slash < 0 ? null : path.substring(slash + 1));
+      String method = exchange.getRequestMethod();
+      if (key == null) {
+        handleBucket(exchange, method, bucket, query);
+      }
+      else if (!this.buckets.containsKey(bucket)) {
+        respond(exchange, 404, "<Error><Code>NoSuchBucket</Code></Error>");
+      }
+      else if (query.containsKey("uploads")) {
+        count("CreateMultipartUpload");
+        String uploadId = "upload-" + this.uploadIds.incrementAndGet();
+        this.uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId
+            + "</UploadId></InitiateMultipartUploadResult>");
+      }
+      else if (query.containsKey("uploadId")) {
+        handleUpload(exchange, method, bucket, key, query, body);
+      }
+      else {
+        handleObject(exchange, method, bucket, key, body);
+      }
+    }
+  }
+
+  private void handleBucket(HttpExchange exchange, String method, String bucket, Map<String, String> query)
+      throws IOException {
+
+    if (method.equals("PUT")) {
+      this.buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<>());
+      respond(exchange, 200, null);
+    }
+    else if (!this.buckets.containsKey(bucket)) {
+      respond(exchange, 404, (method.equals("HEAD") ? null : "<Error><Code>NoSuchBucket</Code></Error>"));
+    }
+    else if (method.equals("HEAD")) {
+      respond(exchange, 200, null);
+    }
+    else {
+      count("ListObjects");
+      String prefix = query.getOrDefault("prefix", "");
+      int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+      String after = query.getOrDefault("continuation-token", query.get("start-after"));
+      NavigableMap<String, StoredObject> objects = this.buckets.get(bucket);
+      if (after != null) {
+        objects = objects.tailMap(after, false);
+      }
+      StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+      String last = null;
+      boolean truncated = false;
+      int listed = 0;
+      for (Map.Entry<String, StoredObject> object : objects.entrySet()) {
+        if (!object.getKey().startsWith(prefix)) {
+          continue;
+        }
+        if (listed == maxKeys) {
+          truncated = true;
+          break;
+        }
+        xml.append("<Contents><Key>").append(object.getKey()).append("</Key><LastModified>")
+            .append(object.getValue().lastModified()).append("</LastModified><ETag>")
+            .append(object.getValue().etag().replace("\"", "&quot;")).append("</ETag><Size>")
+            .append(object.getValue().content().length).append("</Size></Contents>");
+        last = object.getKey();
+        listed++;
+      }
+      xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+      if (truncated) {
+        xml.append("<NextContinuationToken>").append(last).append("</NextContinuationToken>");
+      }
+      respond(exchange, 200, xml.append("</ListBucketResult>").toString());
+    }
+  }
+
+  private void handleUpload(HttpExchange exchange, String method, String bucket, String key,
+      Map<String, String> query, byte[] body) throws IOException {
+
+    NavigableMap<Integer, byte[]> parts = this.uploads.get(query.get("uploadId"));
+    if (parts == null) {
+      respond(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+    }
+    else if (method.equals("PUT")) {
+      count("UploadPart");
+      parts.put(Integer.parseInt(query.get("partNumber")), body);
+      exchange.getResponseHeaders().set("ETag", etag(body));
+      respond(exchange, 200, null);
+    }
+    else if (method.equals("DELETE")) {
+      count("AbortMultipartUpload");
+      this.uploads.remove(query.get("uploadId"));
+      respond(exchange, 204, null);
+    }
+    else {
+      count("CompleteMultipartUpload");
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      Matcher part = PART.matcher(new String(body, StandardCharsets.UTF_8));
+      int count = 0;
+      while (part.find()) {
+        content.writeBytes(parts.get(Integer.parseInt(part.group(1))));
+        count++;
+      }
+      this.uploads.remove(query.get("uploadId"));
+      String etag = "\"" + etag(content.toByteArray()).replace("\"", "") + "-" + count + "\"";
+      this.buckets.get(bucket).put(key, new StoredObject(content.toByteArray(), now(), etag));
+      respond(exchange, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key><ETag>"
+          + etag.replace("\"", "&quot;") + "</ETag></CompleteMultipartUploadResult>");
+    }
+  }
+
+  private void handleObject(HttpExchange exchange, String method, String bucket, String key, byte[] body)
+      throws IOException {
+
+    NavigableMap<String, StoredObject> objects = this.buckets.get(bucket);
+    if (method.equals("PUT")) {
+      count("PutObject");
+      String etag = etag(body);
+      objects.put(key, new StoredObject(body, now(), etag));
+      exchange.getResponseHeaders().set("ETag", etag);
+      respond(exchange, 200, null);
+      return;
+    }
+    if (method.equals("DELETE")) {
+      count("DeleteObject");
+      objects.remove(key);
+      respond(exchange, 204, null);
+      return;
+    }
+    StoredObject object = objects.get(key);
+    if (object == null) {
+      respond(exchange, 404, (method.equals("HEAD") ? null : "<Error><Code>NoSuchKey</Code></Error>"));
+      return;
+    }
+    String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+    if (ifMatch != null && !ifMatch.equals(object.etag())) {
+      respond(exchange, 412, "<Error><Code>PreconditionFailed</Code></Error>");
+      return;
+    }
+    exchange.getResponseHeaders().set("ETag", object.etag());
+    exchange.getResponseHeaders().set("Last-Modified",
+        DateTimeFormatter.RFC_1123_DATE_TIME.format(object.lastModified().atOffset(ZoneOffset.UTC)));
+    if (method.equals("HEAD")) {
+      count("HeadObject");
+      exchange.getResponseHeaders().set("Content-Length", Integer.toString(object.content().length));
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    Matcher matcher = (range != null ? RANGE.matcher(range) : null);
+    if (matcher != null && matcher.matches()) {
+      count("GetRange");
+      int start = Integer.parseInt(matcher.group(1));
+      int end = Math.min(Integer.parseInt(matcher.group(2)), object.content().length - 1);
+      exchange.sendResponseHeaders(206, end - start + 1);
+      exchange.getResponseBody().write(object.content(), start, end - start + 1);
+      return;
+    }
+    count("GetObject");
+    exchange.sendResponseHeaders(200, (object.content().length > 0 ? object.content().length : -1));
+    exchange.getResponseBody().write(object.content());
+  }
+
+  private boolean authorized(HttpExchange exchange, String rawPath, Map<String, String> query, byte[] body) {
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    String payloadHash = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+    String date = exchange.getRequestHeaders().getFirst("x-amz-date");
+    if (authorization == null || payloadHash == null || date == null
+        || !payloadHash.equals(AwsV4Signer.sha256Hex(body))) {
+      return false;
+    }
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("host", exchange.getRequestHeaders().getFirst("Host"));
+    headers.put("x-amz-content-sha256", payloadHash);
+    headers.put("x-amz-date", date);
+    Instant time = Instant.from(AwsV4Signer.TIMESTAMP.parse(date));
+    return authorization.equals(this.signer.authorization(exchange.getRequestMethod(), rawPath, query,
+        headers, payloadHash, time));
+  }
+
+  private void count(String operation) {
+    this.requests.computeIfAbsent(operation, name -> new AtomicInteger()).incrementAndGet();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String xml) throws IOException {
+    if (xml == null) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static Map<String, String> query(String rawQuery) {
+    Map<String, String> query = new LinkedHashMap<>();
+    if (rawQuery != null && !rawQuery.isEmpty()) {
+      for (String parameter : rawQuery.split("&")) {
+        int equals = parameter.indexOf('=');
+        String name = (equals < 0 ? parameter : parameter.substring(0, equals));
+        String value = (equals < 0 ? "" : parameter.substring(equals + 1));
+        query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+      }
+    }
+    return query;
+  }
+
+  private static String etag(byte[] content) {
+    try {
+      return "\"" + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)) + "\"";
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Instant now() {
+    return Instant.ofEpochSecond(Instant.now().getEpochSecond());
+  }
+
+}
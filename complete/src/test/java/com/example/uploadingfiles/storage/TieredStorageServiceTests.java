@@ -0,0 +1,134 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredStorageServiceTests {
+
+  private StorageProperties properties = new StorageProperties();
+
+  private TieredStorageService service;
+
+  @BeforeEach
+  public void init() {
+    String location = "target/files/" + Math.abs(new Random().nextLong());
+    properties.setLocation(location);
+    properties.setColdLocation(location + "-cold");
+    properties.setWatchForChanges(false);
+    properties.setColdAfter(Duration.ZERO);
+    service = new TieredStorageService(properties);
+    service.init();
+  }
+
+  @AfterEach
+  public void close() {
+    service.close();
+  }
+
+  @Test
+  public void movesIdleFilesToColdTierAndRecallsThemWhenRead() throws Exception {
+    List<String> removed = new ArrayList<>();
+    service.setRemovalListener(removed::add);
+    store("foo.txt", "Hello, World");
+    StoredFile stored = service.describe("foo.txt");
+    Thread.sleep(10);
+
+    assertThat(service.migrate()).isEqualTo(1);
+    assertThat(service.load("foo.txt")).doesNotExist();
+    assertThat(removed).isEmpty();
+    assertThat(Paths.get(properties.getColdLocation(), "files", "foo.txt")).exists();
+    assertThat(service.loadAll()).containsExactly(Paths.get("foo.txt"));
+    assertThat(service.describe("foo.txt")).isEqualTo(stored);
+
+    try (InputStream in = service.loadAsResource("foo.txt").getInputStream()) {
+      assertThat(new String(in.readAllBytes())).isEqualTo("Hello, World");
+    }
+    assertThat(Files.readString(service.load("foo.txt"))).isEqualTo("Hello, World");
+    assertThat(Paths.get(properties.getColdLocation(), "files", "foo.txt")).doesNotExist();
+    assertThat(service.describe("foo.txt")).isEqualTo(stored);
+  }
+
+  @Test
+  public void recentlyUsedFilesStayHot() throws Exception {
+    properties.setColdAfter(Duration.ofHours(1));
+    service.close();
+    service = new TieredStorageService(properties);
+    service.init();
+    store("foo.txt", "Hello, World");
+
+    assertThat(service.migrate()).isZero();
+    assertThat(service.load("foo.txt")).exists();
+  }
+
+  @Test
+  public void storeReplacesColdCopy() throws Exception {
+    store("foo.txt", "Hello, World");
+    Thread.sleep(10);
+    service.migrate();
+
+    store("foo.txt", "Goodbye");
+
+    try (InputStream in = service.loadAsResource("foo.txt").getInputStream()) {
+      assertThat(new String(in.readAllBytes())).isEqualTo("Goodbye");
+    }
+    try (Stream<Path> cold = Files.list(Paths.get(properties.getColdLocation(), "files"))) {
+      assertThat(cold).isEmpty();
+    }
+  }
+
+  @Test
+  public void listsFilesOfBothTiers() throws Exception {
+    store("a.txt", "a");
+    store("c.txt", "c");
+    Thread.sleep(10);
+    service.migrate();
+    store("b.txt", "b");
+    store("d.txt", "d");
+    store("e.txt", "e");
+
+    List<String> filenames = new ArrayList<>();
+    String cursor = null;
+    do {
+      FilePage page = service.list(2, cursor, FileSort.NAME);
+      page.files().forEach(file -> filenames.add(file.filename()));
+      cursor = page.nextCursor();
+    }
+    while (cursor != null);
+    assertThat(filenames).containsExactly("a.txt", "b.txt", "c.txt", "d.txt", "e.txt");
+  }
+
+  @Test
+  public void coldFilesSurviveRestart() throws Exception {
+    store("foo.txt", "Hello, World");
+    Thread.sleep(10);
+    service.migrate();
+    service.close();
+
+    service = new TieredStorageService(properties);
+    service.init();
+
+    assertThat(service.describe("foo.txt").size()).isEqualTo(12);
+    try (InputStream in = service.loadAsResource("foo.txt").getInputStream()) {
+      assertThat(new String(in.readAllBytes())).isEqualTo("Hello, World");
+    }
+  }
+
+  private void store(String filename, String content) {
+    service.store(filename, new ByteArrayInputStream(content.getBytes()));
+  }
+
+}